@@ -114,6 +114,21 @@ public class EpubEditorConfiguration
         Logger.getLogger("de.machmireinebook").setLevel(Level.DEBUG);
     }
 
+    /**
+     * The folder for the saved configuration and the caches, inside of the profile folder for all users.
+     *
+     * @return empty if there is no profile folder for all users
+     */
+    public static Optional<Path> getConfigurationFolder()
+    {
+        String alluserProfileFolder = System.getenv().get("ALLUSERSPROFILE");
+        if (StringUtils.isNotEmpty(alluserProfileFolder))
+        {
+            return Optional.of(Paths.get(alluserProfileFolder, "epubfx"));
+        }
+        return Optional.empty();
+    }
+
     public void readConfiguration()
     {
         MainController epubEditorMainController =  BeanFactory.getInstance().getBean(MainController.class);
@@ -124,17 +139,16 @@ public class EpubEditorConfiguration
         ClipManager clipManager =  BeanFactory.getInstance().getBean(ClipManager.class);
         PreferencesManager preferencesManager =  BeanFactory.getInstance().getBean(PreferencesManager.class);
         //saved configuration
-        String alluserProfileFolder = System.getenv().get("ALLUSERSPROFILE");
+        Optional<Path> configurationFolder = getConfigurationFolder();
 
         stageSizer.setStage(mainWindow);
 
         InputStream fis;
         try
         {
-            if (StringUtils.isNotEmpty(alluserProfileFolder)) {
-                String confFilePath = alluserProfileFolder + "/epubfx";
-                Files.createDirectories(Paths.get(confFilePath));
-                fis = new FileInputStream(confFilePath + "/application.xml");
+            if (configurationFolder.isPresent()) {
+                Files.createDirectories(configurationFolder.get());
+                fis = new FileInputStream(configurationFolder.get().resolve("application.xml").toFile());
             } else {
                 fis = EpubEditorConfiguration.class.getResourceAsStream("/application.xml");
             }
@@ -555,14 +569,13 @@ public class EpubEditorConfiguration
             Optional<Element> preferencesElementOptional = preferencesManager.getPreferencesElement();
             preferencesElementOptional.ifPresent(root::addContent);
         }
-        String alluserProfileFolder = System.getenv().get("ALLUSERSPROFILE");
+        Optional<Path> configurationFolder = getConfigurationFolder();
         OutputStream os;
         try
         {
-            if (StringUtils.isNotEmpty(alluserProfileFolder)) {
-                String confFilePath = alluserProfileFolder + "/epubfx";
-                Files.createDirectories(Paths.get(confFilePath));
-                os = new FileOutputStream(confFilePath + "/application.xml");
+            if (configurationFolder.isPresent()) {
+                Files.createDirectories(configurationFolder.get());
+                os = new FileOutputStream(configurationFolder.get().resolve("application.xml").toFile());
             } else {
                 os = new FileOutputStream(new File(EpubEditorConfiguration.class.getResource("/application.xml").getFile()));
             }
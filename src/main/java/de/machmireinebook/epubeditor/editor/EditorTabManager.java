@@ -3,6 +3,7 @@ package de.machmireinebook.epubeditor.editor;
 import java.io.IOException;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Deque;
 import java.util.List;
 import java.util.Locale;
@@ -382,7 +383,7 @@ public class EditorTabManager {
         if (currentEditorIsXHTML.get()) {
             Resource resource = currentXHTMLResource.get();
             code = formatAsXHTML(code);
-            resource.setData(code.getBytes(StandardCharsets.UTF_8));
+            setResourceData(resource, code);
         }
         editor.setCode(code);
         editor.setAbsoluteCursorPosition(currentCursorPosition);
@@ -398,7 +399,7 @@ public class EditorTabManager {
         if (currentEditorIsXHTML.get()) {
             Resource resource = currentXHTMLResource.get();
             code = repairXHTML(code);
-            resource.setData(code.getBytes(StandardCharsets.UTF_8));
+            setResourceData(resource, code);
         }
         editor.setCode(code);
         editor.setAbsoluteCursorPosition(currentCursorPosition);
@@ -417,7 +418,7 @@ public class EditorTabManager {
         if (currentEditorIsXHTML.get()) {
             Resource resource = currentXHTMLResource.get();
             code = XHTMLUtils.unescapedHtmlWithXmlAndNbspExceptions(code);
-            resource.setData(code.getBytes(StandardCharsets.UTF_8));
+            setResourceData(resource, code);
         }
         refreshPreview();
         editor.setCode(code);
@@ -512,6 +513,18 @@ public class EditorTabManager {
         return found;
     }
 
+    /**
+     * Like {@link #isTabAlreadyOpen(Resource)}, but without selecting the tab.
+     */
+    public boolean isOpenedInEditor(Resource<?> resource) {
+        for (Tab tab : tabPane.getTabs()) {
+            if (resource.equals(tab.getUserData())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public void openFileInEditor(Resource<?> resource) throws IllegalArgumentException {
         openFileInEditor(resource, resource.getMediaType());
     }
@@ -603,15 +616,15 @@ public class EditorTabManager {
                         }
                         CodeEditor codeEditor = currentEditor.getValue();
                         if (codeEditor.getMediaType().equals(MediaType.XHTML)) {
-                            currentXHTMLResource.getValue().setData(codeEditor.getCode().getBytes(StandardCharsets.UTF_8));
+                            setResourceData(currentXHTMLResource.getValue(), codeEditor.getCode());
                             currentXHTMLResource.getValue().prepareWebViewDocument(book.getVersion());
                         }
                         else if (codeEditor.getMediaType().equals(MediaType.CSS)) {
-                            currentCssResource.get().setData(codeEditor.getCode().getBytes(StandardCharsets.UTF_8));
+                            setResourceData(currentCssResource.get(), codeEditor.getCode());
                         }
                         else if (codeEditor.getMediaType().equals(MediaType.XML)) {
                             try {
-                                currentXMLResource.get().setData(codeEditor.getCode().getBytes(StandardCharsets.UTF_8));
+                                setResourceData(currentXMLResource.get(), codeEditor.getCode());
                                 if (((XMLResource) resource).isValidXML() && MediaType.OPF.equals(resource.getMediaType())) {
                                     if (book.isEpub3()) {
                                         Epub3PackageDocumentReader.read((XMLResource)resource, book);
@@ -844,7 +857,7 @@ public class EditorTabManager {
                     XhtmlFileSplitter splitter = new XhtmlFileSplitter(book.getVersion());
                     String completedFrontPart = splitter.completeFrontPart(frontPart);
 
-                    oldResource.setData(completedFrontPart.getBytes(StandardCharsets.UTF_8));
+                    setResourceData(oldResource, completedFrontPart);
                     xhtmlCodeEditor.setCode(completedFrontPart);
                     oldResource.prepareWebViewDocument(book.getVersion());
 
@@ -895,7 +908,7 @@ public class EditorTabManager {
             CodeEditor xhtmlCodeEditor = currentEditor.getValue();
             XHTMLResource xhtmlResource = currentXHTMLResource.getValue();
             if (xhtmlCodeEditor != null && xhtmlResource != null) {
-                xhtmlResource.setData(xhtmlCodeEditor.getCode().getBytes(StandardCharsets.UTF_8));
+                setResourceData(xhtmlResource, xhtmlCodeEditor.getCode());
                 xhtmlResource.prepareWebViewDocument(book.getVersion());
             }
         }
@@ -908,7 +921,7 @@ public class EditorTabManager {
             CodeEditor xhtmlCodeEditor = currentEditor.getValue();
             XHTMLResource xhtmlResource = currentXHTMLResource.getValue();
             if (xhtmlCodeEditor != null && xhtmlResource != null) {
-                xhtmlResource.setData(xhtmlCodeEditor.getCode().getBytes(StandardCharsets.UTF_8));
+                setResourceData(xhtmlResource, xhtmlCodeEditor.getCode());
                 xhtmlResource.prepareWebViewDocument(book.getVersion());
             }
             //trigger total refresh
@@ -948,6 +961,17 @@ public class EditorTabManager {
         this.book = book;
     }
 
+    /**
+     * Sets the code of an editor as data of the resource, if it differs from the current data. So syncing an unchanged
+     * editor doesn't count as change of the resource, e.g. for the autosave journal.
+     */
+    private void setResourceData(Resource resource, String code) {
+        byte[] data = code.getBytes(StandardCharsets.UTF_8);
+        if (!resource.isDataLoaded() || !Arrays.equals(data, resource.getData())) {
+            resource.setData(data);
+        }
+    }
+
     public CodeEditor getCurrentEditor() {
         return currentEditor.getValue();
     }
@@ -2,6 +2,15 @@ package de.machmireinebook.epubeditor.epublib.bookprocessor;
 
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 
 import org.apache.log4j.Logger;
 
@@ -13,6 +22,12 @@ import de.machmireinebook.epubeditor.epublib.epub2.BookProcessor;
 
 /**
  * Helper class for BookProcessors that only manipulate html type resources.
+ *
+ * The html resources are processed in parallel, {@link #processHtml(Resource, Book, String)} must not change the
+ * resource or the book. The results are written back to the resources in manifest order on the calling thread.
+ *
+ * The hash of the data of each processed resource is remembered, a resource is not processed again as long as its
+ * data is unchanged.
  * 
  * @author paul
  *
@@ -21,28 +36,155 @@ public abstract class HtmlBookProcessor implements BookProcessor {
 
 	private final static Logger log = Logger.getLogger(HtmlBookProcessor.class);
 
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+	private ProgressListener progressListener;
+	private boolean skipUnmodifiedResources;
+
 	public HtmlBookProcessor() {
 	}
 
 	@Override
 	public Book processBook(Book book) {
+		try {
+			processHtmlResources(getHtmlResources(book), book, (resource, processedHtml) -> {
+				//setting the same data again would only mark the resource as modified
+				if (processedHtml != null && !Arrays.equals(processedHtml, resource.getData())) {
+					resource.setData(processedHtml);
+					resource.setInputEncoding(Constants.CHARACTER_ENCODING);
+				}
+				markProcessed(resource);
+			});
+		} catch (InterruptedException e) {
+			log.error("processing of book interrupted", e);
+			Thread.currentThread().interrupt();
+		}
+		return book;
+	}
+
+	/**
+	 * @return the html resources of the book in manifest order, without the resources that are unchanged since they
+	 * were processed the last time
+	 */
+	public List<Resource> getHtmlResources(Book book) {
+		List<Resource> htmlResources = new ArrayList<>();
 		for(Resource resource: book.getResources().getAll()) {
-			try {
-				cleanupResource(resource, book);
-			} catch (IOException e) {
-				log.error(e.getMessage(), e);
+			if(resource.getMediaType() == MediaType.XHTML
+					&& !(skipUnmodifiedResources && resource.isLazyLoaded() && !resource.isDataModified())
+					&& !isProcessed(resource)) {
+				htmlResources.add(resource);
 			}
 		}
-		return book;
+		return htmlResources;
+	}
+
+	/**
+	 * Processes the html resources in parallel. The results are handed to the result consumer on the calling thread
+	 * in the order of the given list, with null as result for resources that should be left unchanged. Resources
+	 * that could not be processed are skipped.
+	 *
+	 * @throws InterruptedException if the calling thread is interrupted while waiting for the results
+	 */
+	public void processHtmlResources(List<Resource> htmlResources, Book book,
+									 BiConsumer<Resource, byte[]> resultConsumer) throws InterruptedException {
+		if (htmlResources.isEmpty()) {
+			return;
+		}
+
+		int total = htmlResources.size();
+		AtomicInteger finished = new AtomicInteger();
+		fireProgressChanged(0, total);
+		ExecutorService executor = Executors.newWorkStealingPool(Math.max(1, Math.min(parallelism, total)));
+		try {
+			List<Future<byte[]>> results = new ArrayList<>(total);
+			for (Resource resource : htmlResources) {
+				results.add(executor.submit(() -> {
+					try {
+						return processHtml(resource, book, Constants.CHARACTER_ENCODING);
+					} finally {
+						fireProgressChanged(finished.incrementAndGet(), total);
+					}
+				}));
+			}
+			for (int i = 0; i < total; i++) {
+				Resource resource = htmlResources.get(i);
+				try {
+					byte[] processedHtml = results.get(i).get();
+					resultConsumer.accept(resource, processedHtml);
+				} catch (ExecutionException e) {
+					log.error("error while processing " + resource.getHref(), e.getCause());
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Remembers the current data of the resource as processed, the resource is skipped by the next processing as long
+	 * as its data isn't changed.
+	 */
+	public static void markProcessed(Resource resource) {
+		resource.setProcessedDataHash(hash(resource));
 	}
 
-	private void cleanupResource(Resource resource, Book book) throws IOException {
-		if(resource.getMediaType() == MediaType.XHTML) {
-			byte[] cleanedHtml = processHtml(resource, book, Constants.CHARACTER_ENCODING);
-			resource.setData(cleanedHtml);
-			resource.setInputEncoding(Constants.CHARACTER_ENCODING);
+	private static boolean isProcessed(Resource resource) {
+		long processedDataHash = resource.getProcessedDataHash();
+		if (processedDataHash == 0) {
+			return false;
 		}
+		return hash(resource) == processedDataHash;
 	}
 
+	private static long hash(Resource resource) {
+		if (!resource.isDataLoaded() && !resource.isLazyLoaded()) {
+			return 0;
+		}
+		//computed once per data version by the resource
+		long hash = resource.getContentHash();
+		//0 is reserved for not processed resources
+		return hash != 0 ? hash : 1;
+	}
+
+	private void fireProgressChanged(long workDone, long max) {
+		if (progressListener != null) {
+			progressListener.progressChanged(workDone, max);
+		}
+	}
+
+	/**
+	 * Processes the html of the resource. Is called in parallel for different resources of the book.
+	 *
+	 * @return the processed html, null if the resource should be left unchanged
+	 */
 	protected abstract byte[] processHtml(Resource resource, Book book, String encoding) throws IOException;
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Sets the maximum number of html resources that are processed at the same time.
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = parallelism;
+	}
+
+	public boolean isSkipUnmodifiedResources() {
+		return skipUnmodifiedResources;
+	}
+
+	/**
+	 * If true, html resources that are unchanged since they were read from the epub file are not processed.
+	 */
+	public void setSkipUnmodifiedResources(boolean skipUnmodifiedResources) {
+		this.skipUnmodifiedResources = skipUnmodifiedResources;
+	}
+
+	public ProgressListener getProgressListener() {
+		return progressListener;
+	}
+
+	public void setProgressListener(ProgressListener progressListener) {
+		this.progressListener = progressListener;
+	}
 }
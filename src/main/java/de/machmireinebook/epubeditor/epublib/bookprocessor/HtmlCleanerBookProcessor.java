@@ -15,9 +15,11 @@ import de.machmireinebook.epubeditor.epublib.domain.Book;
 import de.machmireinebook.epubeditor.epublib.resource.Resource;
 import de.machmireinebook.epubeditor.epublib.epub2.BookProcessor;
 import de.machmireinebook.epubeditor.xhtml.XHTMLUtils;
+import de.machmireinebook.epubeditor.xhtml.XhtmlWellFormednessProbe;
 
 /**
  * Cleans up regular html into xhtml. Uses HtmlCleaner to do this.
+ * Resources that are already well-formed xhtml are not cleaned, see {@link XhtmlWellFormednessProbe}.
  * 
  * @author paul
  * 
@@ -29,8 +31,16 @@ public class HtmlCleanerBookProcessor extends HtmlBookProcessor implements
 	private final static Logger logger = Logger.getLogger(HtmlCleanerBookProcessor.class);
 
 
+	/**
+	 * @return the cleaned html, null if the resource is already well-formed xhtml and needs no cleaning
+	 */
 	public byte[] processHtml(Resource resource, Book book, String outputEncoding) throws IOException
     {
+        if (XhtmlWellFormednessProbe.isWellFormedXhtml(resource.getData()))
+        {
+            logger.debug("skipping " + resource + ", is already well-formed xhtml");
+            return null;
+        }
         logger.info("processing " + resource + " with htmlcleaner");
         byte[] bytes = null;
         try
@@ -51,6 +61,10 @@ public class HtmlCleanerBookProcessor extends HtmlBookProcessor implements
     @Override
     public Resource processResource(Resource resource, Book book)
     {
+        if (XhtmlWellFormednessProbe.isWellFormedXhtml(resource.getData()))
+        {
+            return resource;
+        }
         try
         {
             HtmlCleaner cleaner = XHTMLUtils.createHtmlCleaner(book.getVersion());
@@ -0,0 +1,9 @@
+package de.machmireinebook.epubeditor.epublib.bookprocessor;
+
+/**
+ * Gets informed about the progress of a book processor, that processes the resources of a book.
+ * Can be called from any thread.
+ */
+public interface ProgressListener {
+	void progressChanged(long workDone, long max);
+}
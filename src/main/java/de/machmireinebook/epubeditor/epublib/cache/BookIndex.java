@@ -0,0 +1,177 @@
+package de.machmireinebook.epubeditor.epublib.cache;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import de.machmireinebook.epubeditor.epublib.domain.MediaType;
+
+/**
+ * Index of the entries of an epub file, that is stored in the {@link BookIndexCache} between two openings of the
+ * same file. Holds for each entry the detected media type, the content hash (CRC-32 of the central directory) and
+ * whether the entry is already clean xhtml, that needs no cleaning by HtmlCleaner.
+ *
+ * The index is only valid for the file with the same path, size, modification time and central directory hash.
+ */
+public class BookIndex
+{
+    private final Path path;
+    private final long size;
+    private final long lastModified;
+    private final long centralDirectoryHash;
+    private final boolean fromCache;
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    public static class Entry
+    {
+        private final String name;
+        private final long crc;
+        private final long size;
+        private final MediaType mediaType;
+        private volatile boolean clean;
+
+        public Entry(String name, long crc, long size, MediaType mediaType, boolean clean)
+        {
+            this.name = name;
+            this.crc = crc;
+            this.size = size;
+            this.mediaType = mediaType;
+            this.clean = clean;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        /**
+         * @return the CRC-32 of the uncompressed content as stored in the central directory
+         */
+        public long getCrc()
+        {
+            return crc;
+        }
+
+        public long getSize()
+        {
+            return size;
+        }
+
+        public MediaType getMediaType()
+        {
+            return mediaType;
+        }
+
+        /**
+         * @return true if the entry is well-formed xhtml, that can be used without cleaning
+         */
+        public boolean isClean()
+        {
+            return clean;
+        }
+
+        public void setClean(boolean clean)
+        {
+            this.clean = clean;
+        }
+    }
+
+    public BookIndex(Path path, long size, long lastModified, long centralDirectoryHash, boolean fromCache)
+    {
+        this.path = path;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.centralDirectoryHash = centralDirectoryHash;
+        this.fromCache = fromCache;
+    }
+
+    /**
+     * Hash over name, CRC-32 and size of all entries of the central directory, changes if any entry of the file
+     * is changed, added or removed.
+     */
+    public static long computeCentralDirectoryHash(ZipFile zipFile)
+    {
+        Hasher hasher = Hashing.farmHashFingerprint64().newHasher();
+        Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+        while (zipEntries.hasMoreElements())
+        {
+            ZipEntry zipEntry = zipEntries.nextElement();
+            hasher.putString(zipEntry.getName(), StandardCharsets.UTF_8)
+                    .putLong(zipEntry.getCrc())
+                    .putLong(zipEntry.getSize());
+        }
+        return hasher.hash().asLong();
+    }
+
+    public Path getPath()
+    {
+        return path;
+    }
+
+    public long getSize()
+    {
+        return size;
+    }
+
+    public long getLastModified()
+    {
+        return lastModified;
+    }
+
+    public long getCentralDirectoryHash()
+    {
+        return centralDirectoryHash;
+    }
+
+    /**
+     * @return true if the index was read from the cache, false if it was created for a file opened the first time or
+     * changed since the last opening
+     */
+    public boolean isFromCache()
+    {
+        return fromCache;
+    }
+
+    public synchronized Entry getEntry(String name)
+    {
+        return entries.get(name);
+    }
+
+    public synchronized void putEntry(Entry entry)
+    {
+        entries.put(entry.getName(), entry);
+    }
+
+    public synchronized Collection<Entry> getEntries()
+    {
+        return Collections.unmodifiableCollection(new ArrayList<>(entries.values()));
+    }
+
+    /**
+     * @return true if the entry with the name is known as clean xhtml
+     */
+    public boolean isClean(String name)
+    {
+        Entry entry = getEntry(name);
+        return entry != null && entry.isClean();
+    }
+
+    public void setClean(String name, boolean clean)
+    {
+        Entry entry = getEntry(name);
+        if (entry != null)
+        {
+            entry.setClean(clean);
+        }
+    }
+}
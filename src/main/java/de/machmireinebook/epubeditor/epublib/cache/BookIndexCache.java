@@ -0,0 +1,155 @@
+package de.machmireinebook.epubeditor.epublib.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Optional;
+import java.util.zip.ZipFile;
+
+import org.apache.log4j.Logger;
+
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.JDOMException;
+import org.jdom2.input.SAXBuilder;
+import org.jdom2.output.Format;
+import org.jdom2.output.XMLOutputter;
+
+import com.google.common.hash.Hashing;
+
+import de.machmireinebook.epubeditor.EpubEditorConfiguration;
+import de.machmireinebook.epubeditor.epublib.domain.MediaType;
+
+/**
+ * Stores the {@link BookIndex} of opened epub files as xml files in a cache directory, one file per epub path.
+ * A stored index is only used if size, modification time and the hash of the central directory of the epub file
+ * are unchanged, otherwise a new empty index is created.
+ */
+public class BookIndexCache
+{
+    private static final Logger logger = Logger.getLogger(BookIndexCache.class);
+
+    private final Path directory;
+
+    public BookIndexCache(Path directory)
+    {
+        this.directory = directory;
+    }
+
+    public Path getDirectory()
+    {
+        return directory;
+    }
+
+    /**
+     * Returns the cached index of the epub file if it is still valid, otherwise a new empty index for the file.
+     *
+     * @param epubFile the epub file
+     * @param zipFile the opened epub file, used to compute the hash of the central directory
+     */
+    public BookIndex loadOrCreate(Path epubFile, ZipFile zipFile) throws IOException
+    {
+        long size = Files.size(epubFile);
+        long lastModified = Files.getLastModifiedTime(epubFile).toMillis();
+        long centralDirectoryHash = BookIndex.computeCentralDirectoryHash(zipFile);
+        return load(epubFile, size, lastModified, centralDirectoryHash)
+                .orElseGet(() -> new BookIndex(epubFile, size, lastModified, centralDirectoryHash, false));
+    }
+
+    private Optional<BookIndex> load(Path epubFile, long size, long lastModified, long centralDirectoryHash)
+    {
+        Path indexFile = getIndexFile(epubFile);
+        if (!Files.exists(indexFile))
+        {
+            return Optional.empty();
+        }
+        try (InputStream in = Files.newInputStream(indexFile))
+        {
+            Element root = new SAXBuilder().build(in).getRootElement();
+            if (!epubFile.toAbsolutePath().toString().equals(root.getAttributeValue("path"))
+                    || size != Long.parseLong(root.getAttributeValue("size"))
+                    || lastModified != Long.parseLong(root.getAttributeValue("last-modified"))
+                    || centralDirectoryHash != Long.parseLong(root.getAttributeValue("central-directory-hash")))
+            {
+                logger.info("cached book index of " + epubFile + " is outdated");
+                return Optional.empty();
+            }
+            BookIndex index = new BookIndex(epubFile, size, lastModified, centralDirectoryHash, true);
+            for (Element entryElement : root.getChildren("entry"))
+            {
+                index.putEntry(new BookIndex.Entry(entryElement.getAttributeValue("name"),
+                        Long.parseLong(entryElement.getAttributeValue("crc")),
+                        Long.parseLong(entryElement.getAttributeValue("size")),
+                        MediaType.getByName(entryElement.getAttributeValue("media-type")),
+                        Boolean.parseBoolean(entryElement.getAttributeValue("clean"))));
+            }
+            logger.info("using cached book index of " + epubFile);
+            return Optional.of(index);
+        }
+        catch (IOException | JDOMException | RuntimeException e)
+        {
+            logger.warn("can't read cached book index of " + epubFile + ", ignoring it", e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Writes the index into the cache, replaces a former index of the same epub file.
+     */
+    public void store(BookIndex index)
+    {
+        Element root = new Element("book-index");
+        root.setAttribute("path", index.getPath().toAbsolutePath().toString());
+        root.setAttribute("size", String.valueOf(index.getSize()));
+        root.setAttribute("last-modified", String.valueOf(index.getLastModified()));
+        root.setAttribute("central-directory-hash", String.valueOf(index.getCentralDirectoryHash()));
+        for (BookIndex.Entry entry : index.getEntries())
+        {
+            Element entryElement = new Element("entry");
+            entryElement.setAttribute("name", entry.getName());
+            entryElement.setAttribute("crc", String.valueOf(entry.getCrc()));
+            entryElement.setAttribute("size", String.valueOf(entry.getSize()));
+            entryElement.setAttribute("media-type", entry.getMediaType().getName());
+            entryElement.setAttribute("clean", String.valueOf(entry.isClean()));
+            root.addContent(entryElement);
+        }
+
+        Path indexFile = getIndexFile(index.getPath());
+        try
+        {
+            Files.createDirectories(directory);
+            Path tempFile = Files.createTempFile(directory, "book-index", ".tmp");
+            try (OutputStream os = Files.newOutputStream(tempFile))
+            {
+                new XMLOutputter(Format.getCompactFormat()).output(new Document(root), os);
+            }
+            Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (IOException e)
+        {
+            logger.error("can't write book index of " + index.getPath(), e);
+        }
+    }
+
+    private Path getIndexFile(Path epubFile)
+    {
+        String key = Hashing.sha256().hashString(epubFile.toAbsolutePath().toString(), StandardCharsets.UTF_8).toString();
+        return directory.resolve(key + ".xml");
+    }
+
+    /**
+     * The default directory of the cache: inside of the configuration folder, if it exists, otherwise in the home
+     * directory of the user.
+     */
+    public static Path getDefaultDirectory()
+    {
+        return EpubEditorConfiguration.getConfigurationFolder()
+                .orElseGet(() -> Paths.get(System.getProperty("user.home"), ".epubfx"))
+                .resolve("book-index");
+    }
+}
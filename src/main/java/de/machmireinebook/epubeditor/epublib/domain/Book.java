@@ -11,6 +11,10 @@ import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Predicate;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 import javax.inject.Named;
 
@@ -31,20 +35,28 @@ import org.jdom2.util.IteratorIterable;
 
 import de.machmireinebook.epubeditor.epublib.Constants;
 import de.machmireinebook.epubeditor.epublib.EpubVersion;
+import de.machmireinebook.epubeditor.epublib.cache.BookIndex;
 import de.machmireinebook.epubeditor.epublib.domain.epub2.Guide;
 import de.machmireinebook.epubeditor.epublib.domain.epub2.GuideReference;
 import de.machmireinebook.epubeditor.epublib.domain.epub2.Metadata;
 import de.machmireinebook.epubeditor.epublib.domain.epub3.LandmarkReference;
 import de.machmireinebook.epubeditor.epublib.domain.epub3.Landmarks;
 import de.machmireinebook.epubeditor.epublib.domain.epub3.ManifestItemPropertiesValue;
+import de.machmireinebook.epubeditor.epublib.epub2.EpubWriter;
 import de.machmireinebook.epubeditor.epublib.epub2.NCXDocument;
 import de.machmireinebook.epubeditor.epublib.epub2.PackageDocumentWriter;
+import de.machmireinebook.epubeditor.epublib.epub2.ResourcesLoader;
 import de.machmireinebook.epubeditor.epublib.epub3.Epub3PackageDocumentWriter;
+import de.machmireinebook.epubeditor.epublib.resource.BookDirectory;
+import de.machmireinebook.epubeditor.epublib.resource.EpubSourceArchive;
 import de.machmireinebook.epubeditor.epublib.resource.ImageResource;
 import de.machmireinebook.epubeditor.epublib.resource.Resource;
+import de.machmireinebook.epubeditor.epublib.resource.ResourceChangeEvent;
+import de.machmireinebook.epubeditor.epublib.resource.ResourceChangeListener;
 import de.machmireinebook.epubeditor.epublib.resource.Resources;
 import de.machmireinebook.epubeditor.epublib.resource.TextResource;
 import de.machmireinebook.epubeditor.epublib.resource.XHTMLResource;
+import de.machmireinebook.epubeditor.epublib.resource.ZipEntryDataSource;
 import de.machmireinebook.epubeditor.epublib.toc.TableOfContents;
 import de.machmireinebook.epubeditor.jdom2.AttributeElementFilter;
 import de.machmireinebook.epubeditor.xhtml.XHTMLUtils;
@@ -60,6 +72,8 @@ public class Book implements Serializable
     private static final long serialVersionUID = 2068355170895770100L;
 
     private Resources resources = new Resources();
+    private transient List<ResourceChangeListener> resourceChangeListeners = new CopyOnWriteArrayList<>();
+    private transient ResourceChangeListener resourceChangeForwarder = this::fireResourceChanged;
     private EpubMetadata metadata;
     private Spine spine = new Spine();
     private TableOfContents tableOfContents = new TableOfContents();
@@ -79,10 +93,14 @@ public class Book implements Serializable
 
     private BooleanProperty bookIsChanged = new SimpleBooleanProperty(false);
     private ObjectProperty<Path> physicalFileNameProperty = new SimpleObjectProperty<>(this, "physicalFileName");
+    private transient EpubSourceArchive sourceArchive;
+    private transient BookDirectory sourceDirectory;
+    private transient BookIndex bookIndex;
 
     public Book()
     {
         setVersion(EpubVersion.VERSION_2);
+        resources.addChangeListener(resourceChangeForwarder);
     }
 
     public static Book createMinimalBook()
@@ -184,7 +202,6 @@ public class Book implements Serializable
 
     public Resource<?> createResourceFromFile(File file, String href, MediaType mediaType)
     {
-        Resource<?> res = mediaType.getResourceFactory().createResource(href);
         logger.info("reading file " + file.getName() + " for adding as resource");
         byte[] content = null;
         InputStream is = null;
@@ -211,7 +228,8 @@ public class Book implements Serializable
                 logger.error("", e);
             }
         }
-        res.setData(content);
+        //created with the data, so the factory can keep large data out of the heap
+        Resource<?> res = mediaType.getResourceFactory().createResource(content, href, mediaType);
         res.setMediaType(mediaType);
         return res;
     }
@@ -258,6 +276,11 @@ public class Book implements Serializable
             List<Resource<?>> xhtmlResources = getResources().getResourcesByMediaType(MediaType.XHTML);
             for (Resource<?> xhtmlResource : xhtmlResources)
             {
+                //only documents containing the file name can link the stylesheet, no need to parse the others
+                if (!((XHTMLResource) xhtmlResource).asString().contains(cssFileName))
+                {
+                    continue;
+                }
                 Document document = ((XHTMLResource) xhtmlResource).asNativeFormat();
                 if (document != null)
                 {
@@ -338,6 +361,10 @@ public class Book implements Serializable
     public void replaceHrefInXhtmlResources(String oldHref, String newHref) {
         for (Resource<?> resource : getResources().getResourcesByMediaType(MediaType.XHTML)) {
             String text = ((TextResource)resource).asString();
+            //documents not containing the href stay unchanged
+            if (!text.contains(oldHref)) {
+                continue;
+            }
             text = text.replace(oldHref, newHref);
             try {
                 resource.setData(text.getBytes(resource.getInputEncoding()));
@@ -398,7 +425,9 @@ public class Book implements Serializable
         resources.getResourcesMap().values().forEach(resource -> resource.hrefProperty().addListener((observable, oldValue, newValue) -> {
             renameResource(resource, oldValue, newValue);
         }));
+        this.resources.removeChangeListener(resourceChangeForwarder);
         this.resources = resources;
+        resources.addChangeListener(resourceChangeForwarder);
 
     }
 
@@ -490,6 +519,28 @@ public class Book implements Serializable
         return resources;
     }
 
+    /**
+     * Adds a listener informed about added, removed, renamed and changed resources of the book, with the data versions
+     * before and after the change. The listener is called on the thread changing the resources.
+     */
+    public void addResourceChangeListener(ResourceChangeListener listener)
+    {
+        resourceChangeListeners.add(listener);
+    }
+
+    public void removeResourceChangeListener(ResourceChangeListener listener)
+    {
+        resourceChangeListeners.remove(listener);
+    }
+
+    private void fireResourceChanged(ResourceChangeEvent event)
+    {
+        for (ResourceChangeListener listener : resourceChangeListeners)
+        {
+            listener.onResourceChanged(event);
+        }
+    }
+
 
     /**
      * The sections of the book that should be shown if a user reads the book from start to finish.
@@ -812,6 +863,111 @@ public class Book implements Serializable
         this.physicalFileNameProperty.setValue(physicalFileName);
     }
 
+    /**
+     * The epub file the book was read from, resources can read their content from this file if it's needed.
+     *
+     * @return the file, null if the book was not read from a file
+     */
+    public EpubSourceArchive getSourceArchive()
+    {
+        return sourceArchive;
+    }
+
+    public void setSourceArchive(EpubSourceArchive sourceArchive)
+    {
+        this.sourceArchive = sourceArchive;
+    }
+
+    /**
+     * @return the exploded epub the book is read from and saved into, null if the book is not backed by a directory
+     */
+    public BookDirectory getSourceDirectory()
+    {
+        return sourceDirectory;
+    }
+
+    public void setSourceDirectory(BookDirectory sourceDirectory)
+    {
+        this.sourceDirectory = sourceDirectory;
+    }
+
+    /**
+     * The index of the epub file the book was read from, with the state of the entries of the file.
+     *
+     * @return the index, null if the book was not read from a file or no index cache was used
+     */
+    public BookIndex getBookIndex()
+    {
+        return bookIndex;
+    }
+
+    public void setBookIndex(BookIndex bookIndex)
+    {
+        this.bookIndex = bookIndex;
+    }
+
+    /**
+     * Reads all content, that is not read yet, from the source archive into memory and closes the archive.
+     * Must be called before the source archive is overwritten.
+     */
+    public void detachSourceArchive()
+    {
+        if (sourceArchive == null)
+        {
+            return;
+        }
+        List<Resource<?>> allResources = new ArrayList<>(resources.getAll());
+        allResources.add(coverImage);
+        allResources.add(getOpfResource());
+        allResources.add(ncxResource);
+        for (Resource<?> resource : allResources)
+        {
+            if (resource != null)
+            {
+                resource.getData();
+                resource.setDataSource(null);
+            }
+        }
+        sourceArchive.close();
+        sourceArchive = null;
+    }
+
+    /**
+     * Uses the epub file the book was just saved to as new source archive, the former source archive is closed. The
+     * resources read their content from their entries in the saved file and count as unmodified, so they are copied
+     * unchanged from this file by the next save.
+     *
+     * Resources changed after they were written keep their data, resources that are still read from the former
+     * source archive read their data into memory before it's closed.
+     *
+     * @param archive the saved file, written by {@link EpubWriter}
+     * @param isSaved tells whether the resource was written into the file with its current data
+     */
+    public void attachSavedArchive(EpubSourceArchive archive, Predicate<Resource<?>> isSaved) throws IOException
+    {
+        ZipFile zipFile = archive.getZipFile();
+        for (Resource<?> resource : resources.getAll())
+        {
+            ZipEntry zipEntry = isSaved.test(resource) ? zipFile.getEntry(EpubWriter.CONTENT_DIRECTORY + resource.getHref()) : null;
+            if (zipEntry != null)
+            {
+                resource.setSavedDataSource(ResourcesLoader.createDataSource(archive, zipEntry, resource.getMediaType()));
+            }
+            else if (sourceArchive != null && sourceArchive != archive && !resource.isDataModified()
+                    && resource.getDataSource() instanceof ZipEntryDataSource
+                    && ((ZipEntryDataSource) resource.getDataSource()).getArchive() == sourceArchive)
+            {
+                resource.getData();
+                resource.setDataSource(null);
+            }
+        }
+        if (sourceArchive != null && sourceArchive != archive)
+        {
+            sourceArchive.close();
+        }
+        sourceArchive = archive;
+    }
+
     public int getFixedLayoutWidth()
     {
         return fixedLayoutWidth;
@@ -834,8 +990,7 @@ public class Book implements Serializable
 
     public void renameResource(Resource<?> resource, String oldValue, String newValue)
     {
-        resources.remove(oldValue); //remove resource with old name, because the search key is the name of the resource
-        resources.put(resource); //and put again with new name
+        resources.rename(resource, oldValue); //the search key is the name of the resource
 
         if (MediaType.CSS.equals(resource.getMediaType()))
         {
@@ -858,14 +1013,25 @@ public class Book implements Serializable
 
             for (Resource<?> xhtmlResource : xhtmlResources)
             {
+                //only documents containing the file name can link the stylesheet, no need to parse the others
+                if (!((XHTMLResource) xhtmlResource).asString().contains(oldFileName))
+                {
+                    continue;
+                }
                 Document document = ((XHTMLResource)xhtmlResource).asNativeFormat();
                 Path relativePath = xhtmlResource.getHrefAsPath().relativize(resourcePath);
                 AttributeElementFilter hrefFilter = new AttributeElementFilter("href", relativePath + "/" + oldFileName);
                 IteratorIterable<Element> descendants = document.getDescendants(hrefFilter);
+                boolean changed = false;
                 for (Element descendant : descendants)
                 {
                     logger.info("found element with attribute href in resource " + xhtmlResource);
                     descendant.setAttribute("href", relativePath + "/" + newFileName);
+                    changed = true;
+                }
+                if (!changed)
+                {
+                    continue;
                 }
                 //nach noch mehr Elementen suchen
                 //zB src-Attribut
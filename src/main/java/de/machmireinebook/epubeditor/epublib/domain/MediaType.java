@@ -4,6 +4,9 @@ import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
 
 import org.apache.commons.lang3.StringUtils;
 
@@ -13,6 +16,7 @@ import de.machmireinebook.epubeditor.epublib.resource.ImageResourceFactory;
 import de.machmireinebook.epubeditor.epublib.resource.JavascriptResourceFactory;
 import de.machmireinebook.epubeditor.epublib.resource.Resource;
 import de.machmireinebook.epubeditor.epublib.resource.ResourceFactory;
+import de.machmireinebook.epubeditor.epublib.resource.SpillingResourceFactory;
 import de.machmireinebook.epubeditor.epublib.resource.XHTMLResourceFactory;
 import de.machmireinebook.epubeditor.epublib.resource.XMLResourceFactory;
 
@@ -35,31 +39,32 @@ public enum MediaType implements Serializable
     MIMETYPE ("text/plain", "mimetype", "", DefaultResourceFactory.getInstance()),
 
     // images
-    JPG ("image/jpeg", ".jpg", new String[]{".jpg", ".jpeg"}, "image", ImageResourceFactory.getInstance()),
-    PNG ("image/png", ".png", ImageResourceFactory.getInstance()),
-    GIF ("image/gif", ".gif", ImageResourceFactory.getInstance()),
+    JPG ("image/jpeg", ".jpg", new String[]{".jpg", ".jpeg"}, "image", new SpillingResourceFactory<>(ImageResourceFactory.getInstance())),
+    PNG ("image/png", ".png", new SpillingResourceFactory<>(ImageResourceFactory.getInstance())),
+    GIF ("image/gif", ".gif", new SpillingResourceFactory<>(ImageResourceFactory.getInstance())),
+    WEBP ("image/webp", ".webp", new SpillingResourceFactory<>(ImageResourceFactory.getInstance()), 3.3F),
 
     SVG ("image/svg+xml", ".svg", ImageResourceFactory.getInstance()),
 
     // fonts
-    TTF ("application/x-font-ttf", ".ttf", FontResourceFactory.getInstance()),
-    TTF_1 ("application/x-font-truetype", ".ttf", FontResourceFactory.getInstance()),
-    TTF_2 ("application/x-truetype-font", ".ttf", FontResourceFactory.getInstance()),
-    TTF_SINCE_3_2 ("font/ttf", ".ttf", FontResourceFactory.getInstance(), 3.2F),
-    TTF_2_SINCE_3_2 ("application/font-sfnt", ".ttf", FontResourceFactory.getInstance(), 3.2F),
-    TTF_RFC_8081 ("font/ttf", ".ttf", FontResourceFactory.getInstance()),
-    OPENTYPE_UNTIL_3 ("application/vnd.ms-opentype", ".otf", FontResourceFactory.getInstance()),
-    OPENTYPE_SINCE_3_1 ("application/font-sfnt", ".otf", FontResourceFactory.getInstance(), 3.1F),
-    OPENTYPE_SIGIL ("font/otf", ".otf", FontResourceFactory.getInstance()),
-    OPENTYPE_RFC_8081("font/sfnt", ".otf", FontResourceFactory.getInstance(), 3.1F),
-    WOFF ("application/font-woff", ".woff", FontResourceFactory.getInstance()),
-    WOFF_RFC_8081 ("font/woff", ".woff", FontResourceFactory.getInstance()),
-    WOFF2 ("font/woff2", ".woff2", FontResourceFactory.getInstance(), 3.1F),
+    TTF ("application/x-font-ttf", ".ttf", new SpillingResourceFactory<>(FontResourceFactory.getInstance())),
+    TTF_1 ("application/x-font-truetype", ".ttf", new SpillingResourceFactory<>(FontResourceFactory.getInstance())),
+    TTF_2 ("application/x-truetype-font", ".ttf", new SpillingResourceFactory<>(FontResourceFactory.getInstance())),
+    TTF_SINCE_3_2 ("font/ttf", ".ttf", new SpillingResourceFactory<>(FontResourceFactory.getInstance()), 3.2F),
+    TTF_2_SINCE_3_2 ("application/font-sfnt", ".ttf", new SpillingResourceFactory<>(FontResourceFactory.getInstance()), 3.2F),
+    TTF_RFC_8081 ("font/ttf", ".ttf", new SpillingResourceFactory<>(FontResourceFactory.getInstance())),
+    OPENTYPE_UNTIL_3 ("application/vnd.ms-opentype", ".otf", new SpillingResourceFactory<>(FontResourceFactory.getInstance())),
+    OPENTYPE_SINCE_3_1 ("application/font-sfnt", ".otf", new SpillingResourceFactory<>(FontResourceFactory.getInstance()), 3.1F),
+    OPENTYPE_SIGIL ("font/otf", ".otf", new SpillingResourceFactory<>(FontResourceFactory.getInstance())),
+    OPENTYPE_RFC_8081("font/sfnt", ".otf", new SpillingResourceFactory<>(FontResourceFactory.getInstance()), 3.1F),
+    WOFF ("application/font-woff", ".woff", new SpillingResourceFactory<>(FontResourceFactory.getInstance())),
+    WOFF_RFC_8081 ("font/woff", ".woff", new SpillingResourceFactory<>(FontResourceFactory.getInstance())),
+    WOFF2 ("font/woff2", ".woff2", new SpillingResourceFactory<>(FontResourceFactory.getInstance()), 3.1F),
 
     // audio
-    MP3 ("audio/mpeg", ".mp3", DefaultResourceFactory.getInstance()),
-    MP4 ("audio/mp4", ".mp4", DefaultResourceFactory.getInstance()),
-    OGG ("audio/ogg", ".ogg", DefaultResourceFactory.getInstance()),
+    MP3 ("audio/mpeg", ".mp3", new SpillingResourceFactory<>(DefaultResourceFactory.getInstance())),
+    MP4 ("audio/mp4", ".mp4", new SpillingResourceFactory<>(DefaultResourceFactory.getInstance())),
+    OGG ("audio/ogg", ".ogg", new SpillingResourceFactory<>(DefaultResourceFactory.getInstance())),
 
     SMIL ("application/smil+xml", ".smil", DefaultResourceFactory.getInstance()),
     XPGT ("application/adobe-page-template+xml", ".xpgt", DefaultResourceFactory.getInstance()),
@@ -67,6 +72,25 @@ public enum MediaType implements Serializable
 
     UNKNWON_MEDIATYPE("", "", DefaultResourceFactory.getInstance());
 
+    /**
+     * Index of the lower case file extensions (with the dot) to the first media type in declaration order with
+     * this extension.
+     */
+    private static final Map<String, MediaType> BY_EXTENSION = new HashMap<>();
+    static
+    {
+        for (MediaType mediatype : values())
+        {
+            for (String extension : mediatype.getExtensions())
+            {
+                if (extension.startsWith("."))
+                {
+                    BY_EXTENSION.putIfAbsent(extension.toLowerCase(Locale.ROOT), mediatype);
+                }
+            }
+        }
+    }
+
 
     public boolean isXML()
     {
@@ -93,12 +117,25 @@ public enum MediaType implements Serializable
 
     public boolean isImage()
     {
-        return this.equals(JPG) || this.equals(PNG) || this.equals(GIF) || this.equals(SVG);
+        return this.equals(JPG) || this.equals(PNG) || this.equals(GIF) || this.equals(WEBP) || this.equals(SVG);
     }
 
     public boolean isBitmapImage()
     {
-        return this.equals(JPG) || this.equals(PNG) || this.equals(GIF);
+        return this.equals(JPG) || this.equals(PNG) || this.equals(GIF) || this.equals(WEBP);
+    }
+
+    public boolean isAudio()
+    {
+        return this.equals(MP3) || this.equals(MP4) || this.equals(OGG);
+    }
+
+    /**
+     * @return true for binary formats with a signature, that can be detected by {@link MediaTypeSniffer#sniffBinary(byte[])}
+     */
+    public boolean isBinary()
+    {
+        return isBitmapImage() || isFont() || isAudio();
     }
 
     /**
@@ -110,19 +147,64 @@ public enum MediaType implements Serializable
      */
     public static MediaType getByFileName(String filename)
     {
-        for (MediaType mediatype : values())
+        if (filename == null)
         {
-            for (String extension : mediatype.getExtensions())
+            return UNKNWON_MEDIATYPE;
+        }
+        int index = filename.lastIndexOf('.');
+        if (index > filename.lastIndexOf('/'))
+        {
+            MediaType mediatype = BY_EXTENSION.get(filename.substring(index).toLowerCase(Locale.ROOT));
+            if (mediatype != null)
             {
-                if (StringUtils.endsWithIgnoreCase(filename, extension))
-                {
-                    return mediatype;
-                }
+                return mediatype;
             }
         }
+        if (StringUtils.endsWithIgnoreCase(filename, MIMETYPE.getDefaultExtension()))
+        {
+            return MIMETYPE;
+        }
         return UNKNWON_MEDIATYPE;
     }
 
+    /**
+     * Gets the MediaType based on the file extension and the first bytes of the content. Is used for files with
+     * missing or wrong extensions.
+     *
+     * If the extension is unknown or belongs to a binary format (image, font, audio) and the content has the signature
+     * of a binary format that differs from the extension, the media type of the signature is returned. A known textual
+     * extension is never overridden, a text can start with bytes that look like a signature. If the extension is
+     * unknown, textual formats (xhtml, svg) are also detected by the content.
+     *
+     * @param filename the name of the file
+     * @param head the first bytes of the content, at least {@link MediaTypeSniffer#SNIFF_LENGTH} if available
+     * @return the MediaType, {@link #UNKNWON_MEDIATYPE} if neither extension nor content is known.
+     */
+    public static MediaType getByFileNameAndContent(String filename, byte[] head)
+    {
+        MediaType byFileName = getByFileName(filename);
+        if (byFileName != UNKNWON_MEDIATYPE && !byFileName.isBinary())
+        {
+            return byFileName;
+        }
+        MediaType byContent = MediaTypeSniffer.sniffBinary(head);
+        if (byContent == null)
+        {
+            if (byFileName == UNKNWON_MEDIATYPE)
+            {
+                byContent = MediaTypeSniffer.sniffText(head);
+                return byContent != null ? byContent : UNKNWON_MEDIATYPE;
+            }
+            return byFileName;
+        }
+        if (byFileName.isFont() && byContent.isFont())
+        {
+            //fonts have a lot of media types for the same format, keep the one that matches the extension
+            return byFileName;
+        }
+        return byContent;
+    }
+
     public static MediaType getByName(String mediaTypeName)
     {
         for (MediaType mediatype : values())
@@ -0,0 +1,161 @@
+package de.machmireinebook.epubeditor.epublib.domain;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Detects the media type of a resource by the first bytes of its content (magic bytes).
+ *
+ * @see MediaType#getByFileNameAndContent(String, byte[])
+ */
+public class MediaTypeSniffer
+{
+    /**
+     * Number of bytes at the beginning of the content that are needed for detection.
+     */
+    public static final int SNIFF_LENGTH = 512;
+
+    private static final byte[] JPG_SIGNATURE = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF};
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A};
+    private static final byte[] GIF87_SIGNATURE = {'G', 'I', 'F', '8', '7', 'a'};
+    private static final byte[] GIF89_SIGNATURE = {'G', 'I', 'F', '8', '9', 'a'};
+    private static final byte[] RIFF_SIGNATURE = {'R', 'I', 'F', 'F'};
+    private static final byte[] WEBP_SIGNATURE = {'W', 'E', 'B', 'P'};
+    private static final byte[] TTF_SIGNATURE = {0x00, 0x01, 0x00, 0x00};
+    private static final byte[] TTF_APPLE_SIGNATURE = {'t', 'r', 'u', 'e'};
+    private static final byte[] OTF_SIGNATURE = {'O', 'T', 'T', 'O'};
+    private static final byte[] WOFF_SIGNATURE = {'w', 'O', 'F', 'F'};
+    private static final byte[] WOFF2_SIGNATURE = {'w', 'O', 'F', '2'};
+    private static final byte[] MP3_ID3_SIGNATURE = {'I', 'D', '3'};
+    private static final byte[] OGG_SIGNATURE = {'O', 'g', 'g', 'S'};
+    private static final byte[] MP4_FTYP_SIGNATURE = {'f', 't', 'y', 'p'};
+
+    private MediaTypeSniffer()
+    {
+    }
+
+    /**
+     * Detects binary formats with an unambiguous signature: images, fonts and audio.
+     *
+     * @return the media type, null if no known signature is found
+     */
+    public static MediaType sniffBinary(byte[] head)
+    {
+        if (head == null || head.length < 3)
+        {
+            return null;
+        }
+        if (startsWith(head, 0, JPG_SIGNATURE))
+        {
+            return MediaType.JPG;
+        }
+        else if (startsWith(head, 0, PNG_SIGNATURE))
+        {
+            return MediaType.PNG;
+        }
+        else if (startsWith(head, 0, GIF87_SIGNATURE) || startsWith(head, 0, GIF89_SIGNATURE))
+        {
+            return MediaType.GIF;
+        }
+        else if (startsWith(head, 0, RIFF_SIGNATURE) && startsWith(head, 8, WEBP_SIGNATURE))
+        {
+            return MediaType.WEBP;
+        }
+        else if ((startsWith(head, 0, TTF_SIGNATURE) || startsWith(head, 0, TTF_APPLE_SIGNATURE)) && hasSfntTableDirectory(head))
+        {
+            return MediaType.TTF;
+        }
+        else if (startsWith(head, 0, OTF_SIGNATURE) && hasSfntTableDirectory(head))
+        {
+            return MediaType.OPENTYPE_UNTIL_3;
+        }
+        else if (startsWith(head, 0, WOFF_SIGNATURE))
+        {
+            return MediaType.WOFF;
+        }
+        else if (startsWith(head, 0, WOFF2_SIGNATURE))
+        {
+            return MediaType.WOFF2;
+        }
+        else if (startsWith(head, 0, MP3_ID3_SIGNATURE))
+        {
+            return MediaType.MP3;
+        }
+        else if (startsWith(head, 0, OGG_SIGNATURE))
+        {
+            return MediaType.OGG;
+        }
+        else if (startsWith(head, 4, MP4_FTYP_SIGNATURE))
+        {
+            return MediaType.MP4;
+        }
+        return null;
+    }
+
+    /**
+     * Detects textual formats by the root element or the doctype: xhtml and svg.
+     *
+     * @return the media type, null if the content is not recognized
+     */
+    public static MediaType sniffText(byte[] head)
+    {
+        if (head == null || head.length == 0)
+        {
+            return null;
+        }
+        String text = new String(head, 0, Math.min(head.length, SNIFF_LENGTH), StandardCharsets.UTF_8).toLowerCase(Locale.ROOT);
+        if (text.contains("<svg"))
+        {
+            return MediaType.SVG;
+        }
+        else if (text.contains("<!doctype html") || text.contains("<html"))
+        {
+            return MediaType.XHTML;
+        }
+        return null;
+    }
+
+    /**
+     * The sfnt version of TrueType and OpenType fonts is only four bytes, 'true' can also be the beginning of a text.
+     * Therefore the table directory header after the version is checked too: the number of tables and the binary
+     * search values derived from it.
+     */
+    private static boolean hasSfntTableDirectory(byte[] head)
+    {
+        if (head.length < 12)
+        {
+            return false;
+        }
+        int numTables = readUnsignedShort(head, 4);
+        if (numTables == 0)
+        {
+            return false;
+        }
+        int entrySelector = 31 - Integer.numberOfLeadingZeros(numTables);
+        int searchRange = (1 << entrySelector) * 16;
+        return readUnsignedShort(head, 6) == searchRange
+                && readUnsignedShort(head, 8) == entrySelector
+                && readUnsignedShort(head, 10) == numTables * 16 - searchRange;
+    }
+
+    private static int readUnsignedShort(byte[] data, int offset)
+    {
+        return ((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF);
+    }
+
+    private static boolean startsWith(byte[] data, int offset, byte[] signature)
+    {
+        if (data.length < offset + signature.length)
+        {
+            return false;
+        }
+        for (int i = 0; i < signature.length; i++)
+        {
+            if (data[offset + i] != signature[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,362 @@
+package de.machmireinebook.epubeditor.epublib.epub2;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import org.apache.commons.io.IOUtils;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
+import com.google.common.io.ByteStreams;
+
+import de.machmireinebook.epubeditor.epublib.Constants;
+import de.machmireinebook.epubeditor.epublib.bookprocessor.HtmlBookProcessor;
+import de.machmireinebook.epubeditor.epublib.domain.Book;
+import de.machmireinebook.epubeditor.epublib.domain.MediaType;
+import de.machmireinebook.epubeditor.epublib.resource.EpubSourceArchive;
+import de.machmireinebook.epubeditor.epublib.resource.Resource;
+import de.machmireinebook.epubeditor.epublib.resource.ResourceDataSource;
+import de.machmireinebook.epubeditor.epublib.resource.ZipEntryDataSource;
+
+/**
+ * The state of a book as it is written into the epub file, created by {@link EpubWriter#snapshot} on the thread that
+ * edits the book. The snapshot can be written on another thread while the book is edited further.
+ *
+ * The data of the resources is not copied: resources that are unchanged since they were read from their source, e.g.
+ * the epub file, keep their {@link ResourceDataSource}, all others the byte array they had when the snapshot was
+ * taken, because {@link Resource#setData(byte[])} replaces the array instead of changing it.
+ *
+ * The html resources, that were changed since they were processed the last time, are not processed when the snapshot
+ * is taken, but by {@link #processHtml()} on the saving thread. The processed data replaces the data of the entries,
+ * the resources of the book get it only by {@link #applyProcessedHtml(Predicate)} after the snapshot is saved.
+ */
+public class BookSnapshot
+{
+    /**
+     * A resource of the snapshot.
+     */
+    public static class Entry
+    {
+        private final Resource resource;
+        private final String href;
+        private final MediaType mediaType;
+        private final boolean htmlToProcess;
+        private byte[] data;
+        private ResourceDataSource dataSource;
+        private boolean htmlProcessed;
+        private byte[] processedHtml;
+        private boolean processedHtmlDiscarded;
+
+        Entry(Resource resource)
+        {
+            this(resource, false);
+        }
+
+        /**
+         * @param htmlToProcess true if the html of the resource is processed by {@link #processHtml()}
+         */
+        Entry(Resource resource, boolean htmlToProcess)
+        {
+            this.resource = resource;
+            this.htmlToProcess = htmlToProcess;
+            this.href = resource.getHref();
+            this.mediaType = resource.getMediaType();
+            if (!resource.isDataModified() && resource.getDataSource() != null)
+            {
+                this.dataSource = resource.getDataSource();
+                this.data = null;
+            }
+            else
+            {
+                this.dataSource = null;
+                this.data = resource.getData();
+            }
+        }
+
+        /**
+         * @return the resource as it is in the book, its href or data may have changed since the snapshot was taken
+         */
+        public Resource<?> getResource()
+        {
+            return resource;
+        }
+
+        public String getHref()
+        {
+            return href;
+        }
+
+        public MediaType getMediaType()
+        {
+            return mediaType;
+        }
+
+        /**
+         * @return the source containing the unchanged data, null if the resource or its processed html was changed
+         */
+        public ResourceDataSource getDataSource()
+        {
+            return processedHtml == null ? dataSource : null;
+        }
+
+        /**
+         * @return the entry in the source epub file containing the unchanged data, null if the resource was changed
+         * or isn't read from an epub file
+         */
+        public ZipEntryDataSource getSourceEntry()
+        {
+            ResourceDataSource source = getDataSource();
+            return source instanceof ZipEntryDataSource ? (ZipEntryDataSource) source : null;
+        }
+
+        /**
+         * @return the size of the data, -1 if unknown
+         */
+        public long getSize()
+        {
+            if (processedHtml != null)
+            {
+                return processedHtml.length;
+            }
+            return dataSource != null ? dataSource.getSize() : (data != null ? data.length : 0);
+        }
+
+        /**
+         * @return the SHA-256 hash of the data
+         */
+        public HashCode hash() throws IOException
+        {
+            if (processedHtml != null)
+            {
+                return Hashing.sha256().hashBytes(processedHtml);
+            }
+            if (dataSource == null)
+            {
+                return Hashing.sha256().hashBytes(data != null ? data : new byte[0]);
+            }
+            try (HashingInputStream in = new HashingInputStream(Hashing.sha256(), dataSource.getInputStream()))
+            {
+                ByteStreams.exhaust(in);
+                return in.hash();
+            }
+        }
+
+        public InputStream getInputStream() throws IOException
+        {
+            if (processedHtml != null)
+            {
+                return new ByteArrayInputStream(processedHtml);
+            }
+            if (dataSource != null)
+            {
+                return dataSource.getInputStream();
+            }
+            return new ByteArrayInputStream(data != null ? data : new byte[0]);
+        }
+
+        /**
+         * @return true if the resource has still the href and the data it had when the snapshot was taken
+         */
+        private boolean isUnchanged()
+        {
+            if (processedHtmlDiscarded || !href.equals(resource.getHref()))
+            {
+                return false;
+            }
+            if (dataSource != null)
+            {
+                return !resource.isDataModified() && resource.getDataSource() == dataSource;
+            }
+            return (resource.isDataModified() || resource.getDataSource() == null) && resource.getData() == data;
+        }
+
+        /**
+         * Sets the processed html as data of the resource, if the resource is unchanged since the snapshot was taken.
+         * Otherwise the processed html doesn't match the resource anymore, it counts as changed since it was saved.
+         *
+         * @return true if the data of the resource was changed
+         */
+        private boolean applyProcessedHtml(boolean applicable)
+        {
+            if (!isUnchanged())
+            {
+                return false;
+            }
+            if (processedHtml == null)
+            {
+                HtmlBookProcessor.markProcessed(resource);
+                return false;
+            }
+            if (!applicable)
+            {
+                processedHtmlDiscarded = true;
+                return false;
+            }
+            resource.setData(processedHtml);
+            resource.setInputEncoding(Constants.CHARACTER_ENCODING);
+            //the entry has the data of the resource again, so the resource counts as saved unchanged
+            data = resource.getData();
+            dataSource = null;
+            processedHtml = null;
+            HtmlBookProcessor.markProcessed(resource);
+            return true;
+        }
+    }
+
+    private final List<Entry> entries;
+    private final Map<Resource, Entry> entriesByResource = new IdentityHashMap<>();
+    private final byte[] packageDocument;
+    private final EpubSourceArchive sourceArchive;
+    private final HtmlBookProcessor htmlProcessor;
+    private final Book book;
+    private boolean htmlProcessed;
+
+    BookSnapshot(List<Entry> entries, byte[] packageDocument, EpubSourceArchive sourceArchive)
+    {
+        this(entries, packageDocument, sourceArchive, null, null);
+    }
+
+    /**
+     * @param htmlProcessor processes the html of the entries marked for processing, null if no html is processed
+     * @param book the book of the snapshot, the processor gets it for reading its version
+     */
+    BookSnapshot(List<Entry> entries, byte[] packageDocument, EpubSourceArchive sourceArchive,
+                 HtmlBookProcessor htmlProcessor, Book book)
+    {
+        this.htmlProcessor = htmlProcessor;
+        this.book = book;
+        this.entries = Collections.unmodifiableList(entries);
+        this.packageDocument = packageDocument;
+        this.sourceArchive = sourceArchive;
+        for (Entry entry : entries)
+        {
+            entriesByResource.put(entry.resource, entry);
+        }
+    }
+
+    /**
+     * Processes the html of the entries, that was changed since it was processed the last time, on the worker pool of
+     * the processor. The processor gets copies of the resources with the data of the snapshot, the resources of the
+     * book are not touched. Is called by the writers before the entries are written, on the saving thread, and only
+     * processes the entries once.
+     *
+     * @throws IOException if the data of an entry can't be read
+     */
+    public synchronized void processHtml() throws IOException
+    {
+        if (htmlProcessor == null || htmlProcessed)
+        {
+            return;
+        }
+        htmlProcessed = true;
+        Map<Resource, Entry> entriesByCopy = new IdentityHashMap<>();
+        List<Resource> copies = new ArrayList<>();
+        for (Entry entry : entries)
+        {
+            if (entry.htmlToProcess)
+            {
+                byte[] html;
+                try (InputStream in = entry.getInputStream())
+                {
+                    html = IOUtils.toByteArray(in);
+                }
+                Resource<?> copy = new Resource<>(null, html, entry.href, entry.mediaType);
+                entriesByCopy.put(copy, entry);
+                copies.add(copy);
+            }
+        }
+        try
+        {
+            htmlProcessor.processHtmlResources(copies, book, (copy, processedHtml) -> {
+                Entry entry = entriesByCopy.get(copy);
+                entry.htmlProcessed = true;
+                if (processedHtml != null && !Arrays.equals(processedHtml, copy.getData()))
+                {
+                    entry.processedHtml = processedHtml;
+                }
+            });
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("processing of html interrupted");
+        }
+    }
+
+    /**
+     * Sets the processed html of the saved snapshot as data of the resources, that are unchanged since the snapshot
+     * was taken, and marks the resources as processed. Must be called on the thread editing the book, before the
+     * resources are attached to the saved file.
+     *
+     * @param applicable tells if the processed html may replace the data of the resource, e.g. not for a resource
+     *                   edited in an editor, whose text may be newer than its data. The resource counts as changed
+     *                   then, so it's processed and saved again with the next save.
+     * @return the resources, whose data was changed
+     */
+    public List<Resource<?>> applyProcessedHtml(Predicate<Resource<?>> applicable)
+    {
+        List<Resource<?>> changedResources = new ArrayList<>();
+        for (Entry entry : entries)
+        {
+            if (entry.htmlProcessed && entry.applyProcessedHtml(applicable.test(entry.resource)))
+            {
+                changedResources.add(entry.resource);
+            }
+        }
+        return changedResources;
+    }
+
+    /**
+     * @return the resources in manifest order
+     */
+    public List<Entry> getEntries()
+    {
+        return entries;
+    }
+
+    byte[] getPackageDocument()
+    {
+        return packageDocument;
+    }
+
+    public InputStream getPackageDocumentInputStream()
+    {
+        return new ByteArrayInputStream(packageDocument);
+    }
+
+    /**
+     * @return the epub file the book was read from, null for a new book
+     */
+    public EpubSourceArchive getSourceArchive()
+    {
+        return sourceArchive;
+    }
+
+    /**
+     * @return the href the resource was written with, null if the resource is not part of the snapshot
+     */
+    public String getSavedHref(Resource<?> resource)
+    {
+        Entry entry = entriesByResource.get(resource);
+        return entry != null ? entry.href : null;
+    }
+
+    /**
+     * @return true if the resource was written with the snapshot and is unchanged since the snapshot was taken
+     */
+    public boolean isSavedUnchanged(Resource<?> resource)
+    {
+        Entry entry = entriesByResource.get(resource);
+        return entry != null && entry.isUnchanged();
+    }
+}
@@ -0,0 +1,95 @@
+package de.machmireinebook.epubeditor.epublib.epub2;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+import de.machmireinebook.epubeditor.epublib.domain.MediaType;
+
+/**
+ * Decides per media type, whether the resources are stored without compression in the epub file or compressed with
+ * which deflate level. Compressing formats that are compressed already, like jpeg images, woff fonts or mp3 audio,
+ * costs much time and saves nearly nothing.
+ */
+public class CompressionPolicy
+{
+    private static final MediaType[] COMPRESSED_MEDIA_TYPES = {MediaType.JPG, MediaType.PNG, MediaType.GIF,
+            MediaType.WEBP, MediaType.WOFF, MediaType.WOFF_RFC_8081, MediaType.WOFF2, MediaType.MP3, MediaType.MP4,
+            MediaType.OGG};
+
+    private static final int STORED = Integer.MIN_VALUE;
+
+    private final Map<MediaType, Integer> levels = new EnumMap<>(MediaType.class);
+    private int defaultLevel = Deflater.DEFAULT_COMPRESSION;
+
+    /**
+     * Creates a policy that stores the formats, which are compressed already, and compresses all others with the
+     * default deflate level.
+     */
+    public static CompressionPolicy createDefault()
+    {
+        CompressionPolicy policy = new CompressionPolicy();
+        for (MediaType mediaType : COMPRESSED_MEDIA_TYPES)
+        {
+            policy.setStored(mediaType);
+        }
+        return policy;
+    }
+
+    /**
+     * Resources of the media type are stored without compression.
+     */
+    public CompressionPolicy setStored(MediaType mediaType)
+    {
+        levels.put(mediaType, STORED);
+        return this;
+    }
+
+    /**
+     * Resources of the media type are compressed with the deflate level.
+     *
+     * @param level 0-9 or {@link Deflater#DEFAULT_COMPRESSION}
+     */
+    public CompressionPolicy setDeflated(MediaType mediaType, int level)
+    {
+        checkLevel(level);
+        levels.put(mediaType, level);
+        return this;
+    }
+
+    public boolean isStored(MediaType mediaType)
+    {
+        return levels.getOrDefault(mediaType, defaultLevel) == STORED;
+    }
+
+    /**
+     * @return the deflate level for resources of the media type, that are not {@link #isStored(MediaType) stored}
+     */
+    public int getLevel(MediaType mediaType)
+    {
+        Integer level = levels.get(mediaType);
+        return level != null && level != STORED ? level : defaultLevel;
+    }
+
+    public int getDefaultLevel()
+    {
+        return defaultLevel;
+    }
+
+    /**
+     * Sets the deflate level for all media types without an own setting.
+     */
+    public void setDefaultLevel(int defaultLevel)
+    {
+        checkLevel(defaultLevel);
+        this.defaultLevel = defaultLevel;
+    }
+
+    private static void checkLevel(int level)
+    {
+        if ((level < 0 || level > 9) && level != Deflater.DEFAULT_COMPRESSION)
+        {
+            throw new IllegalArgumentException("invalid deflate level " + level);
+        }
+    }
+}
@@ -1,9 +1,12 @@
 package de.machmireinebook.epubeditor.epublib.epub2;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
 import java.util.zip.ZipInputStream;
 
 import org.apache.commons.lang3.StringUtils;
@@ -17,8 +20,15 @@ import org.jdom2.Namespace;
 import de.machmireinebook.epubeditor.epublib.Constants;
 import de.machmireinebook.epubeditor.epublib.EpubVersion;
 import de.machmireinebook.epubeditor.epublib.OpfNotReadableException;
+import de.machmireinebook.epubeditor.epublib.bookprocessor.HtmlBookProcessor;
 import de.machmireinebook.epubeditor.epublib.bookprocessor.HtmlCleanerBookProcessor;
+import de.machmireinebook.epubeditor.epublib.bookprocessor.ProgressListener;
+import de.machmireinebook.epubeditor.epublib.cache.BookIndex;
+import de.machmireinebook.epubeditor.epublib.cache.BookIndexCache;
 import de.machmireinebook.epubeditor.epublib.domain.Book;
+import de.machmireinebook.epubeditor.epublib.domain.MediaType;
+import de.machmireinebook.epubeditor.epublib.resource.BookDirectory;
+import de.machmireinebook.epubeditor.epublib.resource.EpubSourceArchive;
 import de.machmireinebook.epubeditor.epublib.resource.Resource;
 import de.machmireinebook.epubeditor.epublib.resource.Resources;
 import de.machmireinebook.epubeditor.epublib.epub3.Epub3PackageDocumentReader;
@@ -33,16 +43,79 @@ public class EpubReader
 {
 
     private static final Logger logger = Logger.getLogger(EpubReader.class);
+
+    /**
+     * Media types of resources that are not read while opening a book from a file, but only if their content is needed,
+     * because they are large and normally not needed for editing.
+     */
+    public static final List<MediaType> DEFAULT_LAZY_LOADED_TYPES = Collections.unmodifiableList(Arrays.stream(MediaType.values())
+            .filter(mediaType -> mediaType.isImage() || mediaType.isFont() || mediaType.isAudio())
+            .collect(Collectors.toList()));
+
     private BookProcessor bookProcessor = new HtmlCleanerBookProcessor();
+    private List<MediaType> lazyLoadedTypes = DEFAULT_LAZY_LOADED_TYPES;
+    private boolean contentSniffing = true;
+    private BookIndexCache bookIndexCache;
 
+    /**
+     * Reads the epub from the file. Uses random access to the entries of the file, the content of resources with
+     * lazy loaded media types is read when it's needed, as long as the book exists.
+     */
     public Book readEpub(File file) throws IOException
     {
+        return readEpub(file, lazyLoadedTypes, true);
+    }
+
+    /**
+     * Reads only the skeleton of the epub from the file: the container, the package document and the ncx.
+     * The content of all other resources is read when it's needed and the html files are not cleaned, this
+     * should be done by the caller with the {@link #getBookProcessor() book processor}, e.g. in background.
+     */
+    public Book readEpubSkeleton(File file) throws IOException
+    {
+        return readEpub(file, Arrays.asList(MediaType.values()), false);
+    }
+
+    /**
+     * Reads the skeleton of an exploded epub, a directory containing the files of an epub, like
+     * {@link #readEpubSkeleton(File)}. The directory stays the backing store of the book, the content of the resources
+     * is read from their files when it's needed, see {@link BookDirectory}.
+     */
+    public Book readEpubDirectorySkeleton(File directory) throws IOException
+    {
+        BookDirectory bookDirectory = new BookDirectory(directory.toPath());
+        Resources resources = ResourcesLoader.loadResources(bookDirectory, Constants.CHARACTER_ENCODING,
+                Arrays.asList(MediaType.values()), contentSniffing);
+        Book book = readPackage(resources, new Book());
+        bookDirectory.setPackageDocumentHref(book.getOpfResource().getHref());
+        book.setPhysicalFileName(directory.toPath());
+        book.setSourceDirectory(bookDirectory);
+        return book;
+    }
+
+    private Book readEpub(File file, List<MediaType> lazyLoadedTypes, boolean processBook) throws IOException
+    {
+        EpubSourceArchive archive = new EpubSourceArchive(file.toPath());
         Book book;
-        try (FileInputStream in = new FileInputStream(file))
+        try
         {
-            book = readEpub(in, Constants.CHARACTER_ENCODING);
-            book.setPhysicalFileName(file.toPath());
+            BookIndex bookIndex = null;
+            if (bookIndexCache != null)
+            {
+                bookIndex = bookIndexCache.loadOrCreate(file.toPath(), archive.getZipFile());
+            }
+            Resources resources = ResourcesLoader.loadResources(archive, Constants.CHARACTER_ENCODING, lazyLoadedTypes,
+                    contentSniffing, bookIndex);
+            book = processBook ? readEpub(resources) : readPackage(resources, new Book());
+            book.setBookIndex(bookIndex);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            archive.close();
+            throw e;
         }
+        book.setPhysicalFileName(file.toPath());
+        book.setSourceArchive(archive);
         return book;
     }
 
@@ -81,6 +154,13 @@ public class EpubReader
         {
             book = new Book();
         }
+        book = readPackage(resources, book);
+        book = postProcessBook(book);
+        return book;
+    }
+
+    private Book readPackage(Resources resources, Book book)
+    {
         handleMimeType(resources);
         String packageResourceHref = getPackageResourceHref(resources);
         Resource packageResource = processPackageResource(packageResourceHref, book, resources);
@@ -89,10 +169,70 @@ public class EpubReader
             Resource ncxResource = processNcxResource(book);
             book.setNcxResource(ncxResource);
         }
-        book = postProcessBook(book);
         return book;
     }
 
+    public BookProcessor getBookProcessor()
+    {
+        return bookProcessor;
+    }
+
+    public void setBookProcessor(BookProcessor bookProcessor)
+    {
+        this.bookProcessor = bookProcessor;
+    }
+
+    /**
+     * Sets the listener that gets informed about the progress of cleaning the html files of the book, the listener
+     * is called from the threads cleaning the files.
+     */
+    public void setProgressListener(ProgressListener progressListener)
+    {
+        if (bookProcessor instanceof HtmlBookProcessor)
+        {
+            ((HtmlBookProcessor) bookProcessor).setProgressListener(progressListener);
+        }
+    }
+
+    public boolean isContentSniffing()
+    {
+        return contentSniffing;
+    }
+
+    /**
+     * If true (default) the media type of resources is detected not only by the file extension, but also by the
+     * first bytes of the content, that files with missing or wrong extensions get the right resource type.
+     */
+    public void setContentSniffing(boolean contentSniffing)
+    {
+        this.contentSniffing = contentSniffing;
+    }
+
+    public BookIndexCache getBookIndexCache()
+    {
+        return bookIndexCache;
+    }
+
+    /**
+     * Sets the cache for the indexes of epub files. If set, the media types of the entries of a file opened before
+     * are taken from the cache and the index is available by {@link Book#getBookIndex()}, e.g. to skip the cleaning
+     * of html files that are known as clean.
+     */
+    public void setBookIndexCache(BookIndexCache bookIndexCache)
+    {
+        this.bookIndexCache = bookIndexCache;
+    }
+
+    public List<MediaType> getLazyLoadedTypes()
+    {
+        return lazyLoadedTypes;
+    }
+
+    public void setLazyLoadedTypes(List<MediaType> lazyLoadedTypes)
+    {
+        this.lazyLoadedTypes = lazyLoadedTypes;
+    }
+
     private Book postProcessBook(Book book)
     {
         if (bookProcessor != null)
@@ -2,12 +2,28 @@ package de.machmireinebook.epubeditor.epublib.epub2;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
-import java.util.zip.CRC32;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.log4j.Logger;
@@ -16,27 +32,71 @@ import org.jdom2.Document;
 import org.jdom2.output.Format;
 import org.jdom2.output.XMLOutputter;
 
+import com.google.common.hash.HashCode;
+
 import de.machmireinebook.epubeditor.epublib.Constants;
+import de.machmireinebook.epubeditor.epublib.bookprocessor.HtmlBookProcessor;
 import de.machmireinebook.epubeditor.epublib.bookprocessor.HtmlCleanerBookProcessor;
+import de.machmireinebook.epubeditor.epublib.bookprocessor.ProgressListener;
 import de.machmireinebook.epubeditor.epublib.domain.Book;
 import de.machmireinebook.epubeditor.epublib.domain.MediaType;
 import de.machmireinebook.epubeditor.epublib.epub3.Epub3PackageDocumentWriter;
+import de.machmireinebook.epubeditor.epublib.resource.EpubSourceArchive;
 import de.machmireinebook.epubeditor.epublib.resource.Resource;
+import de.machmireinebook.epubeditor.epublib.resource.ZipCentralDirectory;
+import de.machmireinebook.epubeditor.epublib.resource.ZipEntryDataSource;
 
 /**
  * Generates an epub file. Not thread-safe, single use object.
  *
+ * Resources that are unchanged since they were read from the source epub file are copied with their compressed
+ * content from the source file, only changed resources are compressed again. With a {@link #setParallelism(int)
+ * parallelism} greater than one the changed resources are compressed on a worker pool, the entries are written in
+ * manifest order nevertheless. The {@link CompressionPolicy} decides, which resources are stored without compression
+ * and with which level the others are compressed.
+ *
+ * Writing is split into two steps: {@link #snapshot(Book)} prepares the book and takes a {@link BookSnapshot} of it on
+ * the thread editing the book, {@link #save(BookSnapshot, Path)} writes the snapshot and can run on another thread.
+ * An {@link HtmlBookProcessor} processes the html while the snapshot is written, not when it's taken, see
+ * {@link BookSnapshot#processHtml()}.
+ *
  * @author paul
  */
 public class EpubWriter
 {
     private final static Logger logger = Logger.getLogger(EpubWriter.class);
 
+    /**
+     * The directory in the epub file containing the package document and all resources.
+     */
+    public static final String CONTENT_DIRECTORY = "OEBPS/";
+
+    /**
+     * Gets informed by {@link #save(BookSnapshot, Path)} before the written temporary file replaces the file.
+     */
+    @FunctionalInterface
+    public interface ReplaceListener
+    {
+        /**
+         * Is called on the saving thread.
+         *
+         * @param writtenFile the completely written temporary file, it keeps size and modification time when it's moved
+         */
+        void beforeReplace(Path writtenFile);
+    }
+
     private BookProcessor bookProcessor;
+    private int parallelism = 1;
+    private ProgressListener progressListener;
+    private ReplaceListener replaceListener;
+    private CompressionPolicy compressionPolicy = CompressionPolicy.createDefault();
 
     public EpubWriter()
     {
-        this(new HtmlCleanerBookProcessor());
+        HtmlCleanerBookProcessor htmlCleanerBookProcessor = new HtmlCleanerBookProcessor();
+        //unchanged resources were processed already while reading the book
+        htmlCleanerBookProcessor.setSkipUnmodifiedResources(true);
+        this.bookProcessor = htmlCleanerBookProcessor;
     }
 
 
@@ -46,20 +106,230 @@ public class EpubWriter
     }
 
 
+    /**
+     * Writes the book into the stream, the processed html is set as data of the resources afterwards.
+     */
     public void write(Book book, OutputStream out) throws IOException
     {
-        book = processBook(book);
-        try (ZipOutputStream resultStream = new ZipOutputStream(out)) {
-            writeMimeType(resultStream);
-            writeContainer(resultStream);
-            if (!book.isEpub3()) {
-                initTOCResource(book);
-            } 
-            writeResources(book, resultStream);
-            writePackageDocument(book, resultStream);
+        BookSnapshot snapshot = snapshot(book);
+        write(snapshot, Channels.newChannel(out));
+        snapshot.applyProcessedHtml(resource -> true);
+    }
+
+    /**
+     * Writes the book into the file. Unchanged resources are transferred directly from the source file into the file,
+     * so the file must not be the source file of the book. The processed html is set as data of the resources
+     * afterwards.
+     */
+    public void write(Book book, Path file) throws IOException
+    {
+        BookSnapshot snapshot = snapshot(book);
+        write(snapshot, file);
+        snapshot.applyProcessedHtml(resource -> true);
+    }
+
+    /**
+     * Creates the table of contents and the package document and takes a snapshot of the book as it is written. Must
+     * be called on the thread editing the book.
+     *
+     * An {@link HtmlBookProcessor} only selects the html resources to process, they are processed when the snapshot is
+     * written. Other processors process the book here.
+     */
+    public BookSnapshot snapshot(Book book) throws IOException
+    {
+        HtmlBookProcessor htmlProcessor = null;
+        Set<Resource> htmlResources = Collections.newSetFromMap(new IdentityHashMap<>());
+        if (bookProcessor instanceof HtmlBookProcessor)
+        {
+            htmlProcessor = (HtmlBookProcessor) bookProcessor;
+            htmlResources.addAll(htmlProcessor.getHtmlResources(book));
+        }
+        else
+        {
+            book = processBook(book);
+        }
+        if (!book.isEpub3()) {
+            initTOCResource(book);
+        }
+        List<BookSnapshot.Entry> entries = new ArrayList<>();
+        for (Resource resource : book.getResources().getAll())
+        {
+            if (resource != null)
+            {
+                entries.add(new BookSnapshot.Entry(resource, htmlResources.contains(resource)));
+            }
+        }
+        return new BookSnapshot(entries, createPackageDocument(book), book.getSourceArchive(), htmlProcessor, book);
+    }
+
+    /**
+     * Writes the snapshot into the file, see {@link #write(Book, Path)}.
+     */
+    public void write(BookSnapshot snapshot, Path file) throws IOException
+    {
+        snapshot.processHtml();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+             ZipWriter zipWriter = new ZipWriter(channel))
+        {
+            writeEntries(snapshot, zipWriter);
+            //the zip writer closes the channel, so it's forced before
+            zipWriter.finish();
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Saves the snapshot safely into the file, it may be the source file of the book: the snapshot is written into a
+     * temporary file in the same directory, which is forced to disk and then moved atomically over the file. So the
+     * file contains either the former or the new content, even if the program crashes while saving.
+     *
+     * The source file of the book is kept open while it's replaced, so that the book can read its resources from the
+     * former content until it's attached to the saved file by {@link Book#attachSavedArchive}. If the file system
+     * refuses to replace the open file, the save fails and the source file stays open, the book remains usable.
+     */
+    public void save(BookSnapshot snapshot, Path file) throws IOException
+    {
+        Path directory = file.toAbsolutePath().getParent();
+        Path tempFile = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try
+        {
+            write(snapshot, tempFile);
+            if (replaceListener != null)
+            {
+                replaceListener.beforeReplace(tempFile);
+            }
+            moveAtomically(tempFile, file);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+        forceDirectory(directory);
+    }
+
+    /**
+     * Finds the resources of the snapshot with identical content, e.g. an image added twice under different names,
+     * that could be merged into one resource. Only resources of the same size are hashed. Reads the data of these
+     * resources, so it's called on demand and not while saving.
+     *
+     * @return the hrefs of the resources with identical content, one list per content
+     */
+    public static List<List<String>> findDuplicates(BookSnapshot snapshot) throws IOException
+    {
+        Map<Long, List<BookSnapshot.Entry>> entriesBySize = snapshot.getEntries().stream()
+                .filter(entry -> entry.getSize() != 0)
+                .collect(Collectors.groupingBy(BookSnapshot.Entry::getSize));
+        List<List<String>> duplicates = new ArrayList<>();
+        for (List<BookSnapshot.Entry> entries : entriesBySize.values())
+        {
+            if (entries.size() < 2)
+            {
+                continue;
+            }
+            Map<HashCode, List<String>> hrefsByHash = new LinkedHashMap<>();
+            for (BookSnapshot.Entry entry : entries)
+            {
+                hrefsByHash.computeIfAbsent(entry.hash(), hash -> new ArrayList<>()).add(entry.getHref());
+            }
+            hrefsByHash.values().stream()
+                    .filter(hrefs -> hrefs.size() > 1)
+                    .forEach(duplicates::add);
+        }
+        return duplicates;
+    }
+
+    private void moveAtomically(Path source, Path target) throws IOException
+    {
+        try
+        {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException e)
+        {
+            logger.warn("file system doesn't support atomic move, replacing " + target + " non-atomically");
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Forces the directory entry of the moved file to disk. Not supported on all platforms, e.g. not on windows.
+     */
+    private void forceDirectory(Path directory)
+    {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ))
+        {
+            channel.force(true);
+        }
+        catch (IOException e)
+        {
+            logger.debug("can't force directory " + directory + " to disk: " + e.getMessage());
+        }
+    }
+
+    private void write(BookSnapshot snapshot, WritableByteChannel channel) throws IOException
+    {
+        snapshot.processHtml();
+        try (ZipWriter zipWriter = new ZipWriter(channel)) {
+            writeEntries(snapshot, zipWriter);
         }
     }
 
+    private void writeEntries(BookSnapshot snapshot, ZipWriter zipWriter) throws IOException
+    {
+        writeMimeType(zipWriter);
+        writeContainer(zipWriter);
+        writeResources(snapshot.getEntries(), zipWriter);
+        zipWriter.writeDeflatedEntry(CONTENT_DIRECTORY + "content.opf", snapshot.getPackageDocument());
+    }
+
+    public int getParallelism()
+    {
+        return parallelism;
+    }
+
+    /**
+     * Sets the number of threads compressing resources, 1 (default) compresses them on the calling thread.
+     */
+    public void setParallelism(int parallelism)
+    {
+        this.parallelism = parallelism;
+    }
+
+    public CompressionPolicy getCompressionPolicy()
+    {
+        return compressionPolicy;
+    }
+
+    public void setCompressionPolicy(CompressionPolicy compressionPolicy)
+    {
+        this.compressionPolicy = compressionPolicy;
+    }
+
+    public ProgressListener getProgressListener()
+    {
+        return progressListener;
+    }
+
+    /**
+     * Gets informed about the number of written resources, is called on the writing thread.
+     */
+    public void setProgressListener(ProgressListener progressListener)
+    {
+        this.progressListener = progressListener;
+    }
+
+    public ReplaceListener getReplaceListener()
+    {
+        return replaceListener;
+    }
+
+    public void setReplaceListener(ReplaceListener replaceListener)
+    {
+        this.replaceListener = replaceListener;
+    }
+
     private Book processBook(Book book)
     {
         if (bookProcessor != null)
@@ -69,61 +339,168 @@ public class EpubWriter
         return book;
     }
 
-    private void initTOCResource(Book book)
+    /**
+     * @throws IOException if the table of contents can't be created, the book is not written without it
+     */
+    private void initTOCResource(Book book) throws IOException
     {
         Resource tocResource;
         try
         {
             tocResource = NCXDocument.createNCXResource(book);
-            Resource currentTocResource = book.getSpine().getTocResource();
-            if (currentTocResource != null)
-            {
-                book.getResources().remove(currentTocResource.getHref());
-            }
-            book.getSpine().setTocResource(tocResource);
-            book.getResources().put(tocResource);
         }
-        catch (Exception e)
+        catch (RuntimeException e)
+        {
+            throw new IOException("can't create table of contents: " + e.getMessage(), e);
+        }
+        Resource currentTocResource = book.getSpine().getTocResource();
+        if (currentTocResource != null)
         {
-            logger.error("Error writing table of contents: " + e.getClass().getName() + ": " + e.getMessage());
+            book.getResources().remove(currentTocResource.getHref());
         }
+        book.getSpine().setTocResource(tocResource);
+        book.getResources().put(tocResource);
     }
 
 
-    private void writeResources(Book book, ZipOutputStream resultStream)
+    private void writeResources(List<BookSnapshot.Entry> entries, ZipWriter zipWriter) throws IOException
     {
-        for (Resource resource : book.getResources().getAll())
+        if (parallelism > 1)
+        {
+            writeResourcesParallel(entries, zipWriter);
+            return;
+        }
+        for (int i = 0; i < entries.size(); i++)
+        {
+            writeResource(entries.get(i), zipWriter);
+            fireProgressChanged(i + 1, entries.size());
+        }
+    }
+
+    private void fireProgressChanged(long workDone, long max)
+    {
+        if (progressListener != null)
         {
-            writeResource(resource, resultStream);
+            progressListener.progressChanged(workDone, max);
         }
     }
 
     /**
-     * Writes the resource to the resultStream.
+     * Compresses the resources, that can't be copied from the source file, in parallel. To limit the memory needed
+     * for the compressed data, only a few resources ahead of the last written one are compressed at the same time.
      */
-    private void writeResource(Resource resource, ZipOutputStream resultStream)
+    private void writeResourcesParallel(List<BookSnapshot.Entry> resources, ZipWriter zipWriter) throws IOException
     {
-        if (resource == null)
+        int window = parallelism * 4;
+        List<Future<ZipWriter.DeflatedData>> results = new ArrayList<>(resources.size());
+        //not a fork join pool, it would wrap an IOException of a callable into a RuntimeException
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try
+        {
+            for (int i = 0; i < resources.size(); i++)
+            {
+                while (results.size() < resources.size() && results.size() < i + window)
+                {
+                    BookSnapshot.Entry resource = resources.get(results.size());
+                    if (resource.getSourceEntry() == null && !compressionPolicy.isStored(resource.getMediaType()))
+                    {
+                        int level = compressionPolicy.getLevel(resource.getMediaType());
+                        results.add(executor.submit(() -> {
+                            try (InputStream in = resource.getInputStream())
+                            {
+                                return ZipWriter.deflate(in, level);
+                            }
+                        }));
+                    }
+                    else
+                    {
+                        results.add(null);
+                    }
+                }
+
+                BookSnapshot.Entry resource = resources.get(i);
+                Future<ZipWriter.DeflatedData> result = results.set(i, null);
+                if (result == null)
+                {
+                    writeResource(resource, zipWriter);
+                    fireProgressChanged(i + 1, resources.size());
+                    continue;
+                }
+                try
+                {
+                    zipWriter.writeDeflatedData(CONTENT_DIRECTORY + resource.getHref(), result.get());
+                    fireProgressChanged(i + 1, resources.size());
+                }
+                catch (ExecutionException e)
+                {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException)
+                    {
+                        throw (IOException) cause;
+                    }
+                    throw new IOException("can't compress " + resource.getHref() + ": " + cause.getMessage(), cause);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("writing of epub interrupted");
+                }
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Writes the resource to the zip file.
+     *
+     * @throws IOException if the resource can't be read or written, the zip file is incomplete then
+     */
+    private void writeResource(BookSnapshot.Entry resource, ZipWriter zipWriter) throws IOException
+    {
+        String entryName = CONTENT_DIRECTORY + resource.getHref();
+        if (resource.getSourceEntry() != null && copyRawEntry(resource.getSourceEntry(), entryName, zipWriter))
         {
             return;
         }
-        try
+        if (compressionPolicy.isStored(resource.getMediaType()))
         {
-            resultStream.putNextEntry(new ZipEntry("OEBPS/" + resource.getHref()));
-            InputStream inputStream = resource.getInputStream();
-            IOUtils.copy(inputStream, resultStream);
-            inputStream.close();
+            zipWriter.writeStoredEntry(entryName, resource::getInputStream);
+            return;
         }
-        catch (Exception e)
+        try (OutputStream out = zipWriter.openDeflatedEntry(entryName, compressionPolicy.getLevel(resource.getMediaType()));
+             InputStream inputStream = resource.getInputStream())
         {
-            logger.error(e.getMessage(), e);
+            IOUtils.copy(inputStream, out);
         }
     }
 
+    /**
+     * Copies the entry of the unchanged resource as it is, with compressed content and CRC-32, from the source file.
+     *
+     * @return false if the entry is not found in the source file
+     */
+    private boolean copyRawEntry(ZipEntryDataSource dataSource, String entryName, ZipWriter zipWriter) throws IOException
+    {
+        EpubSourceArchive archive = dataSource.getArchive();
+        ZipCentralDirectory.Entry rawEntry = archive.getRawEntry(dataSource.getEntryName());
+        if (rawEntry == null)
+        {
+            return false;
+        }
+        zipWriter.writeRawEntry(entryName, rawEntry.getMethod(), rawEntry.getCrc(), rawEntry.getCompressedSize(),
+                rawEntry.getSize(), channel -> archive.transferRawData(rawEntry, channel));
+        return true;
+    }
 
-    private void writePackageDocument(Book book, ZipOutputStream resultStream) throws IOException
+
+    /**
+     * Creates the package document and sets it as data of the opf resource of the book.
+     */
+    private byte[] createPackageDocument(Book book) throws IOException
     {
-        resultStream.putNextEntry(new ZipEntry("OEBPS/content.opf"));
         Document opfDocument;
         if (book.isEpub3()) {
             opfDocument = Epub3PackageDocumentWriter.write(book);
@@ -135,44 +512,30 @@ public class EpubWriter
         Format xmlFormat = Format.getPrettyFormat();
         outputter.setFormat(xmlFormat);
         String opfText = outputter.outputString(opfDocument);
-        book.getOpfResource().setData(opfText.getBytes(Constants.CHARACTER_ENCODING));
-		resultStream.write(book.getOpfResource().getData());
+        byte[] opfData = opfText.getBytes(Constants.CHARACTER_ENCODING);
+        book.getOpfResource().setData(opfData);
+        return opfData;
     }
 
     /**
      * Writes the META-INF/container.xml file.
      */
-    private void writeContainer(ZipOutputStream resultStream) throws IOException
+    private void writeContainer(ZipWriter zipWriter) throws IOException
     {
-        resultStream.putNextEntry(new ZipEntry("META-INF/container.xml"));
-        Writer out = new OutputStreamWriter(resultStream);
-        out.write("<?xml version=\"1.0\"?>\n");
-        out.write("<container version=\"1.0\" xmlns=\"urn:oasis:names:tc:opendocument:xmlns:container\">\n");
-        out.write("\t<rootfiles>\n");
-        out.write("\t\t<rootfile full-path=\"OEBPS/content.opf\" media-type=\"application/oebps-package+xml\"/>\n");
-        out.write("\t</rootfiles>\n");
-        out.write("</container>");
-        out.flush();
+        String container = "<?xml version=\"1.0\"?>\n"
+                + "<container version=\"1.0\" xmlns=\"urn:oasis:names:tc:opendocument:xmlns:container\">\n"
+                + "\t<rootfiles>\n"
+                + "\t\t<rootfile full-path=\"" + CONTENT_DIRECTORY + "content.opf\" media-type=\"application/oebps-package+xml\"/>\n"
+                + "\t</rootfiles>\n"
+                + "</container>";
+        zipWriter.writeDeflatedEntry("META-INF/container.xml", container.getBytes());
     }
 
     /**
-     * Stores the mimetype as an uncompressed file in the ZipOutputStream.
+     * Stores the mimetype as an uncompressed file in the zip file.
      */
-    private void writeMimeType(ZipOutputStream resultStream) throws IOException
-    {
-        ZipEntry mimetypeZipEntry = new ZipEntry("mimetype");
-        mimetypeZipEntry.setMethod(ZipEntry.STORED);
-        byte[] mimetypeBytes = MediaType.EPUB.getName().getBytes();
-        mimetypeZipEntry.setSize(mimetypeBytes.length);
-        mimetypeZipEntry.setCrc(calculateCrc(mimetypeBytes));
-        resultStream.putNextEntry(mimetypeZipEntry);
-        resultStream.write(mimetypeBytes);
-    }
-
-    private long calculateCrc(byte[] data)
+    private void writeMimeType(ZipWriter zipWriter) throws IOException
     {
-        CRC32 crc = new CRC32();
-        crc.update(data);
-        return crc.getValue();
+        zipWriter.writeStoredEntry("mimetype", MediaType.EPUB.getName().getBytes());
     }
 }
@@ -1,12 +1,27 @@
 package de.machmireinebook.epubeditor.epublib.epub2;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
 
+import de.machmireinebook.epubeditor.epublib.cache.BookIndex;
 import de.machmireinebook.epubeditor.epublib.domain.MediaType;
+import de.machmireinebook.epubeditor.epublib.domain.MediaTypeSniffer;
+import de.machmireinebook.epubeditor.epublib.resource.BookDirectory;
+import de.machmireinebook.epubeditor.epublib.resource.EpubSourceArchive;
+import de.machmireinebook.epubeditor.epublib.resource.FileDataSource;
+import de.machmireinebook.epubeditor.epublib.resource.StoredZipEntryDataSource;
 import de.machmireinebook.epubeditor.epublib.resource.Resource;
 import de.machmireinebook.epubeditor.epublib.resource.Resources;
+import de.machmireinebook.epubeditor.epublib.resource.ZipEntryDataSource;
 import de.machmireinebook.epubeditor.epublib.util.ResourceUtil;
 
 /**
@@ -16,6 +31,11 @@ import de.machmireinebook.epubeditor.epublib.util.ResourceUtil;
  *
  */
 public class ResourcesLoader {
+	/**
+	 * Stored entries of binary media types with at least this size are streamed from the file instead of being read.
+	 */
+	public static final long MIN_STREAMED_SIZE = 64 * 1024;
+
 	/**
 	 * Loads all entries from the ZipInputStream as Resources.
 	 * 
@@ -36,4 +56,137 @@ public class ResourcesLoader {
 		}
 		return result;
 	}
+
+	/**
+	 * Loads the resources from the given epub file.
+	 *
+	 * The resources are created from the central directory of the zip file. The contents of entries with one of the
+	 * given lazy loaded media types are not read now, but from the file when they are needed.
+	 * All other entries are read directly from their position in the file.
+	 *
+	 * The media type of read entries is detected by name and content. For lazy loaded entries the first bytes are only
+	 * read for detection if contentSniffing is true, otherwise only the name is used.
+	 *
+	 * Lazy loaded binary entries (audio, fonts, images) that are stored without compression are streamed from the
+	 * file when their data is needed, see {@link StoredZipEntryDataSource}.
+	 */
+	public static Resources loadResources(EpubSourceArchive archive, String defaultHtmlEncoding,
+										  List<MediaType> lazyLoadedTypes, boolean contentSniffing) throws IOException {
+		return loadResources(archive, defaultHtmlEncoding, lazyLoadedTypes, contentSniffing, null);
+	}
+
+	/**
+	 * Loads the resources from the given epub file like {@link #loadResources(EpubSourceArchive, String, List, boolean)},
+	 * but uses the media types of the given book index for entries contained in the index, no detection is done for
+	 * them. Entries not contained in the index are added to it.
+	 *
+	 * @param bookIndex the index of the file, can be null
+	 */
+	public static Resources loadResources(EpubSourceArchive archive, String defaultHtmlEncoding,
+										  List<MediaType> lazyLoadedTypes, boolean contentSniffing,
+										  BookIndex bookIndex) throws IOException {
+		Resources result = new Resources();
+		ZipFile zipFile = archive.getZipFile();
+		Enumeration<? extends ZipEntry> entries = zipFile.entries();
+		while (entries.hasMoreElements()) {
+			ZipEntry zipEntry = entries.nextElement();
+			if(zipEntry.isDirectory()) {
+				continue;
+			}
+			Resource resource;
+			BookIndex.Entry indexEntry = bookIndex != null ? bookIndex.getEntry(zipEntry.getName()) : null;
+			MediaType mediaType;
+			if (indexEntry != null) {
+				mediaType = indexEntry.getMediaType();
+			} else {
+				mediaType = MediaType.getByFileName(zipEntry.getName());
+				if (contentSniffing && lazyLoadedTypes.contains(mediaType) && isBinaryOrUnknown(mediaType)) {
+					try (InputStream in = zipFile.getInputStream(zipEntry)) {
+						mediaType = MediaType.getByFileNameAndContent(zipEntry.getName(), in.readNBytes(MediaTypeSniffer.SNIFF_LENGTH));
+					}
+				}
+			}
+			ZipEntryDataSource dataSource = createDataSource(archive, zipEntry, mediaType);
+			if (lazyLoadedTypes.contains(mediaType)) {
+				resource = mediaType.getResourceFactory().createLazyResource(null, zipEntry.getName(), mediaType, dataSource);
+			} else if (indexEntry != null) {
+				try (InputStream in = zipFile.getInputStream(zipEntry)) {
+					resource = mediaType.getResourceFactory().createResource(in.readAllBytes(), zipEntry.getName(), mediaType);
+				}
+				resource.setDataSource(dataSource);
+			} else {
+				try (InputStream in = zipFile.getInputStream(zipEntry)) {
+					resource = ResourceUtil.createResource(zipEntry, in);
+				}
+				resource.setDataSource(dataSource);
+			}
+			if (bookIndex != null && indexEntry == null) {
+				bookIndex.putEntry(new BookIndex.Entry(zipEntry.getName(), zipEntry.getCrc(), zipEntry.getSize(),
+						resource.getMediaType(), false));
+			}
+			if (resource.getMediaType() == MediaType.XHTML) {
+				resource.setInputEncoding(defaultHtmlEncoding);
+			}
+			result.put(resource);
+		}
+		return result;
+	}
+
+	/**
+	 * Loads the resources from the files of an exploded epub. The hrefs of the resources are the paths of the files
+	 * relative to the directory. Like for an epub file the contents of files with one of the lazy loaded media types
+	 * are read when they are needed, see {@link BookDirectory}.
+	 */
+	public static Resources loadResources(BookDirectory directory, String defaultHtmlEncoding,
+										  List<MediaType> lazyLoadedTypes, boolean contentSniffing) throws IOException {
+		Resources result = new Resources();
+		List<Path> files;
+		try (Stream<Path> paths = Files.walk(directory.getRoot())) {
+			files = paths.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+		}
+		for (Path file : files) {
+			String name = directory.getRoot().relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/");
+			MediaType mediaType = MediaType.getByFileName(name);
+			if (contentSniffing && isBinaryOrUnknown(mediaType)) {
+				try (InputStream in = Files.newInputStream(file)) {
+					mediaType = MediaType.getByFileNameAndContent(name, in.readNBytes(MediaTypeSniffer.SNIFF_LENGTH));
+				}
+			}
+			FileDataSource dataSource = new FileDataSource(directory, file);
+			Resource resource;
+			if (lazyLoadedTypes.contains(mediaType)) {
+				resource = mediaType.getResourceFactory().createLazyResource(null, name, mediaType, dataSource);
+			} else {
+				resource = mediaType.getResourceFactory().createResource(Files.readAllBytes(file), name, mediaType);
+				resource.setDataSource(dataSource);
+			}
+			if (resource.getMediaType() == MediaType.XHTML) {
+				resource.setInputEncoding(defaultHtmlEncoding);
+			}
+			result.put(resource);
+		}
+		return result;
+	}
+
+	/**
+	 * Creates the source for the data of the entry, large stored binary entries are streamed from the file.
+	 */
+	public static ZipEntryDataSource createDataSource(EpubSourceArchive archive, ZipEntry zipEntry, MediaType mediaType) {
+		if (isStreamable(zipEntry, mediaType)) {
+			return new StoredZipEntryDataSource(archive, zipEntry);
+		}
+		return new ZipEntryDataSource(archive, zipEntry);
+	}
+
+	private static boolean isStreamable(ZipEntry zipEntry, MediaType mediaType) {
+		return zipEntry.getMethod() == ZipEntry.STORED && zipEntry.getSize() >= MIN_STREAMED_SIZE
+				&& isBinaryOrUnknown(mediaType);
+	}
+
+	/**
+	 * Only for these media types sniffing can change the detected type, text files with known extension are not sniffed.
+	 */
+	private static boolean isBinaryOrUnknown(MediaType mediaType) {
+		return mediaType == MediaType.UNKNWON_MEDIATYPE || mediaType.isBinary();
+	}
 }
@@ -0,0 +1,693 @@
+package de.machmireinebook.epubeditor.epublib.epub2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Writes a zip file into a channel. Unlike {@link java.util.zip.ZipOutputStream} it can write entries with content
+ * that is already compressed, e.g. copied unchanged from another zip file, see
+ * {@link #writeRawEntry(String, int, long, long, long, RawDataWriter)}.
+ *
+ * Not thread-safe, the entries are written one after another. If writing an entry fails after its local header was
+ * written, the zip file is incomplete: all further entries are rejected and {@link #close()} only closes the channel.
+ */
+public class ZipWriter implements Closeable
+{
+    private static final int LOCAL_FILE_HEADER_SIGNATURE = 0x04034b50;
+    private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+    private static final int CENTRAL_FILE_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE = 0x07064b50;
+
+    private static final int VERSION = 20;
+    private static final int VERSION_ZIP64 = 45;
+    private static final int FLAG_DATA_DESCRIPTOR = 0x0008;
+    private static final int FLAG_UTF8 = 0x0800;
+    private static final int ZIP64_EXTRA_FIELD_ID = 0x0001;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Writes the raw content of an entry into the channel of the zip file.
+     */
+    @FunctionalInterface
+    public interface RawDataWriter
+    {
+        void writeTo(WritableByteChannel channel) throws IOException;
+    }
+
+    /**
+     * Opens the content of an entry, see {@link #writeStoredEntry(String, ContentSupplier)}.
+     */
+    @FunctionalInterface
+    public interface ContentSupplier
+    {
+        InputStream open() throws IOException;
+    }
+
+    /**
+     * Content of an entry that is compressed independently of the zip file, e.g. on another thread, and written later
+     * by {@link #writeDeflatedData(String, DeflatedData)}.
+     */
+    public static class DeflatedData
+    {
+        private final byte[] compressedData;
+        private final long crc;
+        private final long size;
+
+        private DeflatedData(byte[] compressedData, long crc, long size)
+        {
+            this.compressedData = compressedData;
+            this.crc = crc;
+            this.size = size;
+        }
+
+        public long getCompressedSize()
+        {
+            return compressedData.length;
+        }
+
+        public long getSize()
+        {
+            return size;
+        }
+    }
+
+    private static class CentralDirectoryEntry
+    {
+        private final byte[] name;
+        private final int flags;
+        private final int method;
+        private final long crc;
+        private final long compressedSize;
+        private final long size;
+        private final long localHeaderOffset;
+
+        private CentralDirectoryEntry(byte[] name, int flags, int method, long crc, long compressedSize, long size,
+                                      long localHeaderOffset)
+        {
+            this.name = name;
+            this.flags = flags;
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+    }
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final List<CentralDirectoryEntry> entries = new ArrayList<>();
+    private final int dosTime;
+    private final int dosDate;
+    private long position;
+    private boolean entryOpen;
+    private boolean finished;
+    /**
+     * The entry that failed while it was written, null if no entry failed.
+     */
+    private String failedEntry;
+
+    public ZipWriter(WritableByteChannel channel)
+    {
+        this.channel = channel;
+        LocalDateTime now = LocalDateTime.now();
+        dosTime = (now.getHour() << 11) | (now.getMinute() << 5) | (now.getSecond() >> 1);
+        dosDate = (Math.max(now.getYear() - 1980, 0) << 9) | (now.getMonthValue() << 5) | now.getDayOfMonth();
+    }
+
+    /**
+     * Writes an entry without compression, e.g. the mimetype of an epub.
+     */
+    public void writeStoredEntry(String name, byte[] data) throws IOException
+    {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        writeEntry(name, ZipEntry.STORED, crc.getValue(), data, data.length);
+    }
+
+    /**
+     * Writes an entry without compression, whose content is streamed instead of held in memory. The local header needs
+     * CRC-32 and size before the content, so the content is read twice: first to compute them, then to copy it. Entries
+     * of 4 GB and more are written with zip64 sizes.
+     *
+     * @param content opens the content, it must return the same content on both calls
+     */
+    public void writeStoredEntry(String name, ContentSupplier content) throws IOException
+    {
+        checkNoEntryOpen();
+        byte[] bytes = new byte[8192];
+        CRC32 crc = new CRC32();
+        long size = 0;
+        try (InputStream in = content.open())
+        {
+            int count;
+            while ((count = in.read(bytes)) > 0)
+            {
+                crc.update(bytes, 0, count);
+                size += count;
+            }
+        }
+
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        int flags = isAscii(nameBytes) ? 0 : FLAG_UTF8;
+        try
+        {
+            long localHeaderOffset = writeLocalFileHeader(nameBytes, flags, ZipEntry.STORED, crc.getValue(), size, size);
+            CRC32 writtenCrc = new CRC32();
+            long written = 0;
+            try (InputStream in = content.open())
+            {
+                int count;
+                while ((count = in.read(bytes)) > 0)
+                {
+                    writtenCrc.update(bytes, 0, count);
+                    write(bytes, 0, count);
+                    written += count;
+                }
+            }
+            if (written != size || writtenCrc.getValue() != crc.getValue())
+            {
+                throw new ZipException("content of entry " + name + " changed while it was written");
+            }
+            entries.add(new CentralDirectoryEntry(nameBytes, flags, ZipEntry.STORED, crc.getValue(), size, size,
+                    localHeaderOffset));
+        }
+        catch (IOException | RuntimeException e)
+        {
+            failedEntry = name;
+            throw e;
+        }
+    }
+
+    /**
+     * Writes an entry with compressed content.
+     */
+    public void writeDeflatedEntry(String name, byte[] data) throws IOException
+    {
+        try (OutputStream out = openDeflatedEntry(name))
+        {
+            out.write(data);
+        }
+    }
+
+    /**
+     * Compresses the content of the stream with the default level, see {@link #deflate(InputStream, int)}.
+     */
+    public static DeflatedData deflate(InputStream in) throws IOException
+    {
+        return deflate(in, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Compresses the content of the stream into an independent deflate stream. Can be called on any thread.
+     *
+     * @param level the deflate level, 0-9 or {@link Deflater#DEFAULT_COMPRESSION}
+     */
+    public static DeflatedData deflate(InputStream in, int level) throws IOException
+    {
+        Deflater deflater = new Deflater(level, true);
+        try
+        {
+            CRC32 crc = new CRC32();
+            ByteArrayOutputStream compressedOut = new ByteArrayOutputStream();
+            DeflaterOutputStream deflaterOut = new DeflaterOutputStream(compressedOut, deflater, 8192);
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) > 0)
+            {
+                crc.update(buffer, 0, count);
+                deflaterOut.write(buffer, 0, count);
+            }
+            deflaterOut.finish();
+            return new DeflatedData(compressedOut.toByteArray(), crc.getValue(), deflater.getBytesRead());
+        }
+        finally
+        {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Writes an entry with content compressed by {@link #deflate(InputStream)}.
+     */
+    public void writeDeflatedData(String name, DeflatedData deflatedData) throws IOException
+    {
+        writeEntry(name, ZipEntry.DEFLATED, deflatedData.crc, deflatedData.compressedData, deflatedData.size);
+    }
+
+    /**
+     * Writes an entry with content in memory, small contents are collected in the buffer.
+     */
+    private void writeEntry(String name, int method, long crc, byte[] rawData, long size) throws IOException
+    {
+        checkNoEntryOpen();
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        int flags = isAscii(nameBytes) ? 0 : FLAG_UTF8;
+        try
+        {
+            long localHeaderOffset = writeLocalFileHeader(nameBytes, flags, method, crc, rawData.length, size);
+            write(rawData, 0, rawData.length);
+            entries.add(new CentralDirectoryEntry(nameBytes, flags, method, crc, rawData.length, size, localHeaderOffset));
+        }
+        catch (IOException | RuntimeException e)
+        {
+            failedEntry = name;
+            throw e;
+        }
+    }
+
+    /**
+     * Writes an entry, whose content is already in the form it's stored in the zip file, compressed for deflated
+     * entries. The raw data writer must write exactly compressedSize bytes. If it fails or writes another number of
+     * bytes, the zip file can't be completed anymore.
+     */
+    public void writeRawEntry(String name, int method, long crc, long compressedSize, long size, RawDataWriter rawDataWriter)
+            throws IOException
+    {
+        checkNoEntryOpen();
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        int flags = isAscii(nameBytes) ? 0 : FLAG_UTF8;
+        try
+        {
+            long localHeaderOffset = writeLocalFileHeader(nameBytes, flags, method, crc, compressedSize, size);
+
+            flush();
+            long written;
+            if (channel instanceof SeekableByteChannel)
+            {
+                //write directly into the channel, a file channel can be the target of a zero-copy transfer
+                SeekableByteChannel seekableChannel = (SeekableByteChannel) channel;
+                long channelPosition = seekableChannel.position();
+                rawDataWriter.writeTo(channel);
+                written = seekableChannel.position() - channelPosition;
+            }
+            else
+            {
+                CountingChannel countingChannel = new CountingChannel();
+                rawDataWriter.writeTo(countingChannel);
+                written = countingChannel.count;
+            }
+            position += written;
+            if (written != compressedSize)
+            {
+                throw new ZipException("entry " + name + " has " + written + " bytes instead of " + compressedSize);
+            }
+            entries.add(new CentralDirectoryEntry(nameBytes, flags, method, crc, compressedSize, size, localHeaderOffset));
+        }
+        catch (IOException | RuntimeException e)
+        {
+            failedEntry = name;
+            throw e;
+        }
+    }
+
+    /**
+     * @return the offset of the header
+     */
+    private long writeLocalFileHeader(byte[] nameBytes, int flags, int method, long crc, long compressedSize, long size)
+            throws IOException
+    {
+        long localHeaderOffset = position;
+        boolean zip64 = size >= ZIP64_MAGIC || compressedSize >= ZIP64_MAGIC;
+        putInt(LOCAL_FILE_HEADER_SIGNATURE);
+        putShort(zip64 ? VERSION_ZIP64 : VERSION);
+        putShort(flags);
+        putShort(method);
+        putShort(dosTime);
+        putShort(dosDate);
+        putInt((int) crc);
+        putInt(zip64 ? (int) ZIP64_MAGIC : (int) compressedSize);
+        putInt(zip64 ? (int) ZIP64_MAGIC : (int) size);
+        putShort(nameBytes.length);
+        putShort(zip64 ? 20 : 0);
+        write(nameBytes, 0, nameBytes.length);
+        if (zip64)
+        {
+            putShort(ZIP64_EXTRA_FIELD_ID);
+            putShort(16);
+            putLong(size);
+            putLong(compressedSize);
+        }
+        return localHeaderOffset;
+    }
+
+    /**
+     * Opens an entry, that is compressed while it's written into the returned stream. The entry is finished by
+     * closing the stream, the zip file stays open.
+     */
+    public OutputStream openDeflatedEntry(String name) throws IOException
+    {
+        return openDeflatedEntry(name, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Opens an entry compressed with the deflate level, see {@link #openDeflatedEntry(String)}.
+     *
+     * @param level the deflate level, 0-9 or {@link Deflater#DEFAULT_COMPRESSION}
+     */
+    public OutputStream openDeflatedEntry(String name, int level) throws IOException
+    {
+        checkNoEntryOpen();
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        int flags = FLAG_DATA_DESCRIPTOR | (isAscii(nameBytes) ? 0 : FLAG_UTF8);
+        long localHeaderOffset = position;
+
+        try
+        {
+            putInt(LOCAL_FILE_HEADER_SIGNATURE);
+            putShort(VERSION);
+            putShort(flags);
+            putShort(ZipEntry.DEFLATED);
+            putShort(dosTime);
+            putShort(dosDate);
+            putInt(0);
+            putInt(0);
+            putInt(0);
+            putShort(nameBytes.length);
+            putShort(0);
+            write(nameBytes, 0, nameBytes.length);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            failedEntry = name;
+            throw e;
+        }
+        entryOpen = true;
+
+        Deflater deflater = new Deflater(level, true);
+        CRC32 crc = new CRC32();
+        OutputStream compressedOut = new OutputStream()
+        {
+            @Override
+            public void write(int b) throws IOException
+            {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] bytes, int offset, int length) throws IOException
+            {
+                try
+                {
+                    ZipWriter.this.write(bytes, offset, length);
+                }
+                catch (IOException | RuntimeException e)
+                {
+                    failedEntry = name;
+                    throw e;
+                }
+            }
+        };
+        return new DeflaterOutputStream(compressedOut, deflater, 8192)
+        {
+            private boolean closed;
+
+            @Override
+            public void write(byte[] bytes, int offset, int length) throws IOException
+            {
+                crc.update(bytes, offset, length);
+                super.write(bytes, offset, length);
+            }
+
+            @Override
+            public void write(int b) throws IOException
+            {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void close() throws IOException
+            {
+                if (closed)
+                {
+                    return;
+                }
+                closed = true;
+                try
+                {
+                    finish();
+                    long compressedSize = deflater.getBytesWritten();
+                    long size = deflater.getBytesRead();
+                    if (size >= ZIP64_MAGIC || compressedSize >= ZIP64_MAGIC)
+                    {
+                        throw new ZipException("entry " + name + " is too large");
+                    }
+                    putInt(DATA_DESCRIPTOR_SIGNATURE);
+                    putInt((int) crc.getValue());
+                    putInt((int) compressedSize);
+                    putInt((int) size);
+                    entries.add(new CentralDirectoryEntry(nameBytes, flags, ZipEntry.DEFLATED, crc.getValue(),
+                            compressedSize, size, localHeaderOffset));
+                }
+                catch (IOException | RuntimeException e)
+                {
+                    failedEntry = name;
+                    throw e;
+                }
+                finally
+                {
+                    deflater.end();
+                    entryOpen = false;
+                }
+            }
+        };
+    }
+
+    /**
+     * Writes the central directory, the zip file is complete afterwards.
+     */
+    public void finish() throws IOException
+    {
+        if (finished)
+        {
+            return;
+        }
+        checkNoEntryOpen();
+        long centralDirectoryOffset = position;
+        for (CentralDirectoryEntry entry : entries)
+        {
+            boolean zip64Size = entry.size >= ZIP64_MAGIC || entry.compressedSize >= ZIP64_MAGIC;
+            boolean zip64Offset = entry.localHeaderOffset >= ZIP64_MAGIC;
+            int extraLength = (zip64Size ? 16 : 0) + (zip64Offset ? 8 : 0);
+            putInt(CENTRAL_FILE_HEADER_SIGNATURE);
+            putShort(extraLength > 0 ? VERSION_ZIP64 : VERSION);
+            putShort(extraLength > 0 ? VERSION_ZIP64 : VERSION);
+            putShort(entry.flags);
+            putShort(entry.method);
+            putShort(dosTime);
+            putShort(dosDate);
+            putInt((int) entry.crc);
+            putInt(zip64Size ? (int) ZIP64_MAGIC : (int) entry.compressedSize);
+            putInt(zip64Size ? (int) ZIP64_MAGIC : (int) entry.size);
+            putShort(entry.name.length);
+            putShort(extraLength > 0 ? extraLength + 4 : 0);
+            putShort(0);
+            putShort(0);
+            putShort(0);
+            putInt(0);
+            putInt(zip64Offset ? (int) ZIP64_MAGIC : (int) entry.localHeaderOffset);
+            write(entry.name, 0, entry.name.length);
+            if (extraLength > 0)
+            {
+                putShort(ZIP64_EXTRA_FIELD_ID);
+                putShort(extraLength);
+                if (zip64Size)
+                {
+                    putLong(entry.size);
+                    putLong(entry.compressedSize);
+                }
+                if (zip64Offset)
+                {
+                    putLong(entry.localHeaderOffset);
+                }
+            }
+        }
+        long centralDirectorySize = position - centralDirectoryOffset;
+
+        boolean zip64 = entries.size() >= ZIP64_MAGIC_COUNT || centralDirectoryOffset >= ZIP64_MAGIC
+                || centralDirectorySize >= ZIP64_MAGIC;
+        if (zip64)
+        {
+            long zip64EndOffset = position;
+            putInt(ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+            putLong(44);
+            putShort(VERSION_ZIP64);
+            putShort(VERSION_ZIP64);
+            putInt(0);
+            putInt(0);
+            putLong(entries.size());
+            putLong(entries.size());
+            putLong(centralDirectorySize);
+            putLong(centralDirectoryOffset);
+
+            putInt(ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE);
+            putInt(0);
+            putLong(zip64EndOffset);
+            putInt(1);
+        }
+        putInt(END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+        putShort(0);
+        putShort(0);
+        putShort(zip64 ? ZIP64_MAGIC_COUNT : entries.size());
+        putShort(zip64 ? ZIP64_MAGIC_COUNT : entries.size());
+        putInt(zip64 ? (int) ZIP64_MAGIC : (int) centralDirectorySize);
+        putInt(zip64 ? (int) ZIP64_MAGIC : (int) centralDirectoryOffset);
+        putShort(0);
+        flush();
+        finished = true;
+    }
+
+    /**
+     * Finishes the zip file and closes the channel. After a failed entry only the channel is closed, the incomplete
+     * content of the channel must be discarded by the caller.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        try
+        {
+            if (failedEntry == null)
+            {
+                finish();
+            }
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+
+    private void checkNoEntryOpen() throws ZipException
+    {
+        if (failedEntry != null)
+        {
+            throw new ZipException("zip file is incomplete, writing entry " + failedEntry + " failed");
+        }
+        if (entryOpen)
+        {
+            throw new ZipException("the stream of the last entry is not closed");
+        }
+        if (finished)
+        {
+            throw new ZipException("zip file is already finished");
+        }
+    }
+
+    private static boolean isAscii(byte[] bytes)
+    {
+        for (byte b : bytes)
+        {
+            if (b < 0)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Counts the bytes written into the channel of the zip file.
+     */
+    private class CountingChannel implements WritableByteChannel
+    {
+        private long count;
+
+        @Override
+        public int write(ByteBuffer source) throws IOException
+        {
+            int written = channel.write(source);
+            count += written;
+            return written;
+        }
+
+        @Override
+        public boolean isOpen()
+        {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close()
+        {
+            //the channel of the zip file is closed by the zip writer
+        }
+    }
+
+    private void write(byte[] bytes, int offset, int length) throws IOException
+    {
+        if (length > buffer.capacity())
+        {
+            flush();
+            ByteBuffer source = ByteBuffer.wrap(bytes, offset, length);
+            while (source.hasRemaining())
+            {
+                channel.write(source);
+            }
+            position += length;
+            return;
+        }
+        ensureRemaining(length);
+        buffer.put(bytes, offset, length);
+        position += length;
+    }
+
+    private void putShort(int value) throws IOException
+    {
+        ensureRemaining(2);
+        buffer.putShort((short) value);
+        position += 2;
+    }
+
+    private void putInt(int value) throws IOException
+    {
+        ensureRemaining(4);
+        buffer.putInt(value);
+        position += 4;
+    }
+
+    private void putLong(long value) throws IOException
+    {
+        ensureRemaining(8);
+        buffer.putLong(value);
+        position += 8;
+    }
+
+    private void ensureRemaining(int length) throws IOException
+    {
+        if (buffer.remaining() < length)
+        {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException
+    {
+        buffer.flip();
+        while (buffer.hasRemaining())
+        {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,1005 @@
+package de.machmireinebook.epubeditor.epublib.journal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.log4j.Logger;
+
+import com.google.common.hash.Hashing;
+
+import de.machmireinebook.epubeditor.epublib.cache.BookIndexCache;
+import de.machmireinebook.epubeditor.epublib.domain.Book;
+import de.machmireinebook.epubeditor.epublib.domain.MediaType;
+import de.machmireinebook.epubeditor.epublib.epub2.BookSnapshot;
+import de.machmireinebook.epubeditor.epublib.resource.Resource;
+import de.machmireinebook.epubeditor.epublib.resource.ResourceChangeEvent;
+import de.machmireinebook.epubeditor.epublib.resource.ResourceChangeListener;
+import de.machmireinebook.epubeditor.epublib.resource.ResourceDataSource;
+
+/**
+ * Append-only journal of the changes of the resources of a book since its epub file was saved the last time. Saving
+ * the whole epub file is too expensive to do it every few seconds, instead every change of a resource is appended
+ * as a small record to the journal file. After a crash the records can be replayed over the saved epub file, a
+ * successful save compacts the journal to the changes that are not saved yet.
+ *
+ * The journal {@link #record(Book) records} the {@link ResourceChangeEvent}s of the book: changed data and added
+ * resources with their data, removed and renamed resources with their hrefs. The data is deflated, unless it's
+ * compressed already like images and audio. Each record has a CRC-32, a
+ * record cut off by a crash while appending is ignored together with all following records. The order of the spine
+ * is not recorded, replayed chapters that were added are appended to the spine.
+ *
+ * The file starts with a header containing path, size and modification time of the epub file, the journal is only
+ * valid as long as the epub file is unchanged. Before a save replaces the epub file, the size and modification time
+ * of the new file are {@link #recordSaving(Path) recorded} too, they don't change when the file is moved over the
+ * epub file. So the journal stays valid if the program crashes after the epub file was replaced, but before the
+ * journal was compacted.
+ *
+ * The file is written on an own thread, the data of the resources is not copied, because
+ * {@link Resource#setData(byte[])} replaces the array instead of changing it. Data that is not loaded into memory,
+ * e.g. of a resource added from a file, is streamed from its {@link ResourceDataSource} into the journal. The
+ * appended records are forced to disk at most once per second, so a crash of the system loses at most the changes
+ * of the last second.
+ */
+public class AutosaveJournal implements Closeable
+{
+    private static final Logger logger = Logger.getLogger(AutosaveJournal.class);
+
+    private static final int MAGIC = 0x45504a4c;
+    private static final int VERSION = 3;
+    private static final byte DATA_RECORD = 1;
+    private static final byte REMOVE_RECORD = 2;
+    private static final byte RENAME_RECORD = 3;
+    private static final byte SAVE_RECORD = 4;
+    private static final long FORCE_DELAY_MILLIS = 1000;
+
+    /**
+     * A recorded change of a resource.
+     */
+    public static class Change
+    {
+        public enum Type
+        {
+            /**
+             * The resource has the data, it's added if the book doesn't contain it.
+             */
+            DATA,
+            REMOVED,
+            RENAMED
+        }
+
+        private final Type type;
+        private final String href;
+        private final String newHref;
+        private final String mediaType;
+        private final String id;
+        private final byte[] data;
+
+        private Change(Type type, String href, String newHref, String mediaType, String id, byte[] data)
+        {
+            this.type = type;
+            this.href = href;
+            this.newHref = newHref;
+            this.mediaType = mediaType;
+            this.id = id;
+            this.data = data;
+        }
+
+        public Type getType()
+        {
+            return type;
+        }
+
+        /**
+         * @return the href of the resource, the former href of a renamed resource
+         */
+        public String getHref()
+        {
+            return href;
+        }
+
+        /**
+         * @return the href of a renamed resource, null for the other types
+         */
+        public String getNewHref()
+        {
+            return newHref;
+        }
+
+        /**
+         * @return the name of the media type, null if the type is not {@link Type#DATA}
+         */
+        public String getMediaType()
+        {
+            return mediaType;
+        }
+
+        /**
+         * @return the id of the resource, null if the resource has no id or the type is not {@link Type#DATA}
+         */
+        public String getId()
+        {
+            return id;
+        }
+
+        /**
+         * @return the data of the resource, null if the type is not {@link Type#DATA}
+         */
+        public byte[] getData()
+        {
+            return data;
+        }
+    }
+
+    /**
+     * Identifies a state of the epub file by its size and modification time, both are kept by moving the file.
+     */
+    private static class Fingerprint
+    {
+        private final long size;
+        private final long lastModified;
+
+        private Fingerprint(long size, long lastModified)
+        {
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        private static Fingerprint of(Path file) throws IOException
+        {
+            if (!Files.exists(file))
+            {
+                return new Fingerprint(-1, -1);
+            }
+            return new Fingerprint(Files.size(file), Files.getLastModifiedTime(file).toMillis());
+        }
+
+        private boolean matches(Fingerprint other)
+        {
+            return size == other.size && lastModified == other.lastModified;
+        }
+    }
+
+    /**
+     * The readable part of the journal file.
+     */
+    private static class Contents
+    {
+        private String epubFile;
+        private Fingerprint fingerprint;
+        private final List<Fingerprint> savedFingerprints = new ArrayList<>();
+        private final List<Change> changes = new ArrayList<>();
+        /**
+         * Index of the last data change by href, as long as no other change of the href follows.
+         */
+        private final Map<String, Integer> dataChangeIndexes = new HashMap<>();
+        private long validLength;
+
+        /**
+         * Adds the change, a data change replaces the former data change of the same resource.
+         */
+        private void addChange(Change change)
+        {
+            if (change.getType() == Change.Type.DATA)
+            {
+                Integer index = dataChangeIndexes.get(change.getHref());
+                if (index != null)
+                {
+                    changes.set(index, change);
+                    return;
+                }
+                dataChangeIndexes.put(change.getHref(), changes.size());
+            }
+            else
+            {
+                dataChangeIndexes.remove(change.getHref());
+                if (change.getNewHref() != null)
+                {
+                    dataChangeIndexes.remove(change.getNewHref());
+                }
+            }
+            changes.add(change);
+        }
+    }
+
+    /**
+     * Writes a record of a change at the position of the channel, called on the writer thread.
+     */
+    @FunctionalInterface
+    private interface RecordWriter
+    {
+        void write(FileChannel channel) throws IOException;
+    }
+
+    private final Path epubFile;
+    private final Path journalFile;
+    private final ScheduledThreadPoolExecutor writer = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, "autosave-journal");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ResourceChangeListener changeRecorder = this::recordChange;
+    /**
+     * Opened for appending, accessed only by the writer thread.
+     */
+    private FileChannel channel;
+    /**
+     * Set if records were appended since the channel was forced the last time, accessed only by the writer thread.
+     */
+    private boolean unforced;
+    private boolean forceScheduled;
+    private Book book;
+    /**
+     * Set while changes are replayed, the replayed changes are in the journal already.
+     */
+    private boolean replaying;
+
+    public AutosaveJournal(Path directory, Path epubFile)
+    {
+        this.epubFile = epubFile.toAbsolutePath();
+        String key = Hashing.sha256().hashString(this.epubFile.toString(), StandardCharsets.UTF_8).toString();
+        this.journalFile = directory.resolve(key + ".journal");
+        //a scheduled force is done by closing the channel
+        writer.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    public Path getEpubFile()
+    {
+        return epubFile;
+    }
+
+    /**
+     * The default directory of the journals, beside the {@link BookIndexCache#getDefaultDirectory() book index cache}
+     * in the configuration folder.
+     */
+    public static Path getDefaultDirectory()
+    {
+        return BookIndexCache.getDefaultDirectory().resolveSibling("journal");
+    }
+
+    /**
+     * Records all changes of the resources of the book from now on, until the journal is closed.
+     */
+    public void record(Book book)
+    {
+        if (this.book != null)
+        {
+            this.book.removeResourceChangeListener(changeRecorder);
+        }
+        this.book = book;
+        if (book != null)
+        {
+            book.addResourceChangeListener(changeRecorder);
+        }
+    }
+
+    private void recordChange(ResourceChangeEvent event)
+    {
+        if (replaying)
+        {
+            return;
+        }
+        switch (event.getType())
+        {
+            case ADDED:
+            case DATA_CHANGED:
+                append(event.getResource());
+                break;
+            case REMOVED:
+                String removedHref = event.getOldHref();
+                appendRecord(removedHref, fileChannel -> writeFully(fileChannel,
+                        createRecord(REMOVE_RECORD, out -> out.writeUTF(removedHref))));
+                break;
+            case RENAMED:
+                String oldHref = event.getOldHref();
+                String newHref = event.getResource().getHref();
+                appendRecord(newHref, fileChannel -> writeFully(fileChannel, createRecord(RENAME_RECORD, out -> {
+                    out.writeUTF(oldHref);
+                    out.writeUTF(newHref);
+                })));
+                break;
+        }
+    }
+
+    /**
+     * Records the current data of the resource. The record is written in background, the method returns immediately.
+     */
+    public void append(Resource<?> resource)
+    {
+        RecordWriter recordWriter = createDataRecordWriter(resource);
+        if (recordWriter != null)
+        {
+            appendRecord(resource.getHref(), recordWriter);
+        }
+    }
+
+    /**
+     * Captures the current data of the resource: the loaded data or, if the data is not loaded, its source. So the
+     * data of a resource added from a file is not read into memory, it's streamed into the journal.
+     *
+     * @return the writer of the data record, null if the resource has no href or no data
+     */
+    private static RecordWriter createDataRecordWriter(Resource<?> resource)
+    {
+        String href = resource.getHref();
+        if (href == null)
+        {
+            return null;
+        }
+        MediaType type = resource.getMediaType();
+        String mediaType = type != null ? type.getName() : "";
+        String id = resource.getId();
+        boolean deflated = type == null || !(type.isBitmapImage() || type.isAudio());
+        ResourceDataSource dataSource = resource.getDataSource();
+        if (!resource.isDataLoaded() && dataSource != null && dataSource.getSize() >= 0)
+        {
+            long size = dataSource.getSize();
+            return fileChannel -> {
+                try (InputStream in = dataSource.getInputStream())
+                {
+                    writeDataRecord(fileChannel, href, mediaType, id, deflated, size, in);
+                }
+            };
+        }
+        byte[] data = resource.getData();
+        if (data == null)
+        {
+            return null;
+        }
+        return fileChannel -> writeDataRecord(fileChannel, href, mediaType, id, deflated, data.length,
+                new ByteArrayInputStream(data));
+    }
+
+    private void appendRecord(String href, RecordWriter recordWriter)
+    {
+        try
+        {
+            writer.execute(() -> {
+                try
+                {
+                    recordWriter.write(openForAppend());
+                    scheduleForce();
+                }
+                catch (IOException e)
+                {
+                    logger.error("can't append change of " + href + " to journal " + journalFile, e);
+                    closeChannel();
+                }
+            });
+        }
+        catch (RejectedExecutionException e)
+        {
+            logger.warn("journal " + journalFile + " is closed, change of " + href + " is not recorded");
+        }
+    }
+
+    /**
+     * Forces the appended records to disk after a delay, so that a burst of changes, e.g. adding many images, is
+     * forced only once. Called on the writer thread.
+     */
+    private void scheduleForce()
+    {
+        unforced = true;
+        if (forceScheduled)
+        {
+            return;
+        }
+        try
+        {
+            writer.schedule(this::forceChannel, FORCE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+            forceScheduled = true;
+        }
+        catch (RejectedExecutionException e)
+        {
+            //closing, the channel is forced on closing
+        }
+    }
+
+    private void forceChannel()
+    {
+        forceScheduled = false;
+        if (channel != null && unforced)
+        {
+            try
+            {
+                channel.force(false);
+                unforced = false;
+            }
+            catch (IOException e)
+            {
+                logger.error("can't force journal " + journalFile + " to disk", e);
+                closeChannel();
+            }
+        }
+    }
+
+    /**
+     * Records size and modification time of the file, that replaces the epub file after the method returns. Is called
+     * on the saving thread and waits until the record is written.
+     */
+    public void recordSaving(Path writtenFile)
+    {
+        runOnWriter(() -> {
+            Fingerprint fingerprint = Fingerprint.of(writtenFile);
+            FileChannel fileChannel = openForAppend();
+            writeFully(fileChannel, createRecord(SAVE_RECORD, out -> {
+                out.writeLong(fingerprint.size);
+                out.writeLong(fingerprint.lastModified);
+            }));
+            fileChannel.force(false);
+            unforced = false;
+            return null;
+        }, null);
+    }
+
+    /**
+     * Reads the recorded changes, data changes of the same resource are merged to the last one. Waits until all
+     * appended records are written.
+     *
+     * @return the recorded changes in order, empty if the journal is missing or outdated
+     */
+    public List<Change> readChanges()
+    {
+        return runOnWriter(() -> {
+            Contents contents = readContents();
+            return contents != null && isValid(contents) ? contents.changes : new ArrayList<>();
+        }, new ArrayList<>());
+    }
+
+    /**
+     * Applies the recorded changes to the book. Changes of resources, that the book doesn't contain (anymore), are
+     * ignored, as well as renames to an href that is used already.
+     *
+     * @return the number of applied changes
+     */
+    public int replay(Book book)
+    {
+        int replayed = 0;
+        replaying = true;
+        try
+        {
+            for (Change change : readChanges())
+            {
+                if (replay(book, change))
+                {
+                    replayed++;
+                }
+                else
+                {
+                    logger.info("resource " + change.getHref() + " of journal not found in book, ignoring " + change.getType());
+                }
+            }
+        }
+        finally
+        {
+            replaying = false;
+        }
+        logger.info("replayed " + replayed + " changes from journal " + journalFile);
+        return replayed;
+    }
+
+    private boolean replay(Book book, Change change)
+    {
+        Resource<?> resource = book.getResources().getByHref(change.getHref());
+        switch (change.getType())
+        {
+            case DATA:
+                if (resource != null)
+                {
+                    resource.setData(change.getData());
+                    return true;
+                }
+                MediaType mediaType = MediaType.getByName(change.getMediaType());
+                resource = mediaType.getResourceFactory().createResource(change.getId(), change.getData(), change.getHref(), mediaType);
+                if (MediaType.XHTML.equals(mediaType))
+                {
+                    book.addSpineResource(resource);
+                }
+                else
+                {
+                    book.addResource(resource);
+                }
+                return true;
+            case REMOVED:
+                if (resource == null)
+                {
+                    return false;
+                }
+                if (MediaType.XHTML.equals(resource.getMediaType()))
+                {
+                    book.removeSpineResource(resource);
+                }
+                else
+                {
+                    book.removeResource(resource);
+                }
+                return true;
+            case RENAMED:
+                if (resource == null || book.getResources().getByHref(change.getNewHref()) != null)
+                {
+                    return false;
+                }
+                resource.setHref(change.getNewHref());
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Rewrites the journal after the book was saved: only the changes since the snapshot was taken are recorded, with
+     * the current data of the resources. The journal is deleted if there are no such changes. Must be called after the
+     * saved file is attached to the book.
+     *
+     * @param snapshot the snapshot, that was saved into the epub file
+     */
+    public void compact(Book book, BookSnapshot snapshot)
+    {
+        List<RecordWriter> records = new ArrayList<>();
+        for (BookSnapshot.Entry entry : snapshot.getEntries())
+        {
+            Resource<?> resource = entry.getResource();
+            if (book.getResources().getByHref(resource.getHref()) != resource)
+            {
+                String href = entry.getHref();
+                records.add(fileChannel -> writeFully(fileChannel, createRecord(REMOVE_RECORD, out -> out.writeUTF(href))));
+            }
+        }
+        for (Resource<?> resource : book.getResources().getAll())
+        {
+            String href = resource.getHref();
+            String savedHref = snapshot.getSavedHref(resource);
+            if (savedHref != null && !savedHref.equals(href))
+            {
+                records.add(fileChannel -> writeFully(fileChannel, createRecord(RENAME_RECORD, out -> {
+                    out.writeUTF(savedHref);
+                    out.writeUTF(href);
+                })));
+            }
+            if (!snapshot.isSavedUnchanged(resource))
+            {
+                RecordWriter recordWriter = createDataRecordWriter(resource);
+                if (recordWriter != null)
+                {
+                    records.add(recordWriter);
+                }
+            }
+        }
+        try
+        {
+            writer.execute(() -> writeCompacted(records));
+        }
+        catch (RejectedExecutionException e)
+        {
+            logger.warn("journal " + journalFile + " is closed, can't compact it");
+        }
+    }
+
+    private void writeCompacted(List<RecordWriter> records)
+    {
+        closeChannel();
+        try
+        {
+            if (records.isEmpty())
+            {
+                Files.deleteIfExists(journalFile);
+                return;
+            }
+            Files.createDirectories(journalFile.getParent());
+            Path tempFile = Files.createTempFile(journalFile.getParent(), "journal", ".tmp");
+            try (FileChannel tempChannel = FileChannel.open(tempFile, StandardOpenOption.WRITE))
+            {
+                writeFully(tempChannel, createHeader());
+                for (RecordWriter record : records)
+                {
+                    record.write(tempChannel);
+                }
+                tempChannel.force(false);
+            }
+            try
+            {
+                Files.move(tempFile, journalFile, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException e)
+            {
+                Files.move(tempFile, journalFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        catch (IOException e)
+        {
+            logger.error("can't compact journal " + journalFile, e);
+        }
+    }
+
+    /**
+     * Deletes the journal, e.g. if the user discards the changes.
+     */
+    public void clear()
+    {
+        writer.execute(() -> {
+            closeChannel();
+            try
+            {
+                Files.deleteIfExists(journalFile);
+            }
+            catch (IOException e)
+            {
+                logger.error("can't delete journal " + journalFile, e);
+            }
+        });
+    }
+
+    /**
+     * Stops recording the changes of the book, writes the pending records and closes the journal file, the journal
+     * itself is kept.
+     */
+    @Override
+    public void close()
+    {
+        record(null);
+        writer.execute(this::closeChannel);
+        writer.shutdown();
+        try
+        {
+            writer.awaitTermination(10, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private FileChannel openForAppend() throws IOException
+    {
+        if (channel != null)
+        {
+            return channel;
+        }
+        Files.createDirectories(journalFile.getParent());
+        Contents contents = readContents();
+        if (contents != null && isValid(contents))
+        {
+            //cut off a record that was written only partially
+            channel = FileChannel.open(journalFile, StandardOpenOption.WRITE);
+            channel.truncate(contents.validLength);
+            channel.position(contents.validLength);
+        }
+        else
+        {
+            channel = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE);
+            writeFully(channel, createHeader());
+        }
+        return channel;
+    }
+
+    private void closeChannel()
+    {
+        if (channel != null)
+        {
+            try
+            {
+                if (unforced)
+                {
+                    channel.force(false);
+                }
+                channel.close();
+            }
+            catch (IOException e)
+            {
+                logger.error("can't close journal " + journalFile, e);
+            }
+            channel = null;
+            unforced = false;
+        }
+    }
+
+    /**
+     * @return true if the journal belongs to the current state of the epub file, the state it was recorded for or
+     * a state that was saved while recording
+     */
+    private boolean isValid(Contents contents) throws IOException
+    {
+        if (!epubFile.toString().equals(contents.epubFile))
+        {
+            return false;
+        }
+        Fingerprint current = Fingerprint.of(epubFile);
+        if (current.matches(contents.fingerprint))
+        {
+            return true;
+        }
+        for (Fingerprint savedFingerprint : contents.savedFingerprints)
+        {
+            if (current.matches(savedFingerprint))
+            {
+                logger.info("journal " + journalFile + " was not compacted after " + epubFile + " was saved");
+                return true;
+            }
+        }
+        logger.info("journal " + journalFile + " is outdated, " + epubFile + " was changed since");
+        return false;
+    }
+
+    /**
+     * Reads header and complete records of the journal.
+     *
+     * @return the contents, null if the journal doesn't exist or has an unknown format
+     */
+    private Contents readContents() throws IOException
+    {
+        if (!Files.exists(journalFile))
+        {
+            return null;
+        }
+        try (CountingInputStream countingIn = new CountingInputStream(new BufferedInputStream(Files.newInputStream(journalFile)));
+             DataInputStream in = new DataInputStream(countingIn))
+        {
+            Contents contents = new Contents();
+            try
+            {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                {
+                    logger.warn("unknown format of journal " + journalFile);
+                    return null;
+                }
+                contents.epubFile = in.readUTF();
+                contents.fingerprint = new Fingerprint(in.readLong(), in.readLong());
+            }
+            catch (EOFException e)
+            {
+                return null;
+            }
+            contents.validLength = countingIn.getByteCount();
+            try
+            {
+                int type;
+                while ((type = in.read()) != -1)
+                {
+                    int length = in.readInt();
+                    if (length < 0)
+                    {
+                        //the length of a streamed record is written after its payload
+                        logger.warn("incomplete record in journal " + journalFile + ", ignoring the rest");
+                        break;
+                    }
+                    byte[] payload = new byte[length];
+                    in.readFully(payload);
+                    CRC32 crc = new CRC32();
+                    crc.update(payload);
+                    if (in.readInt() != (int) crc.getValue())
+                    {
+                        logger.warn("corrupt record in journal " + journalFile + ", ignoring the rest");
+                        break;
+                    }
+                    readRecord(type, payload, contents);
+                    contents.validLength = countingIn.getByteCount();
+                }
+            }
+            catch (EOFException | DataFormatException e)
+            {
+                logger.warn("incomplete record in journal " + journalFile + ", ignoring the rest");
+            }
+            return contents;
+        }
+    }
+
+    private static void readRecord(int type, byte[] payload, Contents contents) throws IOException, DataFormatException
+    {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        switch (type)
+        {
+            case DATA_RECORD:
+                String href = in.readUTF();
+                String mediaType = in.readUTF();
+                String id = in.readUTF();
+                int size = in.readInt();
+                byte[] data = in.readBoolean() ? inflate(in.readAllBytes(), size) : in.readAllBytes();
+                if (data.length != size)
+                {
+                    throw new DataFormatException("unexpected size of data");
+                }
+                contents.addChange(new Change(Change.Type.DATA, href, null, mediaType, id.isEmpty() ? null : id, data));
+                break;
+            case REMOVE_RECORD:
+                contents.addChange(new Change(Change.Type.REMOVED, in.readUTF(), null, null, null, null));
+                break;
+            case RENAME_RECORD:
+                String oldHref = in.readUTF();
+                contents.addChange(new Change(Change.Type.RENAMED, oldHref, in.readUTF(), null, null, null));
+                break;
+            case SAVE_RECORD:
+                contents.savedFingerprints.add(new Fingerprint(in.readLong(), in.readLong()));
+                break;
+            default:
+                throw new DataFormatException("unknown record type " + type);
+        }
+    }
+
+    private byte[] createHeader() throws IOException
+    {
+        Fingerprint fingerprint = Fingerprint.of(epubFile);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(epubFile.toString());
+        out.writeLong(fingerprint.size);
+        out.writeLong(fingerprint.lastModified);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes the payload of a record.
+     */
+    @FunctionalInterface
+    private interface PayloadWriter
+    {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private static byte[] createRecord(byte type, PayloadWriter payloadWriter) throws IOException
+    {
+        ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream();
+        payloadWriter.write(new DataOutputStream(payloadBytes));
+        byte[] payload = payloadBytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(payload.length + 9);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(type);
+        out.writeInt(payload.length);
+        out.write(payload);
+        out.writeInt((int) crc.getValue());
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes a data record, the data is streamed into the channel without copying it into memory. The length of the
+     * payload is unknown until the data is deflated, it's written after the payload, a crash before leaves the record
+     * incomplete.
+     */
+    private static void writeDataRecord(FileChannel fileChannel, String href, String mediaType, String id,
+                                        boolean deflated, long size, InputStream data) throws IOException
+    {
+        long start = fileChannel.position();
+        writeFully(fileChannel, ByteBuffer.allocate(5).put(DATA_RECORD).putInt(-1).flip());
+        CRC32 crc = new CRC32();
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try
+        {
+            //the channel must not be closed by the streams
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new CheckedOutputStream(Channels.newOutputStream(fileChannel), crc)));
+            out.writeUTF(href);
+            out.writeUTF(mediaType);
+            out.writeUTF(id != null ? id : "");
+            out.writeInt((int) size);
+            out.writeBoolean(deflated);
+            long copied;
+            if (deflated)
+            {
+                DeflaterOutputStream deflaterOut = new DeflaterOutputStream(out, deflater, 8192);
+                copied = data.transferTo(deflaterOut);
+                deflaterOut.finish();
+            }
+            else
+            {
+                copied = data.transferTo(out);
+            }
+            out.flush();
+            if (copied != size)
+            {
+                throw new IOException("size of " + href + " changed while it was recorded");
+            }
+        }
+        finally
+        {
+            deflater.end();
+        }
+        long payloadLength = fileChannel.position() - start - 5;
+        writeFully(fileChannel, ByteBuffer.allocate(4).putInt((int) crc.getValue()).flip());
+        ByteBuffer length = ByteBuffer.allocate(4).putInt((int) payloadLength).flip();
+        while (length.hasRemaining())
+        {
+            fileChannel.write(length, start + 1 + length.position());
+        }
+    }
+
+    private static byte[] inflate(byte[] compressedData, int size) throws DataFormatException
+    {
+        Inflater inflater = new Inflater();
+        try
+        {
+            inflater.setInput(compressedData);
+            byte[] data = new byte[size];
+            int count = 0;
+            while (count < size && !inflater.finished())
+            {
+                int inflated = inflater.inflate(data, count, size - count);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                {
+                    throw new DataFormatException("unexpected end of compressed data");
+                }
+                count += inflated;
+            }
+            if (count != size)
+            {
+                throw new DataFormatException("unexpected size of data");
+            }
+            return data;
+        }
+        finally
+        {
+            inflater.end();
+        }
+    }
+
+    private static void writeFully(FileChannel fileChannel, byte[] bytes) throws IOException
+    {
+        writeFully(fileChannel, ByteBuffer.wrap(bytes));
+    }
+
+    private static void writeFully(FileChannel fileChannel, ByteBuffer buffer) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            fileChannel.write(buffer);
+        }
+    }
+
+    private <T> T runOnWriter(Callable<T> operation, T defaultValue)
+    {
+        try
+        {
+            return writer.submit(operation).get();
+        }
+        catch (RejectedExecutionException e)
+        {
+            logger.warn("journal " + journalFile + " is closed already");
+            return defaultValue;
+        }
+        catch (ExecutionException e)
+        {
+            logger.error("can't access journal " + journalFile, e.getCause());
+            return defaultValue;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package de.machmireinebook.epubeditor.epublib.resource;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.hash.Hashing;
+
+/**
+ * Content addressed store for the data of binary resources. Resources with the same content, e.g. an ornament image or
+ * a font used under several hrefs, share one array instead of holding a copy each. Sharing is safe, because the data
+ * of a resource is never changed in place: {@link Resource#setData(byte[])} replaces the array (copy on write).
+ *
+ * The arrays are grouped by their size, so data with a size no other stored array has is stored without reading it.
+ * Only data sharing its size with other arrays is fingerprinted, and arrays with the same fingerprint are compared
+ * byte by byte.
+ *
+ * The store references the arrays weakly, an array is removed as soon as no resource uses it anymore.
+ */
+public class BlobStore
+{
+    private static final BlobStore instance = new BlobStore();
+
+    private final Map<Integer, List<BlobReference>> blobsBySize = new HashMap<>();
+    private final ReferenceQueue<byte[]> clearedBlobs = new ReferenceQueue<>();
+    private int size;
+
+    private static class BlobReference extends WeakReference<byte[]>
+    {
+        private final int length;
+        private boolean fingerprinted;
+        private long fingerprint;
+
+        private BlobReference(byte[] data, ReferenceQueue<byte[]> queue)
+        {
+            super(data, queue);
+            this.length = data.length;
+        }
+
+        /**
+         * @param data the referenced array, must be strongly reachable by the caller
+         */
+        private long getFingerprint(byte[] data)
+        {
+            if (!fingerprinted)
+            {
+                fingerprint = fingerprint(data);
+                fingerprinted = true;
+            }
+            return fingerprint;
+        }
+    }
+
+    public static BlobStore getInstance()
+    {
+        return instance;
+    }
+
+    private static long fingerprint(byte[] data)
+    {
+        return Hashing.farmHashFingerprint64().hashBytes(data).asLong();
+    }
+
+    /**
+     * Returns the stored array with the same content as the data, if there is one. Otherwise the data is stored and
+     * returned itself.
+     *
+     * @return an array with the content of the data, shared by all callers with the same content
+     */
+    public byte[] intern(byte[] data)
+    {
+        synchronized (blobsBySize)
+        {
+            expungeClearedBlobs();
+            List<BlobReference> sameSize = blobsBySize.computeIfAbsent(data.length, length -> new ArrayList<>(1));
+            BlobReference reference = new BlobReference(data, clearedBlobs);
+            if (!sameSize.isEmpty())
+            {
+                long fingerprint = reference.getFingerprint(data);
+                for (BlobReference stored : sameSize)
+                {
+                    byte[] storedData = stored.get();
+                    if (storedData != null && stored.getFingerprint(storedData) == fingerprint
+                            && Arrays.equals(storedData, data))
+                    {
+                        return storedData;
+                    }
+                }
+            }
+            sameSize.add(reference);
+            size++;
+            return data;
+        }
+    }
+
+    /**
+     * @return the number of stored arrays, including arrays not used anymore, that are not yet garbage collected
+     */
+    public int size()
+    {
+        synchronized (blobsBySize)
+        {
+            expungeClearedBlobs();
+            return size;
+        }
+    }
+
+    private void expungeClearedBlobs()
+    {
+        Reference<? extends byte[]> cleared;
+        while ((cleared = clearedBlobs.poll()) != null)
+        {
+            BlobReference reference = (BlobReference) cleared;
+            List<BlobReference> sameSize = blobsBySize.get(reference.length);
+            if (sameSize != null && sameSize.remove(reference))
+            {
+                size--;
+                if (sameSize.isEmpty())
+                {
+                    blobsBySize.remove(reference.length);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package de.machmireinebook.epubeditor.epublib.resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import de.machmireinebook.epubeditor.epublib.domain.Book;
+import de.machmireinebook.epubeditor.epublib.epub2.BookSnapshot;
+
+/**
+ * An exploded epub, a directory containing the files of the epub, as backing store of a book. For books with
+ * gigabytes of images, which can't be held in memory: the resources read their data from their files when it's
+ * needed, changed resources are written back into their files by {@link #save(BookSnapshot)}. An epub file is only
+ * created by exporting the book with the {@link de.machmireinebook.epubeditor.epublib.epub2.EpubWriter}.
+ *
+ * The data read from the files is cached in the resources up to a maximum size, above it the data of the least
+ * recently loaded resources is released again. Changed resources keep their data until they are saved.
+ */
+public class BookDirectory
+{
+    private static final Logger logger = Logger.getLogger(BookDirectory.class);
+
+    public static final long DEFAULT_MAX_CACHED_SIZE = 256L * 1024 * 1024;
+
+    private final Path root;
+    private String packageDocumentHref = "OEBPS/content.opf";
+    private long maxCachedSize = DEFAULT_MAX_CACHED_SIZE;
+    /**
+     * The resources holding data read from their file, least recently loaded first, with the size of the data.
+     */
+    private final Map<FileDataSource, LoadedResource> loadedResources = new LinkedHashMap<>();
+    private long cachedSize;
+
+    private static class LoadedResource
+    {
+        private final Resource<?> resource;
+        private final long size;
+
+        private LoadedResource(Resource<?> resource, long size)
+        {
+            this.resource = resource;
+            this.size = size;
+        }
+    }
+
+    public BookDirectory(Path root)
+    {
+        this.root = root.toAbsolutePath();
+    }
+
+    public Path getRoot()
+    {
+        return root;
+    }
+
+    /**
+     * @return the path of the package document relative to the root directory, the hrefs of the resources are
+     * relative to its directory
+     */
+    public String getPackageDocumentHref()
+    {
+        return packageDocumentHref;
+    }
+
+    public void setPackageDocumentHref(String packageDocumentHref)
+    {
+        this.packageDocumentHref = packageDocumentHref;
+    }
+
+    public long getMaxCachedSize()
+    {
+        return maxCachedSize;
+    }
+
+    /**
+     * Sets the maximum size of the data read from the files, that is held in memory.
+     */
+    public void setMaxCachedSize(long maxCachedSize)
+    {
+        this.maxCachedSize = maxCachedSize;
+    }
+
+    /**
+     * @return the file of the resource with the href
+     */
+    public Path getFile(String href)
+    {
+        Path contentDirectory = root.resolve(packageDocumentHref).getParent();
+        return (contentDirectory != null ? contentDirectory : root).resolve(href).normalize();
+    }
+
+    /**
+     * Remembers the loaded data of the resource and releases the data of the least recently loaded resources, if
+     * the maximum size is exceeded.
+     */
+    void dataLoaded(FileDataSource dataSource, Resource<?> resource)
+    {
+        List<Resource<?>> releasedResources = new ArrayList<>();
+        synchronized (loadedResources)
+        {
+            LoadedResource former = loadedResources.remove(dataSource);
+            if (former != null)
+            {
+                cachedSize -= former.size;
+            }
+            long size = Math.max(dataSource.getSize(), 0);
+            loadedResources.put(dataSource, new LoadedResource(resource, size));
+            cachedSize += size;
+
+            Iterator<LoadedResource> iterator = loadedResources.values().iterator();
+            while (cachedSize > maxCachedSize && loadedResources.size() > 1)
+            {
+                LoadedResource eldest = iterator.next();
+                iterator.remove();
+                cachedSize -= eldest.size;
+                releasedResources.add(eldest.resource);
+            }
+        }
+        //releases only unchanged data, that can be read again from the file
+        releasedResources.forEach(Resource::close);
+    }
+
+    /**
+     * Writes the changed, added and renamed resources of the snapshot and the package document into their files,
+     * each file is replaced atomically. Unchanged resources, that are read from their file, are not written. The html
+     * of the snapshot is processed before, see {@link BookSnapshot#processHtml()}. Can be called on any thread.
+     *
+     * @return the number of written files
+     */
+    public int save(BookSnapshot snapshot) throws IOException
+    {
+        snapshot.processHtml();
+        int writtenFiles = 0;
+        for (BookSnapshot.Entry entry : snapshot.getEntries())
+        {
+            Path file = getFile(entry.getHref());
+            if (entry.getDataSource() instanceof FileDataSource && ((FileDataSource) entry.getDataSource()).getFile().equals(file))
+            {
+                continue;
+            }
+            try (InputStream in = entry.getInputStream())
+            {
+                writeFile(file, in);
+            }
+            writtenFiles++;
+        }
+        writeFile(root.resolve(packageDocumentHref), snapshot.getPackageDocumentInputStream());
+        logger.info("saved " + writtenFiles + " changed files into " + root);
+        return writtenFiles + 1;
+    }
+
+    /**
+     * Lets the resources, that are unchanged since they were saved with the snapshot, read their data from their
+     * files again. Must be called on the thread editing the book after {@link #save(BookSnapshot)}.
+     */
+    public void attachSaved(Book book, BookSnapshot snapshot)
+    {
+        for (Resource<?> resource : book.getResources().getAll())
+        {
+            if (snapshot.isSavedUnchanged(resource) && !(resource.getDataSource() instanceof FileDataSource
+                    && ((FileDataSource) resource.getDataSource()).getFile().equals(getFile(resource.getHref()))))
+            {
+                attach(resource);
+            }
+        }
+    }
+
+    private void attach(Resource<?> resource)
+    {
+        FileDataSource dataSource = new FileDataSource(this, getFile(resource.getHref()));
+        resource.setSavedDataSource(dataSource);
+        if (resource.isDataLoaded())
+        {
+            dataLoaded(dataSource, resource);
+        }
+    }
+
+    private void writeFile(Path file, InputStream in) throws IOException
+    {
+        Files.createDirectories(file.getParent());
+        Path tempFile = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try
+        {
+            Files.copy(in, tempFile, StandardCopyOption.REPLACE_EXISTING);
+            try
+            {
+                Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException e)
+            {
+                Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        catch (IOException e)
+        {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+    }
+}
@@ -53,7 +53,7 @@ public class CSSResource extends Resource<CascadingStyleSheet> implements TextRe
     @Override
     public String asString() {
         try {
-            return new String(getData(), getInputEncoding());
+            return getDataAsString();
         }
         catch (UnsupportedEncodingException e) {
             //should not happens
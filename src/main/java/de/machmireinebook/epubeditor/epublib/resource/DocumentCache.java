@@ -0,0 +1,134 @@
+package de.machmireinebook.epubeditor.epublib.resource;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.jdom2.Document;
+
+/**
+ * Bounded LRU cache of the parsed documents of resources. A document is cached for the
+ * {@link Resource#getDataVersion() data version} it was parsed from and is invalid as soon as the data of the resource
+ * is changed. The cached documents are shared and must not be changed, callers that want to change a document have to
+ * work on a clone.
+ *
+ * The size of the cache is limited by the summed size of the data the documents were parsed from. The resources are
+ * referenced weakly, the cache doesn't keep the resources of a closed book alive.
+ */
+class DocumentCache
+{
+    private final Map<ResourceKey, CachedDocument> documents = new LinkedHashMap<>(16, 0.75f, true);
+    private final ReferenceQueue<Resource<?>> collectedResources = new ReferenceQueue<>();
+    private final long maxSize;
+    private long size;
+
+    /**
+     * Resources are compared by identity, because equals and hashCode of a resource use its href, that can be changed.
+     * A key of a garbage collected resource is only equal to itself.
+     */
+    private static class ResourceKey extends WeakReference<Resource<?>>
+    {
+        private final int hashCode;
+
+        private ResourceKey(Resource<?> resource, ReferenceQueue<Resource<?>> queue)
+        {
+            super(resource, queue);
+            this.hashCode = System.identityHashCode(resource);
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (o == this)
+            {
+                return true;
+            }
+            Resource<?> resource = get();
+            return o instanceof ResourceKey && resource != null && ((ResourceKey) o).get() == resource;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hashCode;
+        }
+    }
+
+    private static class CachedDocument
+    {
+        private final long dataVersion;
+        private final Document document;
+        private final long size;
+
+        private CachedDocument(long dataVersion, Document document, long size)
+        {
+            this.dataVersion = dataVersion;
+            this.document = document;
+            this.size = size;
+        }
+    }
+
+    DocumentCache(long maxSize)
+    {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return the document parsed from the data with the version, null if it isn't cached
+     */
+    synchronized Document get(Resource<?> resource, long dataVersion)
+    {
+        expungeCollectedResources();
+        CachedDocument cached = documents.get(new ResourceKey(resource, null));
+        return cached != null && cached.dataVersion == dataVersion ? cached.document : null;
+    }
+
+    /**
+     * Caches the document parsed from the data with the version, replacing the document of an older version.
+     *
+     * @param dataSize the size of the data the document was parsed from
+     */
+    synchronized void put(Resource<?> resource, long dataVersion, Document document, long dataSize)
+    {
+        expungeCollectedResources();
+        if (dataSize > maxSize)
+        {
+            return;
+        }
+        CachedDocument former = documents.put(new ResourceKey(resource, collectedResources),
+                new CachedDocument(dataVersion, document, dataSize));
+        if (former != null)
+        {
+            size -= former.size;
+        }
+        size += dataSize;
+        Iterator<CachedDocument> iterator = documents.values().iterator();
+        while (size > maxSize)
+        {
+            size -= iterator.next().size;
+            iterator.remove();
+        }
+    }
+
+    synchronized int size()
+    {
+        expungeCollectedResources();
+        return documents.size();
+    }
+
+    private void expungeCollectedResources()
+    {
+        Reference<? extends Resource<?>> key;
+        while ((key = collectedResources.poll()) != null)
+        {
+            CachedDocument removed = documents.remove(key);
+            if (removed != null)
+            {
+                size -= removed.size;
+            }
+        }
+    }
+}
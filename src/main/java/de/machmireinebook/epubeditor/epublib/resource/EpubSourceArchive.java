@@ -0,0 +1,224 @@
+package de.machmireinebook.epubeditor.epublib.resource;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The epub file a book was read from. Holds one {@link ZipFile} open to get random access to the entries, so that the
+ * content of resources can be read from the file when it's needed and not all at once when the book is opened.
+ *
+ * Additionally a file channel is opened for reading stored entries and for copying the compressed content of entries
+ * into another epub file. The channel is only used for positional reads, the file is never mapped into memory.
+ *
+ * After {@link #close()} the zip file will be reopened on the next access.
+ */
+public class EpubSourceArchive implements Closeable
+{
+    private static final Logger logger = Logger.getLogger(EpubSourceArchive.class);
+
+    private final Path path;
+    private ZipFile zipFile;
+    private FileChannel channel;
+    private Map<String, ZipCentralDirectory.Entry> rawEntries;
+
+    public EpubSourceArchive(Path path)
+    {
+        this.path = path;
+    }
+
+    public Path getPath()
+    {
+        return path;
+    }
+
+    public synchronized ZipFile getZipFile() throws IOException
+    {
+        if (zipFile == null)
+        {
+            logger.info("opening zip file " + path);
+            zipFile = new ZipFile(path.toFile());
+        }
+        return zipFile;
+    }
+
+    public InputStream getInputStream(String entryName) throws IOException
+    {
+        ZipFile file = getZipFile();
+        ZipEntry zipEntry = file.getEntry(entryName);
+        if (zipEntry == null)
+        {
+            throw new IOException("entry " + entryName + " not found in " + path);
+        }
+        return file.getInputStream(zipEntry);
+    }
+
+    /**
+     * Opens a stream on the content of a stored (not compressed) entry, that reads the content in parts by positional
+     * reads from the file, without inflating it and without copying it into the heap as a whole. The stream is
+     * independent of the position of the file channel, several streams can be read at the same time. If the archive
+     * is closed, the stream continues on the reopened file.
+     *
+     * @return the stream, null if the entry doesn't exist or is compressed
+     */
+    public InputStream getStoredEntryInputStream(String entryName) throws IOException
+    {
+        ZipCentralDirectory.Entry rawEntry = getRawEntry(entryName);
+        if (rawEntry == null || rawEntry.getMethod() != ZipEntry.STORED)
+        {
+            return null;
+        }
+        long dataOffset = ZipCentralDirectory.getDataOffset(getChannel(), rawEntry.getLocalHeaderOffset());
+        return new StoredEntryInputStream(dataOffset, rawEntry.getSize());
+    }
+
+    /**
+     * The entry as stored in the central directory of the file, with compression method, CRC-32 and sizes.
+     *
+     * @return the entry, null if the file contains no entry with this name
+     */
+    public ZipCentralDirectory.Entry getRawEntry(String entryName) throws IOException
+    {
+        return getRawEntries().get(entryName);
+    }
+
+    /**
+     * Copies the content of the entry as it is stored in the file, that means compressed for deflated entries, into
+     * the target.
+     *
+     * @return the number of copied bytes
+     */
+    public long transferRawData(ZipCentralDirectory.Entry rawEntry, WritableByteChannel target) throws IOException
+    {
+        FileChannel fileChannel = getChannel();
+        long dataOffset = ZipCentralDirectory.getDataOffset(fileChannel, rawEntry.getLocalHeaderOffset());
+        long transferred = 0;
+        while (transferred < rawEntry.getCompressedSize())
+        {
+            long count = fileChannel.transferTo(dataOffset + transferred, rawEntry.getCompressedSize() - transferred, target);
+            if (count <= 0)
+            {
+                throw new IOException("unexpected end of entry " + rawEntry.getName() + " in " + path);
+            }
+            transferred += count;
+        }
+        return transferred;
+    }
+
+    private int read(ByteBuffer buffer, long position) throws IOException
+    {
+        return getChannel().read(buffer, position);
+    }
+
+    private synchronized FileChannel getChannel() throws IOException
+    {
+        if (channel == null)
+        {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+        }
+        return channel;
+    }
+
+    private synchronized Map<String, ZipCentralDirectory.Entry> getRawEntries() throws IOException
+    {
+        if (rawEntries == null)
+        {
+            rawEntries = ZipCentralDirectory.readEntries(getChannel());
+        }
+        return rawEntries;
+    }
+
+    @Override
+    public synchronized void close()
+    {
+        if (zipFile != null)
+        {
+            try
+            {
+                zipFile.close();
+            }
+            catch (IOException e)
+            {
+                logger.error("error while closing zip file " + path, e);
+            }
+            zipFile = null;
+        }
+        if (channel != null)
+        {
+            try
+            {
+                channel.close();
+            }
+            catch (IOException e)
+            {
+                logger.error("error while closing file " + path, e);
+            }
+            channel = null;
+        }
+        rawEntries = null;
+    }
+
+    private class StoredEntryInputStream extends InputStream
+    {
+        private long position;
+        private final long end;
+
+        private StoredEntryInputStream(long offset, long size)
+        {
+            this.position = offset;
+            this.end = offset + size;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            byte[] singleByte = new byte[1];
+            return read(singleByte, 0, 1) < 0 ? -1 : singleByte[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException
+        {
+            if (length == 0)
+            {
+                return 0;
+            }
+            if (position >= end)
+            {
+                return -1;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, (int) Math.min(length, end - position));
+            int count = EpubSourceArchive.this.read(buffer, position);
+            if (count < 0)
+            {
+                throw new IOException("unexpected end of file " + path + " at position " + position);
+            }
+            position += count;
+            return count;
+        }
+
+        @Override
+        public long skip(long n)
+        {
+            long count = Math.max(0, Math.min(n, end - position));
+            position += count;
+            return count;
+        }
+
+        @Override
+        public int available()
+        {
+            return (int) Math.min(Integer.MAX_VALUE, end - position);
+        }
+    }
+}
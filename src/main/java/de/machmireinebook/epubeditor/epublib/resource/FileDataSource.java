@@ -0,0 +1,56 @@
+package de.machmireinebook.epubeditor.epublib.resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Reads the data of a resource from a file of an exploded epub, see {@link BookDirectory}.
+ */
+public class FileDataSource implements ResourceDataSource
+{
+    private final BookDirectory directory;
+    private final Path file;
+
+    public FileDataSource(BookDirectory directory, Path file)
+    {
+        this.directory = directory;
+        this.file = file;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException
+    {
+        return Files.newInputStream(file);
+    }
+
+    @Override
+    public long getSize()
+    {
+        try
+        {
+            return Files.size(file);
+        }
+        catch (IOException e)
+        {
+            return -1;
+        }
+    }
+
+    @Override
+    public void dataLoaded(Resource<?> resource)
+    {
+        directory.dataLoaded(this, resource);
+    }
+
+    public BookDirectory getDirectory()
+    {
+        return directory;
+    }
+
+    public Path getFile()
+    {
+        return file;
+    }
+}
@@ -1,5 +1,8 @@
 package de.machmireinebook.epubeditor.epublib.resource;
 
+import java.io.IOException;
+import java.io.InputStream;
+
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.SimpleBooleanProperty;
@@ -70,19 +73,39 @@ public class ImageResource extends Resource<Image>
         calculateImageInfo();
     }
 
+    /**
+     * Reads width, height and bits per pixel only from the header of the image, the image itself is decoded
+     * lazily in {@link #asNativeFormat()}.
+     */
     private void calculateImageInfo()
     {
-        image = new Image(getInputStream());
-        imageProperty.setValue(image);
-        width = image.getWidth();
-        height = image.getHeight();
-
+        image = null;
+        imageProperty.setValue(null);
+        if (data == null && getDataSource() == null)
+        {
+            //lazy loaded resource, image info is calculated on first access
+            return;
+        }
         imageInfo = new ImageInfo();
-        imageInfo.setInput(getInputStream()); // it can be InputStream or RandomAccessFile
-        if (!imageInfo.check())
+        try (InputStream in = getInputStream())
+        {
+            imageInfo.setInput(in); // it can be InputStream or RandomAccessFile
+            if (imageInfo.check())
+            {
+                width = imageInfo.getWidth();
+                height = imageInfo.getHeight();
+                return;
+            }
+        }
+        catch (IOException e)
         {
-            logger.error("Not a supported image file format, href: " + getHref());
+            logger.error("can't read image header, href: " + getHref(), e);
         }
+        logger.error("Not a supported image file format, href: " + getHref());
+        //unknown header, the dimensions can only be determined by decoding the image
+        Image decodedImage = asNativeFormat();
+        width = decodedImage.getWidth();
+        height = decodedImage.getHeight();
     }
 
     @Override
@@ -96,8 +119,31 @@ public class ImageResource extends Resource<Image>
         return image;
     }
 
+    /**
+     * Releases besides the data the decoded image, the image info is kept.
+     */
+    @Override
+    public synchronized void close()
+    {
+        super.close();
+        if (!isDataLoaded())
+        {
+            image = null;
+            imageProperty.setValue(null);
+        }
+    }
+
+    private void ensureImageInfo()
+    {
+        if (imageInfo == null && getDataSource() != null)
+        {
+            calculateImageInfo();
+        }
+    }
+
     public double getWidth()
     {
+        ensureImageInfo();
         return width;
     }
 
@@ -108,6 +154,7 @@ public class ImageResource extends Resource<Image>
 
     public double getHeight()
     {
+        ensureImageInfo();
         return height;
     }
 
@@ -118,14 +165,20 @@ public class ImageResource extends Resource<Image>
 
     public ImageInfo getImageInfo()
     {
+        ensureImageInfo();
         return imageInfo;
     }
 
     public String getImageDescription()
     {
+        ensureImageInfo();
         String sizeInKB = EpubFxNumberUtils.formatDouble(Math.round(getSize() / 1024.0 * 100) / 100.0);
-        return ((Double) image.getWidth()).intValue() + "×" + ((Double) image.getHeight()).intValue() + " px | "
-                + sizeInKB + " KB | " + imageInfo.getBitsPerPixel() + " bpp";
+        String description = (int) width + "×" + (int) height + " px | " + sizeInKB + " KB";
+        if (imageInfo != null && imageInfo.getBitsPerPixel() > 0)
+        {
+            description += " | " + imageInfo.getBitsPerPixel() + " bpp";
+        }
+        return description;
     }
 
     public ObjectProperty<Image> imageProperty()
@@ -142,9 +195,13 @@ public class ImageResource extends Resource<Image>
         return coverProperty;
     }
 
+    /**
+     * The copy shares data, decoded image and image info with this resource, but has its own properties.
+     */
     public Object clone() {
         ImageResource resource = (ImageResource) super.clone();
-        calculateImageInfo();
+        resource.imageProperty = new SimpleObjectProperty<>(image);
+        resource.coverProperty = null;
         return resource;
     }
 }
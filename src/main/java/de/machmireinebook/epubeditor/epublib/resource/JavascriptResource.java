@@ -38,7 +38,7 @@ public class JavascriptResource extends Resource<String> implements TextResource
     @Override
     public String asString() {
         try {
-            return new String(getData(), getInputEncoding());
+            return getDataAsString();
         }
         catch (UnsupportedEncodingException e) {
             //should not happens
@@ -59,4 +59,3 @@ public class JavascriptResourceFactory implements ResourceFactory<JavascriptReso
         return new JavascriptResource(data, href, mediaType);
     }
 }
-
@@ -3,11 +3,16 @@ package de.machmireinebook.epubeditor.epublib.resource;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.ObjectInputStream;
 import java.io.Reader;
 import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.lang.ref.SoftReference;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 import javafx.beans.property.ObjectProperty;
@@ -16,10 +21,13 @@ import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.property.StringProperty;
 
 import org.apache.commons.io.IOUtils;
-import org.apache.commons.lang3.ObjectUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
 
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
+import com.google.common.io.ByteStreams;
+
 import de.machmireinebook.epubeditor.epublib.Constants;
 import de.machmireinebook.epubeditor.epublib.EpubVersion;
 import de.machmireinebook.epubeditor.epublib.ToStringConvertible;
@@ -38,8 +46,9 @@ import de.machmireinebook.epubeditor.epublib.util.commons.io.XmlStreamReader;
 public class Resource<T> implements ToStringConvertible, Cloneable, Serializable
 {
     private static final Logger logger = Logger.getLogger(Resource.class);
+	private static final AtomicLong dataVersions = new AtomicLong();
 
-	private String id;
+	private StringProperty id = new SimpleStringProperty(this, "id");
 	private String title;
 	private StringProperty href = new SimpleStringProperty();
 	private String originalHref;
@@ -48,7 +57,14 @@ public class Resource<T> implements ToStringConvertible, Cloneable, Serializable
 	private String mediaOverlay;
 	private ObjectProperty<MediaType> mediaType = new SimpleObjectProperty<>();
 	private String inputEncoding = Constants.CHARACTER_ENCODING;
-	protected byte[] data;
+	protected volatile byte[] data;
+	private transient ResourceDataSource dataSource;
+	private transient volatile boolean dataModified;
+	private transient volatile long processedDataHash;
+	private transient volatile SoftReference<DecodedText> decodedText;
+	private transient volatile long dataVersion = dataVersions.incrementAndGet();
+	private transient volatile ContentHash contentHash;
+	private transient List<ResourceChangeListener> changeListeners = new CopyOnWriteArrayList<>();
 	private final List<ResourceExternalChangedListener> externalChangedListeners = new ArrayList<>();
 
     public Resource() {
@@ -153,12 +169,12 @@ public class Resource<T> implements ToStringConvertible, Cloneable, Serializable
 	 * @param inputEncoding If the data is of a text type (html/css/etc) then it will use the given inputEncoding.
 	 */
 	public Resource(String id, byte[] data, String href, MediaType mediaType, String inputEncoding) {
-		this.id = StringUtils.replace(id, " ", "_");
+		this.id.set(StringUtils.replace(id, " ", "_"));
 		this.href.set(href);
 		this.originalHref = href;
 		this.mediaType.setValue(mediaType);
 		this.inputEncoding = inputEncoding;
-		this.data = data;
+		this.data = share(data);
 	}
 
     /**
@@ -168,19 +184,158 @@ public class Resource<T> implements ToStringConvertible, Cloneable, Serializable
 	 */
 	public InputStream getInputStream()
 	{
+		byte[] loadedData = data;
+		if (loadedData == null && dataSource != null)
+		{
+			//stream directly from the source, without keeping the data in memory
+			try
+			{
+				return dataSource.getInputStream();
+			}
+			catch (IOException e)
+			{
+				logger.error("can't read data of resource " + getHref(), e);
+				throw new ResourceDataException(e);
+			}
+		}
 		return new ByteArrayInputStream(getData());
 	}
 	
 	/**
 	 * The contents of the resource as a byte[]
+	 * The array can be shared with copies of the resource and resources with the same content, it must not be
+	 * changed, use {@link #setData(byte[])} instead.
 	 * 
 	 * @return The contents of the resource
 	 */
 	public byte[] getData()
     {
+		byte[] loadedData = data;
+		ResourceDataSource source = dataSource;
+		if (loadedData == null && source != null)
+		{
+			loadedData = loadData();
+			//informed outside of the lock, the source may release the data of other resources
+			source.dataLoaded(this);
+		}
+		return loadedData;
+	}
+
+	private synchronized byte[] loadData()
+	{
+		if (data == null && dataSource != null)
+		{
+			logger.debug("loading data of resource " + getHref());
+			try (InputStream in = dataSource.getInputStream())
+			{
+				data = share(IOUtils.toByteArray(in));
+			}
+			catch (IOException e)
+			{
+				logger.error("can't read data of resource " + getHref(), e);
+				throw new ResourceDataException(e);
+			}
+		}
 		return data;
 	}
 
+	/**
+	 * A stream reading the data in parts from the source, without copying it into the heap. Only available as long as
+	 * the data is not loaded into memory and the source supports it.
+	 *
+	 * @return a new stream on the data, null if the data is not available as stream from the source
+	 */
+	public InputStream getStreamedData()
+	{
+		if (data != null || dataSource == null || !dataSource.isStreamable())
+		{
+			return null;
+		}
+		try
+		{
+			return dataSource.getInputStream();
+		}
+		catch (IOException e)
+		{
+			logger.error("can't read data of resource " + getHref(), e);
+			throw new ResourceDataException(e);
+		}
+	}
+
+	/**
+	 * The source from which the data of this resource is read, if it's not in memory yet.
+	 *
+	 * @return the source, null if the resource was not created from a source
+	 */
+	public ResourceDataSource getDataSource()
+	{
+		return dataSource;
+	}
+
+	/**
+	 * Sets the source from which the data of this resource is read. If the resource has no data yet, the data is read
+	 * from the source on the first call of {@link #getData()}.
+	 *
+	 * @param dataSource the source
+	 */
+	public void setDataSource(ResourceDataSource dataSource)
+	{
+		this.dataSource = dataSource;
+	}
+
+	/**
+	 * The data of the resource was saved into the given source, e.g. an entry of the epub file the book was saved to.
+	 * The data is read from this source from now on and counts as unmodified.
+	 *
+	 * @param dataSource the source containing the current data of the resource
+	 */
+	public synchronized void setSavedDataSource(ResourceDataSource dataSource)
+	{
+		this.dataSource = dataSource;
+		this.dataModified = false;
+	}
+
+	/**
+	 * A lazy loaded resource reads its data from its {@link ResourceDataSource} on first access and can release it
+	 * again with {@link #close()}.
+	 *
+	 * @return true if the resource is lazy loaded
+	 */
+	public boolean isLazyLoaded()
+	{
+		return dataSource != null;
+	}
+
+	/**
+	 * @return true if the data of the resource is in memory
+	 */
+	public boolean isDataLoaded()
+	{
+		return data != null;
+	}
+
+	/**
+	 * @return true if the data was changed by {@link #setData(byte[])} since the resource was created, so it can not
+	 * be read again from the source
+	 */
+	public boolean isDataModified()
+	{
+		return dataModified;
+	}
+
+	/**
+	 * @return the hash of the data after it was processed the last time by a book processor, 0 if it wasn't processed
+	 */
+	public long getProcessedDataHash()
+	{
+		return processedDataHash;
+	}
+
+	public void setProcessedDataHash(long processedDataHash)
+	{
+		this.processedDataHash = processedDataHash;
+	}
+
     public T asNativeFormat() {
         throw new UnsupportedOperationException();
     }
@@ -188,9 +343,14 @@ public class Resource<T> implements ToStringConvertible, Cloneable, Serializable
 	/**
 	 * Tells this resource to release its cached data.
 	 * 
-	 * If this resource was not lazy-loaded, this is a no-op.
+	 * If this resource was not lazy-loaded or its data was modified, this is a no-op.
 	 */
-	public void close() {
+	public synchronized void close() {
+		if (dataSource != null && !dataModified && data != null) {
+			logger.debug("releasing data of resource " + getHref());
+			data = null;
+			decodedText = null;
+		}
 	}
 
 	/**
@@ -201,7 +361,158 @@ public class Resource<T> implements ToStringConvertible, Cloneable, Serializable
 	 */
 	public void setData(byte[] data)
 	{
-		this.data = data;
+		this.data = share(data);
+		this.dataModified = true;
+		this.decodedText = null;
+		long oldVersion = dataVersion;
+		this.dataVersion = dataVersions.incrementAndGet();
+		fireDataChanged(oldVersion);
+	}
+
+	/**
+	 * The version of the data, changed by {@link #setData(byte[])} and {@link #setInputEncoding(String)}. Releasing
+	 * and reading the data again from its source keeps the version. Caches of data derived from the data, like parsed
+	 * documents, are valid as long as the version is the same.
+	 *
+	 * @return the version of the data, unique over all resources
+	 */
+	public long getDataVersion()
+	{
+		return dataVersion;
+	}
+
+	/**
+	 * The content hash computed for a data version.
+	 */
+	private static class ContentHash
+	{
+		private final long dataVersion;
+		private final long hash;
+
+		private ContentHash(long dataVersion, long hash)
+		{
+			this.dataVersion = dataVersion;
+			this.hash = hash;
+		}
+	}
+
+	/**
+	 * A fast, non cryptographic 64 bit hash of the data, computed on the first call per {@link #getDataVersion() data
+	 * version}. Data, that isn't loaded, is hashed from its source without loading it.
+	 *
+	 * @return the hash of the data, 0 if the resource has no data
+	 */
+	public long getContentHash()
+	{
+		long version = dataVersion;
+		ContentHash cached = contentHash;
+		if (cached != null && cached.dataVersion == version)
+		{
+			return cached.hash;
+		}
+		long hash;
+		byte[] loadedData = data;
+		if (loadedData != null)
+		{
+			hash = Hashing.farmHashFingerprint64().hashBytes(loadedData).asLong();
+		}
+		else if (dataSource != null)
+		{
+			try (HashingInputStream in = new HashingInputStream(Hashing.farmHashFingerprint64(), getInputStream()))
+			{
+				ByteStreams.exhaust(in);
+				hash = in.hash().asLong();
+			}
+			catch (IOException e)
+			{
+				throw new ResourceDataException(e);
+			}
+		}
+		else
+		{
+			return 0;
+		}
+		contentHash = new ContentHash(version, hash);
+		return hash;
+	}
+
+	/**
+	 * Adds a listener informed with a {@link ResourceChangeEvent.Type#DATA_CHANGED} event, when the data or the
+	 * input encoding is changed. The listener is called on the thread changing the resource.
+	 */
+	public void addChangeListener(ResourceChangeListener listener)
+	{
+		changeListeners.add(listener);
+	}
+
+	public void removeChangeListener(ResourceChangeListener listener)
+	{
+		changeListeners.remove(listener);
+	}
+
+	private void fireDataChanged(long oldVersion)
+	{
+		if (!changeListeners.isEmpty())
+		{
+			ResourceChangeEvent event = ResourceChangeEvent.dataChanged(this, oldVersion);
+			for (ResourceChangeListener listener : changeListeners)
+			{
+				listener.onResourceChanged(event);
+			}
+		}
+	}
+
+	/**
+	 * Binary data is shared through the {@link BlobStore} with all resources having the same content.
+	 */
+	private byte[] share(byte[] data)
+	{
+		MediaType type = getMediaType();
+		if (data != null && type != null && (type.isBitmapImage() || type.isFont() || type.isAudio()))
+		{
+			return BlobStore.getInstance().intern(data);
+		}
+		return data;
+	}
+
+	/**
+	 * The data decoded with the input encoding, cached for the data it was decoded from.
+	 */
+	private static class DecodedText
+	{
+		private final byte[] data;
+		private final String encoding;
+		private final String text;
+
+		private DecodedText(byte[] data, String encoding, String text)
+		{
+			this.data = data;
+			this.encoding = encoding;
+			this.text = text;
+		}
+	}
+
+	/**
+	 * Returns the data decoded with the input encoding. The text is cached until the data or the encoding is changed
+	 * or the data is released, so searching and similar repeated reads don't decode the data again each time. The
+	 * cache is softly referenced and can be collected if memory gets low.
+	 *
+	 * @return the data as text
+	 */
+	public String getDataAsString() throws UnsupportedEncodingException
+	{
+		byte[] currentData = getData();
+		String encoding = getInputEncoding();
+		SoftReference<DecodedText> reference = decodedText;
+		DecodedText decoded = reference != null ? reference.get() : null;
+		//the array is replaced by setData, so the identity tells if the text is up to date
+		if (decoded != null && decoded.data == currentData && decoded.encoding.equals(encoding))
+		{
+			return decoded.text;
+		}
+		String text = new String(currentData, encoding);
+		decodedText = new SoftReference<>(new DecodedText(currentData, encoding, text));
+		return text;
 	}
 
 	/**
@@ -210,6 +521,9 @@ public class Resource<T> implements ToStringConvertible, Cloneable, Serializable
 	 * @return the size.
 	 */
 	public long getSize() {
+		if (data == null && dataSource != null) {
+			return dataSource.getSize();
+		}
 		return data.length;
 	}
 	
@@ -228,7 +542,11 @@ public class Resource<T> implements ToStringConvertible, Cloneable, Serializable
 	 * @param id
 	 */
 	public void setId(String id) {
-		this.id = id;
+		this.id.set(id);
+	}
+
+	public StringProperty idProperty() {
+		return id;
 	}
 	
 	/**
@@ -238,7 +556,7 @@ public class Resource<T> implements ToStringConvertible, Cloneable, Serializable
 	 * @return The resources Id.
 	 */
 	public String getId() {
-		return id;
+		return id.get();
 	}
 
     /**
@@ -331,6 +649,10 @@ public class Resource<T> implements ToStringConvertible, Cloneable, Serializable
 	 */
 	public void setInputEncoding(String encoding) {
 		this.inputEncoding = encoding;
+		this.decodedText = null;
+		long oldVersion = dataVersion;
+		this.dataVersion = dataVersions.incrementAndGet();
+		fireDataChanged(oldVersion);
 	}
 	
 	/**
@@ -342,7 +664,7 @@ public class Resource<T> implements ToStringConvertible, Cloneable, Serializable
 	 * @throws java.io.IOException if readers throws an exception
 	 */
 	public Reader asReader() throws IOException {
-		return new XmlStreamReader(new ByteArrayInputStream(getData()), getInputEncoding());
+		return new XmlStreamReader(getInputStream(), getInputEncoding());
 	}
 	
 	/**
@@ -465,11 +787,26 @@ public class Resource<T> implements ToStringConvertible, Cloneable, Serializable
         setHref(getHref().replace(fileName, string));
     }
 
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		//the initializers of transient fields are not run by deserialization
+		dataVersion = dataVersions.incrementAndGet();
+		changeListeners = new CopyOnWriteArrayList<>();
+	}
+
 	public Object clone() {
 		Resource<?> resource = null;
 		try {
 			resource = (Resource<?>) super.clone();
-			resource.setData(ObjectUtils.clone(getData()));
+			resource.changeListeners = new CopyOnWriteArrayList<>();
+			//the data array or the data source is shared, setData replaces the array instead of changing it
+			if (dataSource instanceof FileDataSource)
+			{
+				//the book directory keeps track of the data loaded per source
+				FileDataSource fileDataSource = (FileDataSource) dataSource;
+				resource.dataSource = new FileDataSource(fileDataSource.getDirectory(), fileDataSource.getFile());
+			}
+			resource.id = new SimpleStringProperty(resource, "id", id.getValue());
 			resource.href = new SimpleStringProperty(href.getValue());
 			resource.mediaType = new SimpleObjectProperty<>(mediaType.getValue());
 		}
@@ -0,0 +1,91 @@
+package de.machmireinebook.epubeditor.epublib.resource;
+
+/**
+ * A change of the resources of a book: a resource was added, removed, renamed or its data was changed. Caches and
+ * views derived from the resources can update the affected resource instead of rescanning the whole book.
+ */
+public class ResourceChangeEvent
+{
+    public enum Type
+    {
+        ADDED,
+        REMOVED,
+        RENAMED,
+        DATA_CHANGED
+    }
+
+    private final Type type;
+    private final Resource<?> resource;
+    private final String oldHref;
+    private final long oldVersion;
+    private final long newVersion;
+
+    private ResourceChangeEvent(Type type, Resource<?> resource, String oldHref, long oldVersion, long newVersion)
+    {
+        this.type = type;
+        this.resource = resource;
+        this.oldHref = oldHref;
+        this.oldVersion = oldVersion;
+        this.newVersion = newVersion;
+    }
+
+    public static ResourceChangeEvent added(Resource<?> resource)
+    {
+        return new ResourceChangeEvent(Type.ADDED, resource, null, resource.getDataVersion(), resource.getDataVersion());
+    }
+
+    public static ResourceChangeEvent removed(Resource<?> resource)
+    {
+        return new ResourceChangeEvent(Type.REMOVED, resource, resource.getHref(), resource.getDataVersion(),
+                resource.getDataVersion());
+    }
+
+    public static ResourceChangeEvent renamed(Resource<?> resource, String oldHref)
+    {
+        return new ResourceChangeEvent(Type.RENAMED, resource, oldHref, resource.getDataVersion(),
+                resource.getDataVersion());
+    }
+
+    public static ResourceChangeEvent dataChanged(Resource<?> resource, long oldVersion)
+    {
+        return new ResourceChangeEvent(Type.DATA_CHANGED, resource, null, oldVersion, resource.getDataVersion());
+    }
+
+    public Type getType()
+    {
+        return type;
+    }
+
+    public Resource<?> getResource()
+    {
+        return resource;
+    }
+
+    /**
+     * @return the href before the resource was renamed or removed, null for the other types
+     */
+    public String getOldHref()
+    {
+        return oldHref;
+    }
+
+    /**
+     * @return the data version before the change, the same as the new version if the data wasn't changed
+     */
+    public long getOldVersion()
+    {
+        return oldVersion;
+    }
+
+    public long getNewVersion()
+    {
+        return newVersion;
+    }
+
+    @Override
+    public String toString()
+    {
+        return type + " " + resource.getHref() + (oldHref != null ? " (was " + oldHref + ")" : "")
+                + (oldVersion != newVersion ? " version " + oldVersion + " -> " + newVersion : "");
+    }
+}
@@ -0,0 +1,9 @@
+package de.machmireinebook.epubeditor.epublib.resource;
+
+/**
+ * Gets informed about added, removed, renamed and changed resources, see {@link ResourceChangeEvent}.
+ */
+public interface ResourceChangeListener
+{
+    void onResourceChanged(ResourceChangeEvent event);
+}
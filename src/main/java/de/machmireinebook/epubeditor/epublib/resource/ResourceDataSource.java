@@ -0,0 +1,45 @@
+package de.machmireinebook.epubeditor.epublib.resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Source from which the data of a resource can be read on demand, e.g. an entry of the epub file the book was read from.
+ * Makes it possible to create a resource without holding its content in memory.
+ */
+public interface ResourceDataSource
+{
+    /**
+     * Opens a new stream on the data. The caller is responsible for closing it.
+     *
+     * @return a new stream on the data
+     * @throws IOException if the source is not readable anymore
+     */
+    InputStream getInputStream() throws IOException;
+
+    /**
+     * The size of the data in bytes.
+     *
+     * @return the size, -1 if unknown
+     */
+    long getSize();
+
+    /**
+     * Whether the {@link #getInputStream() stream} reads the data in parts directly from the file, without copying it
+     * into the heap as a whole, e.g. for stored entries of the epub file.
+     */
+    default boolean isStreamable()
+    {
+        return false;
+    }
+
+    /**
+     * Called after the resource has read its data from this source into memory, e.g. to limit the memory used by
+     * the loaded resources.
+     *
+     * @param resource the resource, that has loaded its data
+     */
+    default void dataLoaded(Resource<?> resource)
+    {
+    }
+}
@@ -15,4 +15,15 @@ public interface ResourceFactory<T extends Resource<S>, S>
     T createResource(String id, byte[] data, String href);
     T createResource(String id, byte[] data, String href, MediaType mediaType);
     T createResource(byte[] data, String href, MediaType mediaType);
+
+    /**
+     * Creates a resource whose data is read from the data source on first access and can be released again by
+     * {@link Resource#close()}.
+     */
+    default T createLazyResource(String id, String href, MediaType mediaType, ResourceDataSource dataSource)
+    {
+        T resource = createResource(id, null, href, mediaType);
+        resource.setDataSource(dataSource);
+        return resource;
+    }
 }
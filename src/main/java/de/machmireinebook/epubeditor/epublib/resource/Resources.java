@@ -1,17 +1,23 @@
 package de.machmireinebook.epubeditor.epublib.resource;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+import javafx.beans.property.ReadOnlyProperty;
+import javafx.beans.value.ChangeListener;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 
-import org.apache.commons.collections4.OrderedMap;
-import org.apache.commons.collections4.map.ListOrderedMap;
 import org.apache.commons.lang3.StringUtils;
 
 import de.machmireinebook.epubeditor.epublib.Constants;
@@ -20,6 +26,10 @@ import de.machmireinebook.epubeditor.epublib.domain.MediaType;
 /**
  * All the resources that make up the book.
  * XHTML files, images and epub xml documents must be here.
+ *
+ * The resources are indexed by href and id, the index of the ids follows changes of the ids of contained resources.
+ * The category of each resource (css, font, image or misc) is kept in a map, so the observable lists of the categories
+ * for the ui are only touched if the category of a resource is changed.
  * 
  * @author paul
  *
@@ -34,37 +44,200 @@ public class Resources implements Serializable {
 	private static final String ITEM_PREFIX = "item_";
 	private int lastId = 1;
 
-	private OrderedMap<String, Resource<?>> resources = new ListOrderedMap<>();
+	private Map<String, Resource<?>> resources = new LinkedHashMap<>();
+	private Map<String, List<Resource<?>>> resourcesById = new HashMap<>();
+	private Map<Resource<?>, ObservableList<Resource<?>>> categories = new IdentityHashMap<>();
 	private ObservableList<Resource<?>> cssResources = FXCollections.observableList(new ArrayList<>());
     private ObservableList<Resource<?>> fontResources = FXCollections.observableList(new ArrayList<>());
     private ObservableList<Resource<?>> imageResources = FXCollections.observableList(new ArrayList<>());
 	private ObservableList<Resource<?>> miscResources = FXCollections.observableList(new ArrayList<>());
+	private transient ChangeListener<String> idChangeListener;
+	private transient List<ResourceChangeListener> changeListeners;
+	private transient ResourceChangeListener dataChangeListener;
+
+	public Resources() {
+		initListeners();
+	}
+
+	/**
+	 * The listeners are not serialized, they are created again and added to the deserialized resources.
+	 */
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		initListeners();
+		for (Resource<?> resource : resources.values()) {
+			resource.idProperty().addListener(idChangeListener);
+			resource.addChangeListener(dataChangeListener);
+		}
+	}
+
+	private void initListeners() {
+		idChangeListener = (observable, oldValue, newValue) -> {
+			Resource<?> resource = (Resource<?>) ((ReadOnlyProperty<?>) observable).getBean();
+			removeFromIdIndex(oldValue, resource);
+			addToIdIndex(resource);
+		};
+		changeListeners = new CopyOnWriteArrayList<>();
+		dataChangeListener = this::fireResourceChanged;
+	}
 
 	/**
 	 * Adds a resource to the resources.
 	 * 
-	 * Fixes the resources id and href if necessary.
+	 * Fixes the resources id and href if necessary. A resource already contained under another href was renamed, it's
+	 * moved to its new href as by {@link #rename(Resource, String)}.
 	 * 
 	 * @param resource the resource
 	 * @return the newly added resource
 	 */
 	public Resource put(Resource resource) {
+		String containedHref = getContainedHref(resource);
+		if (containedHref != null && !containedHref.equals(resource.getHref())) {
+			rename(resource, containedHref);
+			updateCategory(resource);
+			return resource;
+		}
 		fixResourceHref(resource);
 		fixResourceId(resource);
-		this.resources.put(resource.getHref(), resource);
-		if (resource.getMediaType() == MediaType.CSS && !cssResources.contains(resource)) {
-			cssResources.add(resource);
-		} else if (resource.getMediaType().isImage() && !imageResources.contains(resource)) {
-			imageResources.add(resource);
-		} else if (resource.getMediaType().isFont() && !fontResources.contains(resource)) {
-			fontResources.add(resource);
-		} else if (resource.getMediaType() != MediaType.XHTML && resource.getMediaType() != MediaType.OPF
-				&& resource.getMediaType() != MediaType.NCX) {
-		 	miscResources.add(resource);
+		Resource<?> replacedResource = this.resources.put(resource.getHref(), resource);
+		if (replacedResource != null && replacedResource != resource) {
+			unindex(replacedResource);
+			fireResourceChanged(ResourceChangeEvent.removed(replacedResource));
+		}
+		if (replacedResource != resource) {
+			resource.idProperty().addListener(idChangeListener);
+			resource.addChangeListener(dataChangeListener);
+		}
+		addToIdIndex(resource);
+		updateCategory(resource);
+		if (replacedResource != resource) {
+			fireResourceChanged(ResourceChangeEvent.added(resource));
 		}
 		return resource;
 	}
 
+	/**
+	 * Looks for the resource itself, not for an equal one. The id index tells cheaply whether the resource is
+	 * contained at all, each contained resource got an id when it was put.
+	 *
+	 * @return the href the resource is contained under, null if the resource is not contained
+	 */
+	private String getContainedHref(Resource<?> resource) {
+		String id = resource.getId();
+		List<Resource<?>> indexedResources = StringUtils.isNotBlank(id) ? resourcesById.get(id) : null;
+		if (indexedResources == null || indexedResources.stream().noneMatch(indexedResource -> indexedResource == resource)) {
+			return null;
+		}
+		for (Map.Entry<String, Resource<?>> entry : resources.entrySet()) {
+			if (entry.getValue() == resource) {
+				return entry.getKey();
+			}
+		}
+		return null;
+	}
+
+	private void updateCategory(Resource<?> resource) {
+		ObservableList<Resource<?>> category = getCategory(resource.getMediaType());
+		ObservableList<Resource<?>> currentCategory = categories.get(resource);
+		if (category != currentCategory) {
+			if (currentCategory != null) {
+				currentCategory.remove(resource);
+				categories.remove(resource);
+			}
+			if (category != null) {
+				category.add(resource);
+				categories.put(resource, category);
+			}
+		}
+	}
+
+	/**
+	 * Updates the resources after the href of the resource was changed.
+	 *
+	 * @param resource the renamed resource
+	 * @param oldHref the href before the resource was renamed
+	 */
+	public void rename(Resource<?> resource, String oldHref) {
+		resources.remove(oldHref, resource);
+		Resource<?> replacedResource = resources.put(resource.getHref(), resource);
+		if (replacedResource != null && replacedResource != resource) {
+			unindex(replacedResource);
+			fireResourceChanged(ResourceChangeEvent.removed(replacedResource));
+		}
+		fireResourceChanged(ResourceChangeEvent.renamed(resource, oldHref));
+	}
+
+	/**
+	 * Adds a listener informed about added, removed, renamed and changed resources. The listener is called on the
+	 * thread changing the resources.
+	 */
+	public void addChangeListener(ResourceChangeListener listener) {
+		changeListeners.add(listener);
+	}
+
+	public void removeChangeListener(ResourceChangeListener listener) {
+		changeListeners.remove(listener);
+	}
+
+	private void fireResourceChanged(ResourceChangeEvent event) {
+		for (ResourceChangeListener listener : changeListeners) {
+			listener.onResourceChanged(event);
+		}
+	}
+
+	/**
+	 * @return the list of the category of resources with the media type, null for xhtml, opf and ncx
+	 */
+	private ObservableList<Resource<?>> getCategory(MediaType mediaType) {
+		if (mediaType == MediaType.CSS) {
+			return cssResources;
+		} else if (mediaType.isImage()) {
+			return imageResources;
+		} else if (mediaType.isFont()) {
+			return fontResources;
+		} else if (mediaType != MediaType.XHTML && mediaType != MediaType.OPF && mediaType != MediaType.NCX) {
+			return miscResources;
+		}
+		return null;
+	}
+
+	/**
+	 * An id can be changed to the id of another resource, so all resources with the id are indexed, the first one
+	 * indexed is found by {@link #getById(String)}.
+	 */
+	private void addToIdIndex(Resource<?> resource) {
+		String id = resource.getId();
+		if (StringUtils.isNotBlank(id)) {
+			List<Resource<?>> indexedResources = resourcesById.computeIfAbsent(id, key -> new ArrayList<>(1));
+			if (indexedResources.stream().noneMatch(indexedResource -> indexedResource == resource)) {
+				indexedResources.add(resource);
+			}
+		}
+	}
+
+	private void removeFromIdIndex(String id, Resource<?> resource) {
+		List<Resource<?>> indexedResources = id != null ? resourcesById.get(id) : null;
+		if (indexedResources != null) {
+			indexedResources.removeIf(indexedResource -> indexedResource == resource);
+			if (indexedResources.isEmpty()) {
+				resourcesById.remove(id);
+			}
+		}
+	}
+
+	/**
+	 * Removes the resource from the id index and its category.
+	 */
+	private void unindex(Resource<?> resource) {
+		resource.idProperty().removeListener(idChangeListener);
+		resource.removeChangeListener(dataChangeListener);
+		removeFromIdIndex(resource.getId(), resource);
+		ObservableList<Resource<?>> category = categories.remove(resource);
+		if (category != null) {
+			category.remove(resource);
+		}
+	}
+
 	/**
 	 * Checks the id of the given resource and changes to a unique identifier if it isn't one already.
 	 *
@@ -148,15 +321,7 @@ public class Resources implements Serializable {
 	 * @return Whether the map of resources already contains a resource with the given id.
 	 */
 	public boolean containsId(String id) {
-		if (StringUtils.isBlank(id)) {
-			return false;
-		}
-		for (Resource resource: resources.values()) {
-			if (id.equals(resource.getId())) {
-				return true;
-			}
-		}
-		return false;
+		return getById(id) != null;
 	}
 
 	/**
@@ -169,12 +334,8 @@ public class Resources implements Serializable {
 		if (StringUtils.isBlank(id)) {
 			return null;
 		}
-		for (Resource resource: resources.values()) {
-			if (id.equals(resource.getId())) {
-				return resource;
-			}
-		}
-		return null;
+		List<Resource<?>> indexedResources = resourcesById.get(id);
+		return indexedResources != null ? indexedResources.get(0) : null;
 	}
 	
 	/**
@@ -186,20 +347,21 @@ public class Resources implements Serializable {
 	public Resource remove(String href) {
 		Resource resource = resources.remove(href);
 		if (resource != null) {
-			cssResources.remove(resource);
-			fontResources.remove(resource);
-			imageResources.remove(resource);
-			miscResources.remove(resource);
+			unindex(resource);
+			fireResourceChanged(ResourceChangeEvent.removed(resource));
 		}
 		return resource;
 	}
 
     public Resource remove(Resource resource) {
-		resources.remove(resource.getHref());
-		cssResources.remove(resource);
-		fontResources.remove(resource);
-		imageResources.remove(resource);
-		miscResources.remove(resource);
+		Resource<?> removedResource = resources.remove(resource.getHref());
+		if (removedResource != null && removedResource != resource) {
+			unindex(removedResource);
+		}
+		unindex(resource);
+		if (removedResource != null) {
+			fireResourceChanged(ResourceChangeEvent.removed(removedResource));
+		}
 		return resource;
     }
 
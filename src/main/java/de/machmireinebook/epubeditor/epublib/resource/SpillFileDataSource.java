@@ -0,0 +1,117 @@
+package de.machmireinebook.epubeditor.epublib.resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.Cleaner;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Holds the data of a resource in a temporary spill file instead of the heap, see {@link SpillingResourceFactory}.
+ * The file is deleted when the data source isn't used anymore, remaining files are deleted on exit.
+ */
+public class SpillFileDataSource implements ResourceDataSource
+{
+    private static final Logger logger = Logger.getLogger(SpillFileDataSource.class);
+
+    private static final Cleaner cleaner = Cleaner.create();
+    private static Path spillDirectory;
+
+    private final Path file;
+    private final long size;
+
+    /**
+     * Deletes the spill file, must not reference the data source, otherwise it would never become unreachable.
+     */
+    private static class DeleteFile implements Runnable
+    {
+        private final Path file;
+
+        private DeleteFile(Path file)
+        {
+            this.file = file;
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                Files.deleteIfExists(file);
+            }
+            catch (IOException e)
+            {
+                logger.warn("can't delete spill file " + file, e);
+            }
+        }
+    }
+
+    private SpillFileDataSource(Path file, long size)
+    {
+        this.file = file;
+        this.size = size;
+        cleaner.register(this, new DeleteFile(file));
+    }
+
+    /**
+     * Writes the data into a new spill file.
+     */
+    public static SpillFileDataSource create(byte[] data) throws IOException
+    {
+        Path file = Files.createTempFile(getSpillDirectory(), "resource", ".spill");
+        try
+        {
+            Files.write(file, data);
+        }
+        catch (IOException e)
+        {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+        return new SpillFileDataSource(file, data.length);
+    }
+
+    private static synchronized Path getSpillDirectory() throws IOException
+    {
+        if (spillDirectory == null)
+        {
+            Path directory = Files.createTempDirectory("epubfx-spill");
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> deleteDirectory(directory), "delete-spill-files"));
+            spillDirectory = directory;
+        }
+        return spillDirectory;
+    }
+
+    private static void deleteDirectory(Path directory)
+    {
+        try (Stream<Path> files = Files.list(directory))
+        {
+            files.forEach(file -> new DeleteFile(file).run());
+            Files.deleteIfExists(directory);
+        }
+        catch (IOException e)
+        {
+            logger.warn("can't delete spill directory " + directory, e);
+        }
+    }
+
+    Path getFile()
+    {
+        return file;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException
+    {
+        return Files.newInputStream(file);
+    }
+
+    @Override
+    public long getSize()
+    {
+        return size;
+    }
+}
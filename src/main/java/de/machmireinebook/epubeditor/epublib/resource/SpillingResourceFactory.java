@@ -0,0 +1,102 @@
+package de.machmireinebook.epubeditor.epublib.resource;
+
+import java.io.IOException;
+import java.util.function.Function;
+
+import org.apache.log4j.Logger;
+
+import de.machmireinebook.epubeditor.epublib.domain.MediaType;
+
+/**
+ * Creates the resources with the factory it wraps, but keeps the data of resources above a size threshold in a
+ * {@link SpillFileDataSource spill file} instead of the heap. These resources are lazy loaded: their stream reads
+ * from the spill file, the data is only read into the heap if it's requested and can be released again with
+ * {@link Resource#close()}. Used for the media types of large binary resources like images, fonts and audio.
+ */
+public class SpillingResourceFactory<T extends Resource<S>, S> implements ResourceFactory<T, S>
+{
+    private static final Logger logger = Logger.getLogger(SpillingResourceFactory.class);
+
+    public static final long DEFAULT_THRESHOLD = 1024 * 1024;
+
+    private static volatile long threshold = DEFAULT_THRESHOLD;
+
+    private final ResourceFactory<T, S> factory;
+
+    public SpillingResourceFactory(ResourceFactory<T, S> factory)
+    {
+        this.factory = factory;
+    }
+
+    public static long getThreshold()
+    {
+        return threshold;
+    }
+
+    /**
+     * Sets the size in bytes from which on the data of a new resource is spilled into a file,
+     * {@link Long#MAX_VALUE} keeps all data in the heap.
+     */
+    public static void setThreshold(long threshold)
+    {
+        SpillingResourceFactory.threshold = threshold;
+    }
+
+    @Override
+    public T createResource()
+    {
+        return factory.createResource();
+    }
+
+    @Override
+    public T createResource(String href)
+    {
+        return factory.createResource(href);
+    }
+
+    @Override
+    public T createResource(byte[] data, String href)
+    {
+        return create(data, content -> factory.createResource(content, href));
+    }
+
+    @Override
+    public T createResource(String id, byte[] data, String href)
+    {
+        return create(data, content -> factory.createResource(id, content, href));
+    }
+
+    @Override
+    public T createResource(String id, byte[] data, String href, MediaType mediaType)
+    {
+        return create(data, content -> factory.createResource(id, content, href, mediaType));
+    }
+
+    @Override
+    public T createResource(byte[] data, String href, MediaType mediaType)
+    {
+        return create(data, content -> factory.createResource(content, href, mediaType));
+    }
+
+    /**
+     * @param creator creates the resource with the data, with null for a lazy resource
+     */
+    private T create(byte[] data, Function<byte[], T> creator)
+    {
+        if (data != null && data.length >= threshold)
+        {
+            try
+            {
+                SpillFileDataSource dataSource = SpillFileDataSource.create(data);
+                T resource = creator.apply(null);
+                resource.setDataSource(dataSource);
+                return resource;
+            }
+            catch (IOException e)
+            {
+                logger.warn("can't spill data into file, keeping it in memory", e);
+            }
+        }
+        return creator.apply(data);
+    }
+}
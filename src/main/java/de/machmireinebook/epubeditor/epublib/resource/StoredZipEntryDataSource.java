@@ -0,0 +1,36 @@
+package de.machmireinebook.epubeditor.epublib.resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * Reads the data of a stored (not compressed) entry of the epub file by positional reads from the file, without
+ * inflating it through the zip file. The data is never copied into the heap as a whole as long as only the
+ * {@link #getInputStream() stream} is used. Falls back to reading the entry from the zip file, if the entry is
+ * compressed in the file.
+ */
+public class StoredZipEntryDataSource extends ZipEntryDataSource
+{
+    public StoredZipEntryDataSource(EpubSourceArchive archive, ZipEntry zipEntry)
+    {
+        super(archive, zipEntry);
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException
+    {
+        InputStream in = getArchive().getStoredEntryInputStream(getEntryName());
+        if (in == null)
+        {
+            return super.getInputStream();
+        }
+        return in;
+    }
+
+    @Override
+    public boolean isStreamable()
+    {
+        return true;
+    }
+}
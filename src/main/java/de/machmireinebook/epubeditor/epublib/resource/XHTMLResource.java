@@ -23,6 +23,12 @@ public class XHTMLResource extends XMLResource
 {
     private static final Logger logger = Logger.getLogger(XHTMLResource.class);
 
+    /**
+     * Maximum summed size of the xhtml files, whose parsed documents are cached
+     */
+    private static final long MAX_CACHED_DOCUMENTS_SIZE = 8L * 1024 * 1024;
+    private static final DocumentCache documentCache = new DocumentCache(MAX_CACHED_DOCUMENTS_SIZE);
+
     private byte[] webViewPreparedData;
     
     public XHTMLResource(String href)
@@ -49,18 +55,38 @@ public class XHTMLResource extends XMLResource
         super(data, href, mediaType);
     }
 
+    /**
+     * Returns the parsed document. The document is a copy of the cached document parsed from the current data, the
+     * caller can change it without affecting other callers.
+     */
     @Override
     public Document asNativeFormat()
     {
-        try
-        {
-            return XHTMLUtils.parseXHTMLDocument(getData(), getInputEncoding());
-        }
-        catch (IOException | JDOMException e)
+        return getCachedDocument().clone();
+    }
+
+    /**
+     * @return the document parsed from the current data, shared with all callers, must not be changed
+     */
+    private Document getCachedDocument()
+    {
+        long dataVersion = getDataVersion();
+        Document document = documentCache.get(this, dataVersion);
+        if (document == null)
         {
-            logger.error(e);
-            throw new ResourceDataException(e);
+            try
+            {
+                byte[] data = getData();
+                document = XHTMLUtils.parseXHTMLDocument(data, getInputEncoding());
+                documentCache.put(this, dataVersion, document, data.length);
+            }
+            catch (IOException | JDOMException e)
+            {
+                logger.error(e);
+                throw new ResourceDataException(e);
+            }
         }
+        return document;
     }
 
     public boolean isValidXML()
@@ -68,7 +94,7 @@ public class XHTMLResource extends XMLResource
         boolean result = false;
         try
         {
-            Document doc = asNativeFormat();
+            Document doc = getCachedDocument();
             if (doc != null)
             {
                 result = true;
@@ -81,7 +81,7 @@ public class XMLResource extends Resource<Document> implements TextResource
     @Override
     public String asString() {
         try {
-            return new String(getData(), getInputEncoding());
+            return getDataAsString();
         }
         catch (UnsupportedEncodingException e) {
             //should not happens
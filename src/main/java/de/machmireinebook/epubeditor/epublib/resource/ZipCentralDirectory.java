@@ -0,0 +1,249 @@
+package de.machmireinebook.epubeditor.epublib.resource;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Reads the positions of the entries of a zip file from its central directory. {@link java.util.zip.ZipFile} doesn't
+ * expose them, but they are needed to read the content of stored (not compressed) entries directly from the file and
+ * to copy the compressed content of entries unchanged into another zip file.
+ *
+ * The file is only read by positional reads into heap buffers and never mapped into memory, a mapping would prevent
+ * replacing the file on Windows until the mapping is garbage collected.
+ */
+public class ZipCentralDirectory
+{
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06064b50;
+    private static final int CENTRAL_FILE_HEADER_SIGNATURE = 0x02014b50;
+    private static final int LOCAL_FILE_HEADER_SIGNATURE = 0x04034b50;
+
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIZE = 20;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIZE = 56;
+    private static final int CENTRAL_FILE_HEADER_SIZE = 46;
+    private static final int LOCAL_FILE_HEADER_SIZE = 30;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+    private static final int ZIP64_EXTRA_FIELD_ID = 0x0001;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+    /**
+     * An entry of the central directory.
+     */
+    public static class Entry
+    {
+        private final String name;
+        private final int method;
+        private final long crc;
+        private final long compressedSize;
+        private final long size;
+        private final long localHeaderOffset;
+
+        Entry(String name, int method, long crc, long compressedSize, long size, long localHeaderOffset)
+        {
+            this.name = name;
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        /**
+         * @return the compression method, {@link ZipEntry#STORED} or {@link ZipEntry#DEFLATED}
+         */
+        public int getMethod()
+        {
+            return method;
+        }
+
+        public long getCrc()
+        {
+            return crc;
+        }
+
+        public long getCompressedSize()
+        {
+            return compressedSize;
+        }
+
+        public long getSize()
+        {
+            return size;
+        }
+
+        public long getLocalHeaderOffset()
+        {
+            return localHeaderOffset;
+        }
+    }
+
+    private ZipCentralDirectory()
+    {
+    }
+
+    /**
+     * Reads all entries of the central directory.
+     *
+     * @return the entries by name
+     * @throws ZipException if the file is no valid zip file
+     */
+    static Map<String, Entry> readEntries(FileChannel channel) throws IOException
+    {
+        long fileSize = channel.size();
+        int tailSize = (int) Math.min(fileSize, END_OF_CENTRAL_DIRECTORY_SIZE + MAX_COMMENT_SIZE);
+        ByteBuffer tail = read(channel, fileSize - tailSize, tailSize);
+        int endPosition = -1;
+        for (int position = tailSize - END_OF_CENTRAL_DIRECTORY_SIZE; position >= 0; position--)
+        {
+            if (tail.getInt(position) == END_OF_CENTRAL_DIRECTORY_SIGNATURE)
+            {
+                endPosition = position;
+                break;
+            }
+        }
+        if (endPosition < 0)
+        {
+            throw new ZipException("end of central directory not found");
+        }
+
+        long centralDirectorySize = Integer.toUnsignedLong(tail.getInt(endPosition + 12));
+        long centralDirectoryOffset = Integer.toUnsignedLong(tail.getInt(endPosition + 16));
+        if (centralDirectoryOffset == ZIP64_MAGIC || centralDirectorySize == ZIP64_MAGIC)
+        {
+            long locatorOffset = fileSize - tailSize + endPosition - ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIZE;
+            ByteBuffer locator = read(channel, locatorOffset, ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIZE);
+            if (locator.getInt(0) != ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE)
+            {
+                throw new ZipException("zip64 end of central directory locator not found");
+            }
+            ByteBuffer zip64End = read(channel, locator.getLong(8), ZIP64_END_OF_CENTRAL_DIRECTORY_SIZE);
+            if (zip64End.getInt(0) != ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE)
+            {
+                throw new ZipException("zip64 end of central directory not found");
+            }
+            centralDirectorySize = zip64End.getLong(40);
+            centralDirectoryOffset = zip64End.getLong(48);
+        }
+        if (centralDirectorySize > Integer.MAX_VALUE || centralDirectoryOffset + centralDirectorySize > fileSize)
+        {
+            throw new ZipException("invalid central directory");
+        }
+
+        ByteBuffer centralDirectory = read(channel, centralDirectoryOffset, (int) centralDirectorySize);
+        Map<String, Entry> entries = new HashMap<>();
+        int position = 0;
+        while (position + CENTRAL_FILE_HEADER_SIZE <= centralDirectorySize
+                && centralDirectory.getInt(position) == CENTRAL_FILE_HEADER_SIGNATURE)
+        {
+            int method = Short.toUnsignedInt(centralDirectory.getShort(position + 10));
+            long crc = Integer.toUnsignedLong(centralDirectory.getInt(position + 16));
+            long compressedSize = Integer.toUnsignedLong(centralDirectory.getInt(position + 20));
+            long size = Integer.toUnsignedLong(centralDirectory.getInt(position + 24));
+            int nameLength = Short.toUnsignedInt(centralDirectory.getShort(position + 28));
+            int extraLength = Short.toUnsignedInt(centralDirectory.getShort(position + 30));
+            int commentLength = Short.toUnsignedInt(centralDirectory.getShort(position + 32));
+            long localHeaderOffset = Integer.toUnsignedLong(centralDirectory.getInt(position + 42));
+
+            byte[] nameBytes = new byte[nameLength];
+            centralDirectory.position(position + CENTRAL_FILE_HEADER_SIZE);
+            centralDirectory.get(nameBytes);
+            if (size == ZIP64_MAGIC || compressedSize == ZIP64_MAGIC || localHeaderOffset == ZIP64_MAGIC)
+            {
+                long[] zip64Values = readZip64ExtraField(centralDirectory, position + CENTRAL_FILE_HEADER_SIZE + nameLength,
+                        extraLength, size == ZIP64_MAGIC, compressedSize == ZIP64_MAGIC, localHeaderOffset == ZIP64_MAGIC);
+                size = zip64Values[0] >= 0 ? zip64Values[0] : size;
+                compressedSize = zip64Values[1] >= 0 ? zip64Values[1] : compressedSize;
+                localHeaderOffset = zip64Values[2] >= 0 ? zip64Values[2] : localHeaderOffset;
+            }
+            String name = new String(nameBytes, StandardCharsets.UTF_8);
+            entries.put(name, new Entry(name, method, crc, compressedSize, size, localHeaderOffset));
+            position += CENTRAL_FILE_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+        return entries;
+    }
+
+    /**
+     * Reads the local file header at the offset.
+     *
+     * @return the offset of the content of the entry
+     */
+    static long getDataOffset(FileChannel channel, long localHeaderOffset) throws IOException
+    {
+        ByteBuffer localHeader = read(channel, localHeaderOffset, LOCAL_FILE_HEADER_SIZE);
+        if (localHeader.getInt(0) != LOCAL_FILE_HEADER_SIGNATURE)
+        {
+            throw new ZipException("invalid local file header at " + localHeaderOffset);
+        }
+        int nameLength = Short.toUnsignedInt(localHeader.getShort(26));
+        int extraLength = Short.toUnsignedInt(localHeader.getShort(28));
+        return localHeaderOffset + LOCAL_FILE_HEADER_SIZE + nameLength + extraLength;
+    }
+
+    /**
+     * Reads the values of the zip64 extra field, they are only present for the values that don't fit into the
+     * central file header.
+     *
+     * @return size, compressed size and local header offset, -1 for values not present
+     */
+    private static long[] readZip64ExtraField(ByteBuffer centralDirectory, int extraStart, int extraLength,
+                                              boolean hasSize, boolean hasCompressedSize, boolean hasLocalHeaderOffset)
+            throws ZipException
+    {
+        int position = extraStart;
+        while (position + 4 <= extraStart + extraLength)
+        {
+            int id = Short.toUnsignedInt(centralDirectory.getShort(position));
+            int length = Short.toUnsignedInt(centralDirectory.getShort(position + 2));
+            if (id == ZIP64_EXTRA_FIELD_ID)
+            {
+                long[] values = {-1, -1, -1};
+                int fieldPosition = position + 4;
+                if (hasSize)
+                {
+                    values[0] = centralDirectory.getLong(fieldPosition);
+                    fieldPosition += 8;
+                }
+                if (hasCompressedSize)
+                {
+                    values[1] = centralDirectory.getLong(fieldPosition);
+                    fieldPosition += 8;
+                }
+                if (hasLocalHeaderOffset)
+                {
+                    values[2] = centralDirectory.getLong(fieldPosition);
+                }
+                return values;
+            }
+            position += 4 + length;
+        }
+        throw new ZipException("zip64 extra field not found");
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining())
+        {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+            {
+                throw new ZipException("unexpected end of zip file");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -0,0 +1,54 @@
+package de.machmireinebook.epubeditor.epublib.resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * Reads the data of a resource from an entry of the epub file the book was read from.
+ */
+public class ZipEntryDataSource implements ResourceDataSource
+{
+    private final EpubSourceArchive archive;
+    private final String entryName;
+    private final long size;
+    private final long crc;
+
+    public ZipEntryDataSource(EpubSourceArchive archive, ZipEntry zipEntry)
+    {
+        this.archive = archive;
+        this.entryName = zipEntry.getName();
+        this.size = zipEntry.getSize();
+        this.crc = zipEntry.getCrc();
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException
+    {
+        return archive.getInputStream(entryName);
+    }
+
+    @Override
+    public long getSize()
+    {
+        return size;
+    }
+
+    /**
+     * @return the CRC-32 of the data as stored in the zip file, -1 if unknown
+     */
+    public long getCrc()
+    {
+        return crc;
+    }
+
+    public EpubSourceArchive getArchive()
+    {
+        return archive;
+    }
+
+    public String getEntryName()
+    {
+        return entryName;
+    }
+}
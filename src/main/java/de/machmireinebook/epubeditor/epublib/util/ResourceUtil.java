@@ -70,23 +70,29 @@ public class ResourceUtil
 	 * @return a resource created out of the given zipEntry and zipInputStream.
 	 */
 	public static Resource createResource(ZipEntry zipEntry, ZipInputStream zipInputStream) throws IOException {
-        MediaType mediaType = MediaType.getByFileName(zipEntry.getName());
-		if (mediaType != null)
+		byte[] data = IOUtils.toByteArray(zipInputStream);
+        MediaType mediaType = MediaType.getByFileNameAndContent(zipEntry.getName(), data);
+		if (mediaType != MediaType.UNKNWON_MEDIATYPE)
 		{
-			return mediaType.getResourceFactory().createResource(IOUtils.toByteArray(zipInputStream), zipEntry.getName(), mediaType);
+			return mediaType.getResourceFactory().createResource(data, zipEntry.getName(), mediaType);
 		}
 		else
 		{
 			logger.info("reading resource " + zipEntry.getName() + " with unknown mediatype, using default resource factory");
-			return DefaultResourceFactory.getInstance().createResource(IOUtils.toByteArray(zipInputStream), zipEntry.getName());
+			return DefaultResourceFactory.getInstance().createResource(data, zipEntry.getName());
 		}
 
 	}
 
+    /**
+     * Creates a resource out of the given zipEntry and stream, the media type is detected by the name of the entry
+     * and the content.
+     */
     public static Resource createResource(ZipEntry zipEntry, InputStream zipInputStream) throws IOException
     {
-        MediaType mediaType = MediaType.getByFileName(zipEntry.getName());
-        return mediaType.getResourceFactory().createResource(IOUtils.toByteArray(zipInputStream), zipEntry.getName(), mediaType);
+        byte[] data = IOUtils.toByteArray(zipInputStream);
+        MediaType mediaType = MediaType.getByFileNameAndContent(zipEntry.getName(), data);
+        return mediaType.getResourceFactory().createResource(data, zipEntry.getName(), mediaType);
     }
 
 	/**
@@ -110,6 +110,7 @@ public class AddCoverController implements Initializable
                 MediaType.GIF,
                 MediaType.PNG,
                 MediaType.SVG,
+                MediaType.WEBP,
                 MediaType.JPG});
         for (Resource<?> resource : resources)
         {
@@ -2,11 +2,10 @@ package de.machmireinebook.epubeditor.gui;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.net.URL;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -22,6 +21,7 @@ import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.SimpleObjectProperty;
 import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
@@ -38,6 +38,8 @@ import javafx.scene.control.Label;
 import javafx.scene.control.ListView;
 import javafx.scene.control.MenuButton;
 import javafx.scene.control.MenuItem;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.control.SeparatorMenuItem;
 import javafx.scene.control.SplitPane;
 import javafx.scene.control.TabPane;
 import javafx.scene.control.TableView;
@@ -51,6 +53,7 @@ import javafx.scene.input.KeyCombination;
 import javafx.scene.layout.AnchorPane;
 import javafx.scene.layout.Pane;
 import javafx.scene.web.WebView;
+import javafx.stage.DirectoryChooser;
 import javafx.stage.FileChooser;
 import javafx.stage.Modality;
 import javafx.stage.Stage;
@@ -66,16 +69,25 @@ import de.machmireinebook.epubeditor.BeanFactory;
 import de.machmireinebook.epubeditor.EpubEditorConfiguration;
 import de.machmireinebook.epubeditor.editor.CodeEditor;
 import de.machmireinebook.epubeditor.editor.EditorTabManager;
+import de.machmireinebook.epubeditor.epublib.Constants;
 import de.machmireinebook.epubeditor.epublib.EpubVersion;
-import de.machmireinebook.epubeditor.epublib.NavNotFoundException;
-import de.machmireinebook.epubeditor.epublib.OpfNotReadableException;
+import de.machmireinebook.epubeditor.epublib.bookprocessor.HtmlBookProcessor;
+import de.machmireinebook.epubeditor.epublib.bookprocessor.HtmlCleanerBookProcessor;
+import de.machmireinebook.epubeditor.epublib.cache.BookIndex;
+import de.machmireinebook.epubeditor.epublib.cache.BookIndexCache;
 import de.machmireinebook.epubeditor.epublib.domain.Book;
 import de.machmireinebook.epubeditor.epublib.domain.MediaType;
 import de.machmireinebook.epubeditor.epublib.domain.TocEntry;
+import de.machmireinebook.epubeditor.epublib.epub2.BookSnapshot;
 import de.machmireinebook.epubeditor.epublib.epub2.EpubReader;
 import de.machmireinebook.epubeditor.epublib.epub2.EpubWriter;
+import de.machmireinebook.epubeditor.epublib.journal.AutosaveJournal;
+import de.machmireinebook.epubeditor.epublib.resource.BookDirectory;
+import de.machmireinebook.epubeditor.epublib.resource.EpubSourceArchive;
 import de.machmireinebook.epubeditor.epublib.resource.Resource;
+import de.machmireinebook.epubeditor.epublib.resource.ResourceDataSource;
 import de.machmireinebook.epubeditor.epublib.resource.XHTMLResource;
+import de.machmireinebook.epubeditor.epublib.resource.ZipEntryDataSource;
 import de.machmireinebook.epubeditor.epublib.toc.TocGenerator;
 import de.machmireinebook.epubeditor.javafx.StashableSplitPane;
 import de.machmireinebook.epubeditor.manager.BookBrowserManager;
@@ -187,6 +199,10 @@ public class MainController implements Initializable
     @FXML
     private Label cursorPosLabel;
     @FXML
+    private ProgressBar backgroundProgressBar;
+    @FXML
+    private Label backgroundProgressLabel;
+    @FXML
     private Button saveAsButton;
     @FXML
     private Button insertImageButton;
@@ -309,6 +325,10 @@ public class MainController implements Initializable
     private Stage stage;
     private StandardControllerFactory standardControllerFactory;
     private Path lastFilePath;
+    private Task<Void> openEpubTask;
+    private Task<Void> saveEpubTask;
+    private Runnable pendingSave;
+    private AutosaveJournal autosaveJournal;
 
     @Override
     public void initialize(URL location, ResourceBundle resources)
@@ -333,10 +353,16 @@ public class MainController implements Initializable
                 .build();
 
         currentBookProperty.addListener((observable, oldValue, newBook) -> {
+            //a running save reads from the source archive, it's closed when the saved file is attached
+            if (oldValue != null && oldValue.getSourceArchive() != null
+                    && (saveEpubTask == null || !saveEpubTask.isRunning())) {
+                oldValue.getSourceArchive().close();
+            }
             epubFilesTabPane.getTabs().clear();
 
             editorTabManager.reset();
             editorTabManager.setBook(newBook);
+            setAutosaveJournal(null);
             previewManager.reset();
             saveButton.disableProperty().unbind();
             createHtmlTocButton.disableProperty().unbind();
@@ -589,6 +615,10 @@ public class MainController implements Initializable
     private void createRecentFilesMenuItems(ObservableList<Path> recentFiles)
     {
         openBookButton.getItems().clear();
+        MenuItem openDirectoryMenuItem = new MenuItem("Open exploded ebook directory...");
+        openDirectoryMenuItem.setOnAction(event -> openEpubDirectoryAction());
+        openBookButton.getItems().add(openDirectoryMenuItem);
+        openBookButton.getItems().add(new SeparatorMenuItem());
         int number = 0;
         for (Path recentFile : recentFiles)
         {
@@ -688,36 +718,178 @@ public class MainController implements Initializable
         }
     }
 
+    /**
+     * Opens an exploded epub, a directory containing the files of an epub. The directory stays the backing store of
+     * the book, the files are read when they are needed and saving writes the changed files back. An epub file is
+     * only created by "save as" or "save copy".
+     */
+    public void openEpubDirectoryAction()
+    {
+        checkBeforeCloseBook();
+        DirectoryChooser directoryChooser = new DirectoryChooser();
+        directoryChooser.setTitle("Open exploded ebook directory");
+        File directory = directoryChooser.showDialog(stage);
+        if (directory != null) {
+            openEpub(directory);
+        }
+    }
+
+    /**
+     * Opens the book in background. First only the skeleton of the book and the first file of the spine are read and
+     * shown, that the user can start editing immediately, the other html files are read and cleaned afterwards.
+     */
     private void openEpub(File file) {
-        Platform.runLater(() -> {
-            stage.getScene().setCursor(Cursor.WAIT);
-            EpubReader reader = new EpubReader();
-            try
-            {
-                Book currentBook = reader.readEpub(file);
-                currentBookProperty.set(currentBook);
-                Platform.runLater(() -> {
-                    List<Path> recentFiles = configuration.getRecentFiles();
-                    recentFiles.remove(file.toPath());
-                    recentFiles.add(0, file.toPath());
+        if (openEpubTask != null) {
+            openEpubTask.cancel();
+        }
+        stage.getScene().setCursor(Cursor.WAIT);
+        EpubReader reader = new EpubReader();
+        BookIndexCache bookIndexCache = new BookIndexCache(BookIndexCache.getDefaultDirectory());
+        reader.setBookIndexCache(bookIndexCache);
+        HtmlBookProcessor bookProcessor = new HtmlCleanerBookProcessor();
+        Task<Void> task = new Task<>() {
+            @Override
+            protected Void call() throws Exception {
+                updateMessage("Opening " + file.getName());
+                updateProgress(-1, 1);
+                Book book = file.isDirectory() ? reader.readEpubDirectorySkeleton(file) : reader.readEpubSkeleton(file);
+                //no index for exploded epubs
+                BookIndex bookIndex = book.getBookIndex();
+                List<Resource> htmlResources = bookProcessor.getHtmlResources(book);
+                //files known as clean from a former opening need no processing
+                if (bookIndex != null) {
+                    htmlResources.removeIf(resource -> bookIndex.isClean(getEntryName(resource)));
                 }
-                );
-                if (!currentBook.getSpine().isEmpty())
-                {
-                    Resource<?> firstResource = currentBook.getSpine().getResource(0);
-                    editorTabManager.openFileInEditor(firstResource);
+                Resource firstResource = null;
+                if (!book.getSpine().isEmpty()) {
+                    firstResource = book.getSpine().getResource(0);
+                    if (htmlResources.remove(firstResource)) {
+                        bookProcessor.processHtmlResources(List.of(firstResource), book, (resource, processedHtml) -> {
+                            if (processedHtml != null) {
+                                setProcessedHtml(resource, processedHtml);
+                            } else if (bookIndex != null) {
+                                bookIndex.setClean(getEntryName(resource), true);
+                            }
+                        });
+                    }
                 }
+                if (isCancelled()) {
+                    if (book.getSourceArchive() != null) {
+                        book.getSourceArchive().close();
+                    }
+                    return null;
+                }
+                Resource<?> resourceToOpen = firstResource;
+                Platform.runLater(() -> showOpenedBook(file, book, resourceToOpen));
+
+                updateMessage("Preparing files of " + file.getName());
+                bookProcessor.setProgressListener(this::updateProgress);
+                Map<Resource, ResourceDataSource> dataSources = new IdentityHashMap<>();
+                htmlResources.forEach(resource -> dataSources.put(resource, resource.getDataSource()));
+                bookProcessor.processHtmlResources(htmlResources, book, (resource, processedHtml) -> {
+                    if (processedHtml == null) {
+                        if (bookIndex != null) {
+                            bookIndex.setClean(getEntryName(resource), true);
+                        }
+                        return;
+                    }
+                    Platform.runLater(() -> {
+                        //don't overwrite changes made by the user in the meantime, even if they are saved already,
+                        //nor text typed in an opened editor that is not yet synchronized with the resource
+                        if (currentBookProperty.get() == book && !resource.isDataModified()
+                                && resource.getDataSource() == dataSources.get(resource)
+                                && !editorTabManager.isOpenedInEditor(resource)) {
+                            setProcessedHtml(resource, processedHtml);
+                        }
+                    });
+                });
+                if (bookIndex != null) {
+                    bookIndexCache.store(bookIndex);
+                }
+                return null;
             }
-            catch (IOException | NavNotFoundException | OpfNotReadableException e)
-            {
-                logger.error("", e);
-                ExceptionDialog.showAndWait(e, stage, "Open ebook", "Can't open ebook file: " + file.getName() + ", cause: ");
-            }
-            finally
-            {
-                stage.getScene().setCursor(Cursor.DEFAULT);
-            }
+        };
+        task.setOnFailed(event -> {
+            stage.getScene().setCursor(Cursor.DEFAULT);
+            Throwable e = task.getException();
+            logger.error("", e);
+            ExceptionDialog.showAndWait(e, stage, "Open ebook", "Can't open ebook file: " + file.getName() + ", cause: ");
         });
+        backgroundProgressBar.progressProperty().bind(task.progressProperty());
+        backgroundProgressBar.visibleProperty().bind(task.runningProperty());
+        backgroundProgressLabel.textProperty().bind(task.messageProperty());
+        backgroundProgressLabel.visibleProperty().bind(task.runningProperty());
+        openEpubTask = task;
+
+        Thread thread = new Thread(task, "open-epub");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void showOpenedBook(File file, Book book, Resource<?> firstResource) {
+        currentBookProperty.set(book);
+        List<Path> recentFiles = configuration.getRecentFiles();
+        recentFiles.remove(file.toPath());
+        recentFiles.add(0, file.toPath());
+        setAutosaveJournal(new AutosaveJournal(AutosaveJournal.getDefaultDirectory(), file.toPath()));
+        offerJournalReplay(book);
+        if (firstResource != null) {
+            editorTabManager.openFileInEditor(firstResource);
+        }
+        stage.getScene().setCursor(Cursor.DEFAULT);
+    }
+
+    private void setAutosaveJournal(AutosaveJournal journal) {
+        if (autosaveJournal != null) {
+            autosaveJournal.close();
+        }
+        autosaveJournal = journal;
+        if (journal != null) {
+            journal.record(currentBookProperty.get());
+        }
+    }
+
+    /**
+     * If the journal contains changes, that were not saved before the editor was closed the last time, the user can
+     * restore them, otherwise they are discarded.
+     */
+    private void offerJournalReplay(Book book) {
+        List<AutosaveJournal.Change> changes = autosaveJournal.readChanges();
+        if (changes.isEmpty()) {
+            return;
+        }
+        long changedFiles = changes.stream().map(AutosaveJournal.Change::getHref).distinct().count();
+        Alert alert = new Alert(Alert.AlertType.CONFIRMATION);
+        alert.initOwner(stage);
+        alert.setTitle("Unsaved changes");
+        alert.getDialogPane().setHeader(null);
+        alert.getDialogPane().setHeaderText(null);
+        alert.setContentText("The ebook has " + changedFiles + " changed files, that were not saved. Restore the changes?");
+        alert.getDialogPane().getButtonTypes().setAll(ButtonType.YES, ButtonType.NO);
+        Optional<ButtonType> choosedButton = alert.showAndWait();
+        if (choosedButton.isPresent() && choosedButton.get().equals(ButtonType.YES)) {
+            if (autosaveJournal.replay(book) > 0) {
+                book.setBookIsChanged(true);
+            }
+        } else {
+            autosaveJournal.clear();
+        }
+    }
+
+    /**
+     * @return the name of the zip entry the resource is read from, null if it's not read from the epub file
+     */
+    private static String getEntryName(Resource<?> resource) {
+        if (resource.getDataSource() instanceof ZipEntryDataSource) {
+            return ((ZipEntryDataSource) resource.getDataSource()).getEntryName();
+        }
+        return null;
+    }
+
+    private static void setProcessedHtml(Resource resource, byte[] processedHtml) {
+        resource.setData(processedHtml);
+        resource.setInputEncoding(Constants.CHARACTER_ENCODING);
+        HtmlBookProcessor.markProcessed(resource);
     }
 
     public void addExistingFilesAction()
@@ -828,7 +1000,10 @@ public class MainController implements Initializable
         fileChooser.getExtensionFilters().removeAll();
         fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("EPUB-Datei", "*.epub"));
         File file = fileChooser.showSaveDialog(stage);
-        if (file != null) {
+        if (file != null && book.getSourceDirectory() != null) {
+            //exploded epubs stay backed by their directory, the epub file is only an export
+            saveEpub(book, file.toPath());
+        } else if (file != null) {
             book.setPhysicalFileName(file.toPath());
             saveEpub(book);
         }
@@ -845,10 +1020,7 @@ public class MainController implements Initializable
         File file = fileChooser.showSaveDialog(stage);
         if (file != null)
         {
-            Path oldName = book.getPhysicalFileName();
-            book.setPhysicalFileName(file.toPath());
-            saveEpub(book);
-            book.setPhysicalFileName(oldName);
+            saveEpub(book, file.toPath());
         }
     }
 
@@ -859,17 +1031,184 @@ public class MainController implements Initializable
 
     public void saveEpub(Book book)
     {
+        if (book.getSourceDirectory() != null) {
+            saveEpubDirectory(book);
+        } else {
+            saveEpub(book, book.getPhysicalFileName());
+        }
+    }
+
+    /**
+     * Saves the book in background into the file. Only a snapshot of the book is taken on the FX thread, the user can
+     * continue editing while the snapshot is written. The file is replaced atomically after the snapshot is written
+     * completely. If it's the file of the book (and not a copy), the saved file becomes the new source of the book
+     * and the autosave journal is compacted to the changes made while saving.
+     *
+     * A save requested while another one is running starts after the running save is finished.
+     */
+    private void saveEpub(Book book, Path file)
+    {
+        if (saveEpubTask != null && saveEpubTask.isRunning()) {
+            pendingSave = () -> saveEpub(book, file);
+            return;
+        }
         EpubWriter writer = new EpubWriter();
-        try(OutputStream out = Files.newOutputStream(book.getPhysicalFileName())) {
-            writer.write(book, out);
+        writer.setParallelism(Runtime.getRuntime().availableProcessors());
+        BookSnapshot snapshot;
+        try {
+            snapshot = writer.snapshot(book);
+        } catch (IOException e) {
+            logger.error("", e);
+            ExceptionDialog.showAndWait(e, stage, "Save ebook", "Can't save ebook file: " + file.getFileName() + ", cause: ");
+            return;
+        }
+        editorTabManager.refreshEditorCode(book.getOpfResource());
+        if (!book.isEpub3() || book.getNcxResource() != null) {
+            editorTabManager.refreshEditorCode(book.getNcxResource());
+        }
+        //changes made while saving mark the book as changed again
+        book.setBookIsChanged(false);
+
+        boolean savesBookFile = file.equals(book.getPhysicalFileName());
+        if (savesBookFile && autosaveJournal != null && autosaveJournal.getEpubFile().equals(file.toAbsolutePath())) {
+            //keeps the journal valid, if the application crashes before it's compacted
+            writer.setReplaceListener(autosaveJournal::recordSaving);
+        }
+        Task<Void> task = new Task<>() {
+            @Override
+            protected Void call() throws Exception {
+                updateMessage("Saving " + file.getFileName());
+                writer.setProgressListener(this::updateProgress);
+                writer.save(snapshot, file);
+                return null;
+            }
+        };
+        task.setOnSucceeded(event -> {
+            if (book != currentBookProperty.get()) {
+                closeSourceArchive(snapshot);
+                runPendingSave();
+                return;
+            }
+            applyProcessedHtml(snapshot);
+            if (savesBookFile) {
+                try {
+                    book.attachSavedArchive(new EpubSourceArchive(file), snapshot::isSavedUnchanged);
+                } catch (IOException e) {
+                    logger.error("", e);
+                }
+                if (autosaveJournal == null || !autosaveJournal.getEpubFile().equals(file.toAbsolutePath())) {
+                    if (autosaveJournal != null) {
+                        autosaveJournal.clear();
+                    }
+                    setAutosaveJournal(new AutosaveJournal(AutosaveJournal.getDefaultDirectory(), file));
+                }
+                autosaveJournal.compact(book, snapshot);
+            }
+            runPendingSave();
+        });
+        task.setOnFailed(event -> {
+            Throwable e = task.getException();
+            logger.error("", e);
+            book.setBookIsChanged(true);
+            if (book != currentBookProperty.get()) {
+                closeSourceArchive(snapshot);
+            }
+            ExceptionDialog.showAndWait(e, stage, "Save ebook", "Can't save ebook file: " + file.getFileName() + ", cause: ");
+            runPendingSave();
+        });
+        backgroundProgressBar.progressProperty().bind(task.progressProperty());
+        backgroundProgressBar.visibleProperty().bind(task.runningProperty());
+        backgroundProgressLabel.textProperty().bind(task.messageProperty());
+        backgroundProgressLabel.visibleProperty().bind(task.runningProperty());
+        saveEpubTask = task;
+
+        //no daemon, so that a running save is finished before the application exits
+        Thread thread = new Thread(task, "save-epub");
+        thread.start();
+    }
+
+    /**
+     * Writes the changed files of a book backed by an exploded epub into its directory, in background like
+     * {@link #saveEpub(Book, Path)}.
+     */
+    private void saveEpubDirectory(Book book)
+    {
+        if (saveEpubTask != null && saveEpubTask.isRunning()) {
+            pendingSave = () -> saveEpubDirectory(book);
+            return;
+        }
+        BookDirectory directory = book.getSourceDirectory();
+        BookSnapshot snapshot;
+        try {
+            snapshot = new EpubWriter().snapshot(book);
         } catch (IOException e) {
             logger.error("", e);
+            ExceptionDialog.showAndWait(e, stage, "Save ebook", "Can't save ebook directory: " + directory.getRoot() + ", cause: ");
+            return;
         }
         editorTabManager.refreshEditorCode(book.getOpfResource());
         if (!book.isEpub3() || book.getNcxResource() != null) {
             editorTabManager.refreshEditorCode(book.getNcxResource());
         }
-        currentBookProperty.get().setBookIsChanged(false);
+        book.setBookIsChanged(false);
+
+        Task<Void> task = new Task<>() {
+            @Override
+            protected Void call() throws Exception {
+                updateMessage("Saving " + directory.getRoot().getFileName());
+                updateProgress(-1, 1);
+                directory.save(snapshot);
+                return null;
+            }
+        };
+        task.setOnSucceeded(event -> {
+            applyProcessedHtml(snapshot);
+            directory.attachSaved(book, snapshot);
+            if (book == currentBookProperty.get() && autosaveJournal != null) {
+                autosaveJournal.compact(book, snapshot);
+            }
+            runPendingSave();
+        });
+        task.setOnFailed(event -> {
+            Throwable e = task.getException();
+            logger.error("", e);
+            book.setBookIsChanged(true);
+            ExceptionDialog.showAndWait(e, stage, "Save ebook", "Can't save ebook directory: " + directory.getRoot() + ", cause: ");
+            runPendingSave();
+        });
+        backgroundProgressBar.progressProperty().bind(task.progressProperty());
+        backgroundProgressBar.visibleProperty().bind(task.runningProperty());
+        backgroundProgressLabel.textProperty().bind(task.messageProperty());
+        backgroundProgressLabel.visibleProperty().bind(task.runningProperty());
+        saveEpubTask = task;
+
+        Thread thread = new Thread(task, "save-epub-directory");
+        thread.start();
+    }
+
+    /**
+     * Sets the html processed while saving as data of the unchanged resources. Resources opened in an editor keep
+     * their data, the text of the editor may be newer.
+     */
+    private void applyProcessedHtml(BookSnapshot snapshot) {
+        snapshot.applyProcessedHtml(resource -> !editorTabManager.isOpenedInEditor(resource));
+    }
+
+    /**
+     * Closes the source archive of a book that was closed while it was saved, the save was still reading from it.
+     */
+    private void closeSourceArchive(BookSnapshot snapshot) {
+        if (snapshot.getSourceArchive() != null) {
+            snapshot.getSourceArchive().close();
+        }
+    }
+
+    private void runPendingSave() {
+        Runnable save = pendingSave;
+        pendingSave = null;
+        if (save != null) {
+            save.run();
+        }
     }
 
 
@@ -914,6 +1253,9 @@ public class MainController implements Initializable
                     {
                         saveEpub(book);
                     }
+                } else if (autosaveJournal != null) {
+                    //the changes are discarded
+                    autosaveJournal.clear();
                 }
             });
         }
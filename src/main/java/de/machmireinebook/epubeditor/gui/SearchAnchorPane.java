@@ -155,7 +155,7 @@ public class SearchAnchorPane extends AnchorPane implements Initializable
         {
             try
             {
-                String code = new String(resource.getData(), resource.getInputEncoding());
+                String code = resource.getDataAsString();
                 String replaceText = StringUtils.defaultIfEmpty(replaceStringTextField.getText(), "");
                 for (SearchManager.SearchResult searchResult : result)
                 {
@@ -15,6 +15,7 @@ import org.jdom2.CDATA;
 import org.jdom2.Comment;
 import org.jdom2.Content;
 import org.jdom2.DocType;
+import org.jdom2.Document;
 import org.jdom2.Element;
 import org.jdom2.EntityRef;
 import org.jdom2.Namespace;
@@ -28,6 +29,8 @@ import org.jdom2.output.support.FormatStack;
 import org.jdom2.output.support.Walker;
 import org.jdom2.util.NamespaceStack;
 
+import de.machmireinebook.epubeditor.xhtml.EntityUnescaper;
+
 /**
  * User: mjungierek
  * Date: 04.08.2014
@@ -60,6 +63,7 @@ public class XHTMLOutputProcessor extends AbstractXMLOutputProcessor
     }
 
     private boolean escapeOutput = false;
+    private boolean unescapeEntities = false;
     private final XhtmlEscapeStrategy xhtmlEscapeStrategy;
     private static class XhtmlEscapeStrategy implements EscapeStrategy {
         /**
@@ -96,6 +100,25 @@ public class XHTMLOutputProcessor extends AbstractXMLOutputProcessor
         this.escapeOutput = escapeOutput;
     }
 
+    /**
+     * @param unescapeEntities if the named and numeric entities in the output should be unescaped while writing, with
+     *                         the exceptions of {@link EntityUnescaper}, instead of in a second pass over the output
+     */
+    public XHTMLOutputProcessor(boolean escapeOutput, boolean unescapeEntities) {
+        this(escapeOutput);
+        this.unescapeEntities = unescapeEntities;
+    }
+
+    @Override
+    public void process(final Writer out, final Format format, final Document doc) throws IOException {
+        if (unescapeEntities) {
+            //the flush at the end of processing writes an incomplete entity at the end of the document
+            super.process(EntityUnescaper.getInstance().unescapingWriter(out), format, doc);
+        } else {
+            super.process(out, format, doc);
+        }
+    }
+
     protected void printElement(final Writer out, final FormatStack fstack,
                                 final NamespaceStack nstack, final Element element) throws IOException
     {
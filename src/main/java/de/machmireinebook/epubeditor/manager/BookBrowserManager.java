@@ -1364,12 +1364,15 @@ public class BookBrowserManager
     private void openWithApplication(TreeItem<Resource<?>> treeItem, String applicationExecutable)
     {
         Resource<?> resource = treeItem.getValue();
-        File tmp = new File(Files.createTempDir(), resource.getFileName());
-
-        try (FileOutputStream output = new FileOutputStream(tmp))
+        try
         {
-            output.write(resource.getData());
-            output.flush();
+            //the application edits a copy, also in an exploded epub: its files contain only the saved state
+            File tmp = new File(Files.createTempDir(), resource.getFileName());
+            try (FileOutputStream output = new FileOutputStream(tmp))
+            {
+                output.write(resource.getData());
+                output.flush();
+            }
 
             Runtime.getRuntime().exec(applicationExecutable + " " + tmp);
             WatchService watcher = FileSystems.getDefault().newWatchService();
@@ -1407,6 +1410,10 @@ public class BookBrowserManager
                             {
                                 WatchEvent<Path> ev = (WatchEvent<Path>) event;
                                 Path filename = ev.context();
+                                if (!filename.toString().equals(tmp.getName()))
+                                {
+                                    continue;
+                                }
                                 logger.info("getting modify event for file " + filename);
                                 Platform.runLater(() -> {
                                     try (InputStream is = new FileInputStream(tmp))
@@ -1418,6 +1425,8 @@ public class BookBrowserManager
                                             return;
                                         }
                                         resource.setData(data);
+                                        Book book = currentBookProperty().getValue();
+                                        book.setBookIsChanged(true);
                                         if (resource instanceof CSSResource || resource instanceof JavascriptResource
                                                 ||  resource instanceof XMLResource)
                                         {
@@ -1427,8 +1436,6 @@ public class BookBrowserManager
                                         {
                                             editorManager.refreshImageViewer(resource);
                                         }
-                                        Book book = currentBookProperty().getValue();
-                                        book.setBookIsChanged(true);
                                     } catch (IOException e) {
                                         logger.error("error while reading content written by external program", e);
                                     }
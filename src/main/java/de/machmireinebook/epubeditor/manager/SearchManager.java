@@ -34,6 +34,12 @@ public class SearchManager
     private BoyerMooreHorspool stringSearch;
 
     private final ObjectProperty<Book> currentBook = new SimpleObjectProperty<>();
+    /**
+     * The text of the last searched resource and its form prepared for searching, reused while the text is the same
+     */
+    private String searchedText;
+    private boolean searchedTextLowerCase;
+    private String preparedSearchText;
 
     public static class SearchResult
     {
@@ -138,8 +144,7 @@ public class SearchManager
         {
             try
             {
-                String text = new String(currentResource.getData(), currentResource.getInputEncoding());
-                text = text.replace("\r\n", "\n");
+                String text = getSearchText(currentResource, false);
                 position = stringSearch.searchString(text, fromIndex, queryString);
                 logger.info("position " + position);
             }
@@ -152,9 +157,7 @@ public class SearchManager
         {
             try
             {
-                String text = new String(currentResource.getData(), currentResource.getInputEncoding());
-                text = text.replaceAll("\r\n", "\n");
-                text = text.toLowerCase(Locale.GERMANY);
+                String text = getSearchText(currentResource, true);
                 position = stringSearch.searchString(text, fromIndex, queryString.toLowerCase(Locale.GERMANY));
 //                position = text.indexOf(queryString.toLowerCase(Locale.GERMANY), fromIndex);
                 logger.info("position " + position);
@@ -199,6 +202,27 @@ public class SearchManager
         return result;
     }
 
+    /**
+     * @return the text of the resource with normalized line breaks, in lower case for a case insensitive search
+     */
+    private String getSearchText(Resource<?> resource, boolean lowerCase) throws UnsupportedEncodingException
+    {
+        //the decoded text is cached by the resource, same instance means same data
+        String text = resource.getDataAsString();
+        if (text != searchedText || lowerCase != searchedTextLowerCase)
+        {
+            String prepared = text.replace("\r\n", "\n");
+            if (lowerCase)
+            {
+                prepared = prepared.toLowerCase(Locale.GERMANY);
+            }
+            searchedText = text;
+            searchedTextLowerCase = lowerCase;
+            preparedSearchText = prepared;
+        }
+        return preparedSearchText;
+    }
+
     public List<SearchResult> findAll(String queryString, Resource<?> currentResource, SearchParams params)
     {
         List<SearchResult> result = new ArrayList<>();
@@ -207,13 +231,16 @@ public class SearchManager
 
         try
         {
-            String text = new String(currentResource.getData(), currentResource.getInputEncoding());
+            String text;
             if (params.getMode().equals(SearchMode.NORMAL))
             {
-                text = text.toLowerCase(Locale.GERMANY);
-                text = text.replace("\r\n", "\n");
+                text = getSearchText(currentResource, true);
                 queryString = queryString.toLowerCase(Locale.GERMANY);
             }
+            else
+            {
+                text = currentResource.getDataAsString();
+            }
             while(true)
             {
                 position = stringSearch.searchString(text, position, queryString);
@@ -1,7 +1,6 @@
 package de.machmireinebook.epubeditor.media;
 
 import java.net.URL;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.ResourceBundle;
@@ -19,13 +18,12 @@ import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.stage.Stage;
 
-import org.apache.commons.lang3.StringUtils;
-
 import de.machmireinebook.epubeditor.epublib.domain.Book;
 import de.machmireinebook.epubeditor.epublib.domain.MediaType;
 import de.machmireinebook.epubeditor.epublib.resource.ImageResource;
 import de.machmireinebook.epubeditor.epublib.resource.Resource;
 import de.machmireinebook.epubeditor.epublib.resource.Resources;
+import de.machmireinebook.epubeditor.epublib.resource.TextResource;
 import de.machmireinebook.epubeditor.epublib.util.ResourceFilenameComparator;
 import de.machmireinebook.epubeditor.gui.AbstractStandardController;
 import de.machmireinebook.epubeditor.javafx.cells.ImageCellFactory;
@@ -93,6 +91,7 @@ public class FindUnusedMediaFilesController extends AbstractStandardController {
                 MediaType.GIF,
                 MediaType.PNG,
                 MediaType.SVG,
+                MediaType.WEBP,
                 MediaType.JPG});
         List<Resource<?>> xhtmlResources = resources.getResourcesByMediaTypes(new MediaType[]{
                 MediaType.XHTML,
@@ -110,7 +109,7 @@ public class FindUnusedMediaFilesController extends AbstractStandardController {
 
     private boolean notUsed(ImageResource imageResource, List<Resource<?>> xhtmlResources) {
         for (Resource<?> xhtmlResource : xhtmlResources) {
-            String text = StringUtils.toEncodedString(xhtmlResource.getData(), StandardCharsets.UTF_8);
+            String text = ((TextResource) xhtmlResource).asString();
             if (text.contains(imageResource.convertToString())) {
                 return false;
             }
@@ -142,6 +141,8 @@ public class FindUnusedMediaFilesController extends AbstractStandardController {
             Image image = resource.asNativeFormat();
             imageView.setImage(image);
             imageValuesLabel.setText(resource.getImageDescription());
+            //the image view holds the decoded image, the raw data is not needed anymore
+            resource.close();
         }
         else
         {
@@ -350,6 +350,7 @@ public class InsertMediaController extends AbstractStandardController
                 MediaType.GIF,
                 MediaType.PNG,
                 MediaType.SVG,
+                MediaType.WEBP,
                 MediaType.JPG});
         for (Resource<?> resource : resources)
         {
@@ -367,6 +368,8 @@ public class InsertMediaController extends AbstractStandardController
             Image image = resource.asNativeFormat();
             imageView.setImage(image);
             imageValuesLabel.setText(resource.getImageDescription());
+            //the image view holds the decoded image, the raw data is not needed anymore
+            resource.close();
         }
         else
         {
@@ -1,6 +1,7 @@
 package de.machmireinebook.epubeditor.preview;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URI;
@@ -48,10 +49,16 @@ public class EpubHttpHandler implements HttpHandler
             {
                 MediaType mediaType = resource.getMediaType();
                 headers.set("Content-Type", mediaType.getName() + "; charset=utf-8");
-                httpExchange.sendResponseHeaders(HttpURLConnection.HTTP_OK , 0);
+                //large media files are streamed directly from the epub file
+                InputStream streamedData = resource.getStreamedData();
+                httpExchange.sendResponseHeaders(HttpURLConnection.HTTP_OK , streamedData != null ? resource.getSize() : 0);
                 logger.info("return code 200");
-                try (OutputStream out = httpExchange.getResponseBody()) {
-                    out.write(resource.getWebViewPreparedData());
+                try (OutputStream out = httpExchange.getResponseBody(); InputStream in = streamedData) {
+                    if (in != null) {
+                        in.transferTo(out);
+                    } else {
+                        out.write(resource.getWebViewPreparedData());
+                    }
                 } catch (IOException e) {
                     httpExchange.sendResponseHeaders(HttpURLConnection.HTTP_INTERNAL_ERROR, -1);
                 }
@@ -17,10 +17,15 @@ package de.machmireinebook.epubeditor.util;//optionally number of images, commen
  * Last modification 2004-02-29
  */
 import java.io.DataInput;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Get file format, image resolution, number of bits per pixel and optionally
@@ -225,7 +230,20 @@ public class ImageInfo
         /**
          * Return value of {@link #getFormat()} for PSD streams.
          */
-        FORMAT_PSD("psd", "image/psd");
+        FORMAT_PSD("psd", "image/psd"),
+
+        /**
+         * Return value of {@link #getFormat()} for WebP streams (lossy, lossless and extended).
+         * Only the canvas size and whether an alpha channel exists are read.
+         */
+        FORMAT_WEBP("webp", "image/webp"),
+
+        /**
+         * Return value of {@link #getFormat()} for SVG streams.
+         * Width and height are taken from the width and height attributes of the root element if they have absolute
+         * units, otherwise from its viewBox. Bits per pixel is not defined for vector images and stays -1.
+         */
+        FORMAT_SVG("svg", "image/svg+xml");
 
 
 
@@ -275,6 +293,14 @@ public class ImageInfo
         }
     }
 
+    /**
+     * Number of bytes that are read at most from SVG streams to find the root element.
+     */
+    private static final int SVG_HEADER_LENGTH = 8192;
+    private static final Pattern SVG_ROOT_PATTERN = Pattern.compile("<svg[\\s>][^>]*", Pattern.CASE_INSENSITIVE);
+    private static final Pattern SVG_ATTRIBUTE_PATTERN = Pattern.compile("(?<![\\w:-])(width|height|viewBox)\\s*=\\s*[\"']([^\"']*)[\"']");
+    private static final Pattern SVG_LENGTH_PATTERN = Pattern.compile("\\s*([0-9]*\\.?[0-9]+(?:[eE][-+]?[0-9]+)?)\\s*(px|pt|pc|mm|cm|in)?\\s*");
+
     private int width;
     private int height;
     private int bitsPerPixel;
@@ -352,6 +378,14 @@ public class ImageInfo
             {
                 return checkPnm(b2 - '0');
             }
+            else if (b1 == 0x52 && b2 == 0x49)
+            {
+                return checkWebp();
+            }
+            else if (b1 == 0x3c || b1 == 0xef || b1 == 0x20 || b1 == 0x09 || b1 == 0x0a || b1 == 0x0d)
+            {
+                return checkSvg(b1, b2);
+            }
             else
             {
                 return b1 == 0x38 && b2 == 0x42 && checkPsd();
@@ -731,6 +765,177 @@ public class ImageInfo
         return true;
     }
 
+    private boolean checkWebp() throws IOException
+    {
+        // RIFF header (RI already read), file size, WEBP, chunk header of the first chunk and 10 bytes of chunk data
+        byte[] a = new byte[30];
+        a[0] = 0x52;
+        a[1] = 0x49;
+        if (read(a, 2, 28) != 28)
+        {
+            return false;
+        }
+        if (a[2] != 'F' || a[3] != 'F' || a[8] != 'W' || a[9] != 'E' || a[10] != 'B' || a[11] != 'P')
+        {
+            return false;
+        }
+        String chunk = new String(a, 12, 4, StandardCharsets.US_ASCII);
+        switch (chunk)
+        {
+            case "VP8 ":
+                // lossy: frame tag (3 bytes), start code 9d 01 2a, 14 bit width and height
+                if ((a[23] & 0xff) != 0x9d || (a[24] & 0xff) != 0x01 || (a[25] & 0xff) != 0x2a)
+                {
+                    return false;
+                }
+                width = getShortLittleEndian(a, 26) & 0x3fff;
+                height = getShortLittleEndian(a, 28) & 0x3fff;
+                bitsPerPixel = 24;
+                break;
+            case "VP8L":
+                // lossless: signature 0x2f, 14 bit width - 1, 14 bit height - 1, 1 bit alpha
+                if ((a[20] & 0xff) != 0x2f)
+                {
+                    return false;
+                }
+                int bits = getIntLittleEndian(a, 21);
+                width = (bits & 0x3fff) + 1;
+                height = ((bits >> 14) & 0x3fff) + 1;
+                bitsPerPixel = ((bits >> 28) & 1) != 0 ? 32 : 24;
+                break;
+            case "VP8X":
+                // extended: flags, 3 reserved bytes, 24 bit canvas width - 1 and height - 1
+                width = get24BitLittleEndian(a, 24) + 1;
+                height = get24BitLittleEndian(a, 27) + 1;
+                bitsPerPixel = (a[20] & 0x10) != 0 ? 32 : 24;
+                break;
+            default:
+                return false;
+        }
+        format = Format.FORMAT_WEBP;
+        return width > 0 && height > 0;
+    }
+
+    private boolean checkSvg(int b1, int b2) throws IOException
+    {
+        byte[] a = new byte[SVG_HEADER_LENGTH];
+        a[0] = (byte) b1;
+        a[1] = (byte) b2;
+        int length = 2;
+        int count;
+        try
+        {
+            while (length < a.length && (count = read(a, length, a.length - length)) > 0)
+            {
+                length += count;
+            }
+        }
+        catch (EOFException e)
+        {
+            //svg file is smaller than the header length, DataInput signals this by exception
+        }
+        String header = new String(a, 0, length, StandardCharsets.UTF_8);
+        Matcher rootMatcher = SVG_ROOT_PATTERN.matcher(header);
+        if (!rootMatcher.find())
+        {
+            return false;
+        }
+        format = Format.FORMAT_SVG;
+        String widthValue = null;
+        String heightValue = null;
+        String viewBoxValue = null;
+        Matcher attributeMatcher = SVG_ATTRIBUTE_PATTERN.matcher(rootMatcher.group());
+        while (attributeMatcher.find())
+        {
+            switch (attributeMatcher.group(1))
+            {
+                case "width":
+                    widthValue = attributeMatcher.group(2);
+                    break;
+                case "height":
+                    heightValue = attributeMatcher.group(2);
+                    break;
+                default:
+                    viewBoxValue = attributeMatcher.group(2);
+            }
+        }
+        width = parseSvgLength(widthValue);
+        height = parseSvgLength(heightValue);
+        if ((width <= 0 || height <= 0) && viewBoxValue != null)
+        {
+            String[] viewBox = viewBoxValue.trim().split("[\\s,]+");
+            if (viewBox.length == 4)
+            {
+                try
+                {
+                    double viewBoxWidth = Double.parseDouble(viewBox[2]);
+                    double viewBoxHeight = Double.parseDouble(viewBox[3]);
+                    // only one of width and height given, the other follows from the aspect ratio
+                    if (width > 0 && viewBoxWidth > 0)
+                    {
+                        height = (int) Math.round(width * viewBoxHeight / viewBoxWidth);
+                    }
+                    else if (height > 0 && viewBoxHeight > 0)
+                    {
+                        width = (int) Math.round(height * viewBoxWidth / viewBoxHeight);
+                    }
+                    else
+                    {
+                        width = (int) Math.round(viewBoxWidth);
+                        height = (int) Math.round(viewBoxHeight);
+                    }
+                }
+                catch (NumberFormatException e)
+                {
+                    //no usable view box
+                }
+            }
+        }
+        // relative dimensions without view box, the size is only known after rendering
+        return width > 0 && height > 0;
+    }
+
+    /**
+     * Converts a svg length with absolute unit into pixels (96 dpi).
+     *
+     * @return the length in pixels, -1 if the length is missing or relative (%, em, ex)
+     */
+    private static int parseSvgLength(String value)
+    {
+        if (value == null)
+        {
+            return -1;
+        }
+        Matcher matcher = SVG_LENGTH_PATTERN.matcher(value);
+        if (!matcher.matches())
+        {
+            return -1;
+        }
+        double length = Double.parseDouble(matcher.group(1));
+        String unit = matcher.group(2) == null ? "px" : matcher.group(2).toLowerCase(Locale.ROOT);
+        switch (unit)
+        {
+            case "pt":
+                length = length * 96 / 72;
+                break;
+            case "pc":
+                length = length * 16;
+                break;
+            case "mm":
+                length = length * 96 / 25.4;
+                break;
+            case "cm":
+                length = length * 96 / 2.54;
+                break;
+            case "in":
+                length = length * 96;
+                break;
+            default:
+                break;
+        }
+        return (int) Math.round(length);
+    }
+
     private boolean checkPnm(int id) throws IOException
     {
         if (id < 1 || id > 6)
@@ -1112,6 +1317,10 @@ public class ImageInfo
                         (a[offs + 1] & 0xff);
     }
 
+	private static int get24BitLittleEndian(byte[] a, int offs) {
+        return (a[offs] & 0xff) | (a[offs + 1] & 0xff) << 8 | (a[offs + 2] & 0xff) << 16;
+    }
+
 	private static int getShortLittleEndian(byte[] a, int offs) {
         return (a[offs] & 0xff) | (a[offs + 1] & 0xff) << 8;
     }
@@ -0,0 +1,79 @@
+package de.machmireinebook.epubeditor.xhtml;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.InputSource;
+
+/**
+ * Resolves the DTDs of the W3C, e.g. of XHTML 1.1, from the copies bundled in the application (/dtd/www.w3.org/...)
+ * instead of loading them over the network, which is very slow or not available at all. The bundled files are read
+ * once and then served from memory. Other entities are resolved as usual.
+ */
+public class BundledDtdResolver implements EntityResolver
+{
+    private static final Logger logger = Logger.getLogger(BundledDtdResolver.class);
+
+    private static final String[] W3C_PREFIXES = {"http://www.w3.org/", "https://www.w3.org/"};
+    private static final String BUNDLED_DIRECTORY = "/dtd/www.w3.org/";
+
+    private static final BundledDtdResolver instance = new BundledDtdResolver();
+
+    private final Map<String, Optional<byte[]>> bundledFiles = new ConcurrentHashMap<>();
+
+    public static BundledDtdResolver getInstance()
+    {
+        return instance;
+    }
+
+    @Override
+    public InputSource resolveEntity(String publicId, String systemId)
+    {
+        if (systemId == null)
+        {
+            return null;
+        }
+        for (String prefix : W3C_PREFIXES)
+        {
+            if (systemId.startsWith(prefix))
+            {
+                Optional<byte[]> content = bundledFiles.computeIfAbsent(BUNDLED_DIRECTORY + systemId.substring(prefix.length()),
+                        BundledDtdResolver::readBundledFile);
+                if (content.isPresent())
+                {
+                    InputSource source = new InputSource(new ByteArrayInputStream(content.get()));
+                    source.setPublicId(publicId);
+                    //keeps relative references in the dtd resolvable
+                    source.setSystemId(systemId);
+                    return source;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static Optional<byte[]> readBundledFile(String path)
+    {
+        try (InputStream in = BundledDtdResolver.class.getResourceAsStream(path))
+        {
+            if (in == null)
+            {
+                logger.info("no bundled copy of " + path + ", loading it from its origin");
+                return Optional.empty();
+            }
+            return Optional.of(IOUtils.toByteArray(in));
+        }
+        catch (IOException e)
+        {
+            logger.error("can't read bundled file " + path, e);
+            return Optional.empty();
+        }
+    }
+}
@@ -0,0 +1,608 @@
+package de.machmireinebook.epubeditor.xhtml;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.text.translate.EntityArrays;
+
+/**
+ * Unescapes the named and numeric entities in xhtml, with the exceptions needed by the editor: the non breaking space
+ * and the other special spaces stay escaped (numeric entities of them are written decimal), the xml entities
+ * &amp;amp;, &amp;lt;, &amp;gt; and &amp;apos; are not unescaped.
+ *
+ * The names of the entities are compiled once into a trie, the text is unescaped in one pass, every character is
+ * looked at once. The unescaper is immutable and can be used by several threads.
+ */
+public final class EntityUnescaper
+{
+    /**
+     * Includes all characters that should escaped every time, e.g. the non breaking space, to avoid confusions with
+     * normal spaces, sorted for binary search
+     */
+    private static final int[] specialXhtmlCharacters = {
+            160,  //non breaking space
+            0x2002,  //en space
+            0x2003, //em space
+            0x2004, //Three-Per-Em Space (thick space, 1/3 of em)
+            0x2005, //Four-Per-Em Space (mid space, 1/4 of em)
+            0x2006, //Six-Per-Em Space
+            0x2007, //Figure Space (widht of number)
+            0x2008, //Punctuation Space
+            0x2009, //Thin Space
+            0x200A, //Hair Space
+            0x200B, //Zero-Width Space
+            8239,  //narrow no-break space
+            65279  //zero width no-break space
+    };
+
+    private static final long NO_MATCH = -1;
+    /**
+     * The text ends inside of something that can become an entity with the following text
+     */
+    private static final long INCOMPLETE = -2;
+    /**
+     * Marks a matched numeric entity of a special character, that is written as decimal entity
+     */
+    private static final long KEEP_ESCAPED = 1L << 31;
+
+    private static final EntityUnescaper instance = new EntityUnescaper(createEntities());
+
+    /**
+     * Transitions of the trie, open addressing with linear probing, the key of a transition is
+     * <code>node &lt;&lt; 7 | character</code> (the names consist of ascii characters), -1 marks an empty slot
+     */
+    private final int[] transitionKeys;
+    private final int[] transitionTargets;
+    private final int transitionMask;
+    /**
+     * Code point of the entity ending in the node, -1 if no entity ends there
+     */
+    private final int[] codePoints;
+    private final int maxNameLength;
+
+    /**
+     * Byte array with a view as char sequence, only the ascii characters of entities are compared, so the
+     * characters are the bytes in ISO-8859-1
+     */
+    private static class ByteSequence implements CharSequence
+    {
+        private final byte[] bytes;
+
+        private ByteSequence(byte[] bytes)
+        {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public int length()
+        {
+            return bytes.length;
+        }
+
+        @Override
+        public char charAt(int index)
+        {
+            return (char) (bytes[index] & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end)
+        {
+            return new String(bytes, start, end - start, StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    /**
+     * Unescapes the written text on the fly, keeps only an incomplete entity at the end of a write until the next
+     * write completes it.
+     */
+    private class UnescapingWriter extends Writer
+    {
+        private final Writer out;
+        private final StringBuilder pending = new StringBuilder();
+        /**
+         * Appends runs of strings without copying them into a new string like {@link Writer#append(CharSequence, int, int)}
+         */
+        private final Appendable target = new Appendable()
+        {
+            @Override
+            public Appendable append(CharSequence csq) throws IOException
+            {
+                out.append(csq);
+                return this;
+            }
+
+            @Override
+            public Appendable append(CharSequence csq, int start, int end) throws IOException
+            {
+                if (csq instanceof String)
+                {
+                    out.write((String) csq, start, end - start);
+                }
+                else
+                {
+                    out.append(csq, start, end);
+                }
+                return this;
+            }
+
+            @Override
+            public Appendable append(char c) throws IOException
+            {
+                out.write(c);
+                return this;
+            }
+        };
+
+        private UnescapingWriter(Writer out)
+        {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int c) throws IOException
+        {
+            if (pending.length() == 0 && c != '&')
+            {
+                out.write(c);
+            }
+            else
+            {
+                write(String.valueOf((char) c), 0, 1);
+            }
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException
+        {
+            write(new String(cbuf, off, len), 0, len);
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException
+        {
+            if (pending.length() == 0)
+            {
+                int written = unescape(str, off, off + len, false, target);
+                pending.append(str, written, off + len);
+            }
+            else
+            {
+                pending.append(str, off, off + len);
+                int written = unescape(pending, 0, pending.length(), false, target);
+                pending.delete(0, written);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException
+        {
+            if (pending.length() > 0)
+            {
+                unescape(pending, 0, pending.length(), true, target);
+                pending.setLength(0);
+            }
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            flush();
+            out.close();
+        }
+    }
+
+    /**
+     * @param entities names of the entities without &amp; and ;, and the character each of them stands for
+     */
+    private EntityUnescaper(Map<String, String> entities)
+    {
+        Map<Integer, Integer> transitions = new HashMap<>();
+        List<Integer> nodeCodePoints = new ArrayList<>();
+        nodeCodePoints.add(-1);
+        int longestName = 0;
+        for (Map.Entry<String, String> entity : entities.entrySet())
+        {
+            String name = entity.getKey();
+            String value = entity.getValue();
+            if (name.isEmpty() || value.codePointCount(0, value.length()) != 1)
+            {
+                throw new IllegalArgumentException("invalid entity " + name + " for " + value);
+            }
+            int node = 0;
+            for (int i = 0; i < name.length(); i++)
+            {
+                char c = name.charAt(i);
+                if (c >= 128 || c == ';')
+                {
+                    throw new IllegalArgumentException("invalid entity name " + name);
+                }
+                Integer target = transitions.get(node << 7 | c);
+                if (target == null)
+                {
+                    target = nodeCodePoints.size();
+                    nodeCodePoints.add(-1);
+                    transitions.put(node << 7 | c, target);
+                }
+                node = target;
+            }
+            nodeCodePoints.set(node, value.codePointAt(0));
+            longestName = Math.max(longestName, name.length());
+        }
+
+        int capacity = Integer.highestOneBit(Math.max(transitions.size(), 1) * 2) * 2;
+        transitionKeys = new int[capacity];
+        transitionTargets = new int[capacity];
+        transitionMask = capacity - 1;
+        Arrays.fill(transitionKeys, -1);
+        for (Map.Entry<Integer, Integer> transition : transitions.entrySet())
+        {
+            int slot = slot(transition.getKey());
+            while (transitionKeys[slot] != -1)
+            {
+                slot = (slot + 1) & transitionMask;
+            }
+            transitionKeys[slot] = transition.getKey();
+            transitionTargets[slot] = transition.getValue();
+        }
+        codePoints = nodeCodePoints.stream().mapToInt(Integer::intValue).toArray();
+        maxNameLength = longestName;
+    }
+
+    public static EntityUnescaper getInstance()
+    {
+        return instance;
+    }
+
+    /**
+     * The named entities of html 4, without &amp;nbsp; and the xml entities except &amp;quot;, and the wrong typed
+     * &amp;dbquo;.
+     */
+    private static Map<String, String> createEntities()
+    {
+        Map<CharSequence, CharSequence> unescape = new HashMap<>(XHTMLUtils.BASIC_UNESCAPE);
+        unescape.putAll(EntityArrays.ISO8859_1_UNESCAPE);
+        unescape.putAll(EntityArrays.HTML40_EXTENDED_UNESCAPE);
+        //leave nbsp untouched
+        unescape.remove("&nbsp;");
+        //some scripts for generating html from docx generate this (wrong typed) entity for „ (german double quote bottom)
+        //for convience replace it too
+        unescape.put("&dbquo;", "„");
+
+        Map<String, String> entities = new HashMap<>();
+        for (Map.Entry<CharSequence, CharSequence> entry : unescape.entrySet())
+        {
+            String entity = entry.getKey().toString();
+            entities.put(entity.substring(1, entity.length() - 1), entry.getValue().toString());
+        }
+        return entities;
+    }
+
+    private int slot(int key)
+    {
+        return (key * 0x9E3779B9 >>> 16) & transitionMask;
+    }
+
+    private int transition(int node, char c)
+    {
+        int key = node << 7 | c;
+        int slot = slot(key);
+        int candidate;
+        while ((candidate = transitionKeys[slot]) != -1)
+        {
+            if (candidate == key)
+            {
+                return transitionTargets[slot];
+            }
+            slot = (slot + 1) & transitionMask;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the unescaped text, the text itself if it contains no entity, null if the text is null
+     */
+    public String unescape(String text)
+    {
+        if (text == null)
+        {
+            return null;
+        }
+        //a text with ampersands, that don't start an entity, is returned unchanged as well
+        int entity = text.indexOf('&');
+        while (entity >= 0 && match(text, entity, text.length(), true) == NO_MATCH)
+        {
+            entity = text.indexOf('&', entity + 1);
+        }
+        if (entity < 0)
+        {
+            return text;
+        }
+        StringBuilder out = new StringBuilder(text.length());
+        out.append(text, 0, entity);
+        try
+        {
+            unescape(text, entity, text.length(), true, out);
+        }
+        catch (IOException e)
+        {
+            //not thrown by a string builder
+            throw new UncheckedIOException(e);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Creates a writer, that writes the unescaped form of the text written to it into the given writer, without
+     * buffering the whole text. An entity written in several parts is unescaped as well, an incomplete entity at the
+     * end of the text is written with {@link Writer#flush()}.
+     */
+    public Writer unescapingWriter(Writer out)
+    {
+        return new UnescapingWriter(out);
+    }
+
+    /**
+     * Appends the unescaped text between from and to.
+     *
+     * @param endOfText if false an entity, that is incomplete at the end, is not appended
+     * @return the index up to which the text is appended
+     */
+    private int unescape(CharSequence text, int from, int to, boolean endOfText, Appendable out) throws IOException
+    {
+        int copied = from;
+        for (int i = from; i < to; i++)
+        {
+            if (text.charAt(i) != '&')
+            {
+                continue;
+            }
+            long match = match(text, i, to, endOfText);
+            if (match == NO_MATCH)
+            {
+                continue;
+            }
+            out.append(text, copied, i);
+            if (match == INCOMPLETE)
+            {
+                return i;
+            }
+            int codePoint = (int) (match & 0x7FFFFFFF);
+            if ((match & KEEP_ESCAPED) != 0)
+            {
+                out.append("&#").append(Integer.toString(codePoint)).append(';');
+            }
+            else if (Character.isBmpCodePoint(codePoint))
+            {
+                out.append((char) codePoint);
+            }
+            else
+            {
+                out.append(Character.highSurrogate(codePoint)).append(Character.lowSurrogate(codePoint));
+            }
+            i += (int) (match >>> 32) - 1;
+            copied = i + 1;
+        }
+        out.append(text, copied, to);
+        return to;
+    }
+
+    /**
+     * Unescapes utf-8 encoded text without decoding it, the bytes between the entities are copied.
+     *
+     * @return the unescaped text, the array itself if it contains no entity
+     */
+    public byte[] unescape(byte[] utf8Text)
+    {
+        int ampersand = indexOfAmpersand(utf8Text);
+        if (ampersand < 0)
+        {
+            return utf8Text;
+        }
+        ByteSequence text = new ByteSequence(utf8Text);
+        //an entity is never shorter than its unescaped utf-8 form
+        byte[] out = new byte[utf8Text.length];
+        int written = 0;
+        int copied = 0;
+        for (int i = ampersand; i < utf8Text.length; i++)
+        {
+            if (utf8Text[i] != '&')
+            {
+                continue;
+            }
+            long match = match(text, i, utf8Text.length, true);
+            if (match == NO_MATCH)
+            {
+                continue;
+            }
+            System.arraycopy(utf8Text, copied, out, written, i - copied);
+            written += i - copied;
+            int codePoint = (int) (match & 0x7FFFFFFF);
+            if ((match & KEEP_ESCAPED) != 0)
+            {
+                written = writeDecimalEntity(codePoint, out, written);
+            }
+            else
+            {
+                written = writeUtf8(codePoint, out, written);
+            }
+            i += (int) (match >>> 32) - 1;
+            copied = i + 1;
+        }
+        if (copied == 0)
+        {
+            //no entity found
+            return utf8Text;
+        }
+        System.arraycopy(utf8Text, copied, out, written, utf8Text.length - copied);
+        written += utf8Text.length - copied;
+        return written == out.length ? out : Arrays.copyOf(out, written);
+    }
+
+    private static int indexOfAmpersand(byte[] bytes)
+    {
+        for (int i = 0; i < bytes.length; i++)
+        {
+            if (bytes[i] == '&')
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Matches the entity starting with the &amp; at the index.
+     *
+     * @param to the end of the text available for matching
+     * @param endOfText if the text ends at to, otherwise {@link #INCOMPLETE} is returned for a possible entity that
+     *                  reaches beyond to
+     * @return {@link #NO_MATCH}, {@link #INCOMPLETE} or the length of the entity in the upper 32 bits and the code
+     * point it stands for in the lower 31 bits, {@link #KEEP_ESCAPED} is set for special characters
+     */
+    private long match(CharSequence text, int index, int to, boolean endOfText)
+    {
+        if (index + 1 < to && text.charAt(index + 1) == '#')
+        {
+            return matchNumeric(text, index, to, endOfText);
+        }
+        int node = 0;
+        int maxEnd = index + maxNameLength + 2;
+        if (to < maxEnd)
+        {
+            //the name can reach beyond the available text
+            maxEnd = to;
+        }
+        else
+        {
+            endOfText = true;
+        }
+        for (int i = index + 1; i < maxEnd; i++)
+        {
+            char c = text.charAt(i);
+            if (c == ';')
+            {
+                int codePoint = i > index + 1 ? codePoints[node] : -1;
+                return codePoint < 0 ? NO_MATCH : (long) (i + 1 - index) << 32 | codePoint;
+            }
+            if (c >= 128 || (node = transition(node, c)) < 0)
+            {
+                return NO_MATCH;
+            }
+        }
+        return endOfText ? NO_MATCH : INCOMPLETE;
+    }
+
+    private long matchNumeric(CharSequence text, int index, int to, boolean endOfText)
+    {
+        int start = index + 2;
+        if (start == to)
+        {
+            return endOfText ? NO_MATCH : INCOMPLETE;
+        }
+        char first = text.charAt(start);
+        int radix = 10;
+        if (first == 'x' || first == 'X')
+        {
+            radix = 16;
+            start++;
+        }
+        int codePoint = 0;
+        int i = start;
+        for (; i < to; i++)
+        {
+            int digit = digit(text.charAt(i), radix);
+            if (digit < 0)
+            {
+                break;
+            }
+            codePoint = codePoint * radix + digit;
+            if (codePoint > Character.MAX_CODE_POINT)
+            {
+                return NO_MATCH;
+            }
+        }
+        if (i == to)
+        {
+            return endOfText ? NO_MATCH : INCOMPLETE;
+        }
+        if (i == start || text.charAt(i) != ';'
+                || (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE))
+        {
+            return NO_MATCH;
+        }
+        long result = (long) (i + 1 - index) << 32 | codePoint;
+        return Arrays.binarySearch(specialXhtmlCharacters, codePoint) >= 0 ? result | KEEP_ESCAPED : result;
+    }
+
+    /**
+     * @return the value of the ascii digit, -1 if the character is no digit in the radix
+     */
+    private static int digit(char c, int radix)
+    {
+        if (c >= '0' && c <= '9')
+        {
+            return c - '0';
+        }
+        if (radix == 16)
+        {
+            if (c >= 'a' && c <= 'f')
+            {
+                return c - 'a' + 10;
+            }
+            if (c >= 'A' && c <= 'F')
+            {
+                return c - 'A' + 10;
+            }
+        }
+        return -1;
+    }
+
+    private static int writeDecimalEntity(int codePoint, byte[] out, int offset)
+    {
+        String digits = Integer.toString(codePoint);
+        out[offset++] = '&';
+        out[offset++] = '#';
+        for (int i = 0; i < digits.length(); i++)
+        {
+            out[offset++] = (byte) digits.charAt(i);
+        }
+        out[offset++] = ';';
+        return offset;
+    }
+
+    private static int writeUtf8(int codePoint, byte[] out, int offset)
+    {
+        if (codePoint < 0x80)
+        {
+            out[offset++] = (byte) codePoint;
+        }
+        else if (codePoint < 0x800)
+        {
+            out[offset++] = (byte) (0xC0 | codePoint >> 6);
+            out[offset++] = (byte) (0x80 | codePoint & 0x3F);
+        }
+        else if (codePoint < 0x10000)
+        {
+            out[offset++] = (byte) (0xE0 | codePoint >> 12);
+            out[offset++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+            out[offset++] = (byte) (0x80 | codePoint & 0x3F);
+        }
+        else
+        {
+            out[offset++] = (byte) (0xF0 | codePoint >> 18);
+            out[offset++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+            out[offset++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+            out[offset++] = (byte) (0x80 | codePoint & 0x3F);
+        }
+        return offset;
+    }
+}
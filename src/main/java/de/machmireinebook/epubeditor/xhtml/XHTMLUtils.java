@@ -3,16 +3,14 @@ package de.machmireinebook.epubeditor.xhtml;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.nio.charset.StandardCharsets;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import org.apache.commons.text.translate.AggregateTranslator;
-import org.apache.commons.text.translate.CharSequenceTranslator;
 import org.apache.commons.text.translate.EntityArrays;
-import org.apache.commons.text.translate.LookupTranslator;
 import org.apache.log4j.Logger;
 
 import org.htmlcleaner.CleanerProperties;
@@ -30,6 +28,7 @@ import org.jdom2.input.sax.XMLReaders;
 import org.jdom2.output.Format;
 import org.jdom2.output.XMLOutputter;
 import org.jdom2.util.IteratorIterable;
+import org.xml.sax.InputSource;
 
 import de.machmireinebook.epubeditor.epublib.Constants;
 import de.machmireinebook.epubeditor.epublib.EpubVersion;
@@ -46,6 +45,12 @@ public class XHTMLUtils
 {
     private static final Logger logger = Logger.getLogger(XHTMLUtils.class);
 
+    /**
+     * Builders for xhtml documents, confined to their thread, because a builder is not thread safe
+     */
+    private static final ThreadLocal<SAXBuilder> xhtmlBuilders = ThreadLocal.withInitial(XHTMLUtils::createXHTMLBuilder);
+    private static final ThreadLocal<SAXBuilder> xhtmlFactoryBuilders = ThreadLocal.withInitial(XHTMLUtils::createXHTMLBuilder);
+
     public static final Map<CharSequence, CharSequence> BASIC_ESCAPE;
     static {
         // " - double-quote
@@ -151,10 +156,16 @@ public class XHTMLUtils
         return cleaner;
     }
 
+    /**
+     * Parses the bytes directly, without decoding them into a string before.
+     *
+     * @param encoding the encoding of the bytes, overrides the encoding declared in the document
+     */
     public static Document parseXHTMLDocument(byte[] bytes, String encoding) throws IOException, JDOMException
     {
-        String xhtml = new String(bytes, encoding);
-        return parseXHTMLDocument(xhtml);
+        InputSource source = new InputSource(new ByteArrayInputStream(bytes));
+        source.setEncoding(encoding);
+        return parseXHTMLDocument(source, null);
     }
 
     public static Document parseXHTMLDocument(String xhtml) throws IOException, JDOMException
@@ -163,27 +174,52 @@ public class XHTMLUtils
     }
 
     public static Document parseXHTMLDocument(byte[] bytes, JDOMFactory factory) throws IOException, JDOMException {
-        String xhtml = new String(bytes, StandardCharsets.UTF_8);
-        return parseXHTMLDocument(xhtml, factory);
+        InputSource source = new InputSource(new ByteArrayInputStream(bytes));
+        source.setEncoding(StandardCharsets.UTF_8.name());
+        return parseXHTMLDocument(source, factory);
     }
 
     public static Document parseXHTMLDocument(String xhtml, JDOMFactory factory) throws IOException, JDOMException
     {
-        //DTD ersetzen, da die originale nicht erreichbar bzw. nur sehr langsam ist,
-        xhtml = xhtml.replace("http://www.w3.org/TR/xhtml11/DTD/xhtml11.dtd", "http://localhost:8777/dtd/www.w3.org/TR/xhtml11/DTD/xhtml11.dtd");
-        ByteArrayInputStream bais = new ByteArrayInputStream(xhtml.getBytes(StandardCharsets.UTF_8));
+        return parseXHTMLDocument(new InputSource(new StringReader(xhtml)), factory);
+    }
+
+    /**
+     * Parses with the builder of the current thread, the builders are reused, so the parser is created only once per
+     * thread. The DTDs are resolved from the bundled copies by the {@link BundledDtdResolver}.
+     *
+     * @param factory the factory creating the JDOM content, null for the default factory
+     */
+    private static Document parseXHTMLDocument(InputSource source, JDOMFactory factory) throws IOException, JDOMException
+    {
+        SAXBuilder builder;
+        if (factory == null)
+        {
+            builder = xhtmlBuilders.get();
+        }
+        else
+        {
+            builder = xhtmlFactoryBuilders.get();
+            //changing the factory creates a new parser, so only if necessary
+            if (builder.getJDOMFactory() != factory)
+            {
+                builder.setJDOMFactory(factory);
+            }
+        }
+        return builder.build(source);
+    }
+
+    private static SAXBuilder createXHTMLBuilder()
+    {
         SAXBuilder builder = new SAXBuilder(XMLReaders.NONVALIDATING);
         builder.setFeature("http://xml.org/sax/features/external-general-entities", false);
         builder.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
         builder.setFeature("http://xml.org/sax/features/resolve-dtd-uris", false);
         builder.setFeature("http://xml.org/sax/features/validation", false);
         builder.setExpandEntities(false);
-        if (factory != null)
-        {
-            builder.setJDOMFactory(factory);
-        }
-        Document document = builder.build(bais);
-        return document;
+        builder.setEntityResolver(BundledDtdResolver.getInstance());
+        builder.setReuseParser(true);
+        return builder;
     }
 
     public static String repair(String originalHtml, EpubVersion epubVersion) {
@@ -204,18 +240,48 @@ public class XHTMLUtils
     }
 
     public static String outputXHTMLDocumentAsString(Document document, EpubVersion epubVersion) {
-        return new String(outputXHTMLDocument(document, epubVersion), StandardCharsets.UTF_8);
+        return outputXHTMLDocumentAsString(document, false, epubVersion);
     }
 
+    /**
+     * Serializes the document directly into the string, without encoding it to bytes and decoding it again.
+     */
     public static String outputXHTMLDocumentAsString(Document document, boolean escapeOutput, EpubVersion epubVersion) {
-        return new String(outputXHTMLDocument(document, escapeOutput, epubVersion), StandardCharsets.UTF_8);
+        prepareXHTMLDocument(document, epubVersion);
+        StringWriter writer = new StringWriter();
+        try {
+            createXHTMLOutputter(escapeOutput, true).output(document, writer);
+        }
+        catch (IOException e) {
+            logger.error("", e);
+            throw new XhtmlOutputException(e.getMessage());
+        }
+        return writer.toString();
     }
 
     public static byte[] outputXHTMLDocument(Document document, EpubVersion epubVersion) {
         return outputXHTMLDocument(document, false, epubVersion);
     }
 
+    /**
+     * Serializes the document with the entities unescaped while writing, so only the output stream holds the
+     * serialized document.
+     */
     public static byte[] outputXHTMLDocument(Document document, boolean escapeOutput, EpubVersion epubVersion)
+    {
+        prepareXHTMLDocument(document, epubVersion);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try {
+            createXHTMLOutputter(escapeOutput, true).output(document, baos);
+        }
+        catch (IOException e) {
+            logger.error("", e);
+            throw new XhtmlOutputException(e.getMessage());
+        }
+        return baos.toByteArray();
+    }
+
+    private static void prepareXHTMLDocument(Document document, EpubVersion epubVersion)
     {
         Element root = document.getRootElement();
         if (root != null) {
@@ -239,59 +305,39 @@ public class XHTMLUtils
         } else {
             document.setDocType(Constants.DOCTYPE_HTML.clone());
         }
-
-        ;
-        byte[] bytes;
-        try {
-            ByteArrayOutputStream baos = outputXhtml(document, escapeOutput);
-            bytes = baos.toByteArray();
-            bytes = unescapedHtmlWithXmlAndNbspExceptions(bytes);
-        }
-        catch (IOException e) {
-            logger.error("", e);
-            throw new XhtmlOutputException(e.getMessage());
-        }
-        return bytes;
     }
 
     public static ByteArrayOutputStream outputXhtml(Document document, boolean escapeOutput) throws IOException {
         try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
-            XMLOutputter outputter = new XMLOutputter();
-            Format xmlFormat = Format.getPrettyFormat();
-            xmlFormat.setExpandEmptyElements(true);
-            outputter.setFormat(xmlFormat);
-            outputter.setXMLOutputProcessor(new XHTMLOutputProcessor(escapeOutput));
-            outputter.escapeElementEntities("&");
-            outputter.escapeAttributeEntities("&");
-            outputter.output(document, baos);
+            createXHTMLOutputter(escapeOutput, false).output(document, baos);
             return baos;
         }
     }
 
-    public static String unescapedHtmlWithXmlAndNbspExceptions(String escapedText) {
-        //leave nbsp untouched
-        Map<CharSequence, CharSequence> withoutNbsp = new HashMap<>(EntityArrays.ISO8859_1_UNESCAPE);
-        withoutNbsp.remove("&nbsp;");
-        //some scripts for generating html from docx generate this (wrong typed) entity for „ (german double quote bottom)
-        //for convience replace it too
-        withoutNbsp.put("&dbquo;", "„");
-        CharSequenceTranslator translator =
-                new AggregateTranslator(
-                        new LookupTranslator(BASIC_UNESCAPE),
-                        new LookupTranslator(withoutNbsp),
-                        new LookupTranslator(EntityArrays.HTML40_EXTENDED_UNESCAPE),
-                        new NumericEntityWithoutSpacesUnescaper()
-                );
-        String unescapedXhtml = translator.translate(escapedText);
-        return unescapedXhtml;
+    private static XMLOutputter createXHTMLOutputter(boolean escapeOutput, boolean unescapeEntities) {
+        XMLOutputter outputter = new XMLOutputter();
+        Format xmlFormat = Format.getPrettyFormat();
+        xmlFormat.setExpandEmptyElements(true);
+        outputter.setFormat(xmlFormat);
+        outputter.setXMLOutputProcessor(new XHTMLOutputProcessor(escapeOutput, unescapeEntities));
+        outputter.escapeElementEntities("&");
+        outputter.escapeAttributeEntities("&");
+        return outputter;
+    }
 
+    public static String unescapedHtmlWithXmlAndNbspExceptions(String escapedText) {
+        return EntityUnescaper.getInstance().unescape(escapedText);
     }
 
+    /**
+     * Unescapes the utf-8 encoded xhtml without decoding it.
+     *
+     * @return the unescaped xhtml, the array itself if it contains no entity, an empty array if the xhtml is null
+     */
     public static byte[] unescapedHtmlWithXmlAndNbspExceptions(byte[] escapedText) {
-        String unescapedXhtml = unescapedHtmlWithXmlAndNbspExceptions(new String(escapedText, StandardCharsets.UTF_8));
-        if (unescapedXhtml != null) {
-            return unescapedXhtml.getBytes(StandardCharsets.UTF_8);
+        if (escapedText == null) {
+            return new byte[]{};
         }
-        return new byte[]{};
+        return EntityUnescaper.getInstance().unescape(escapedText);
     }
 }
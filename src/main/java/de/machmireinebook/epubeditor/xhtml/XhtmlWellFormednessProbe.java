@@ -0,0 +1,157 @@
+package de.machmireinebook.epubeditor.xhtml;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.apache.log4j.Logger;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.ext.Locator2;
+import org.xml.sax.helpers.DefaultHandler;
+
+import de.machmireinebook.epubeditor.epublib.Constants;
+
+/**
+ * Checks with a non validating streaming SAX parser, if a xhtml file is already well-formed, UTF-8 encoded
+ * and has a html root element in the xhtml namespace. Such files don't need to be cleaned by HtmlCleaner.
+ *
+ * No DTDs are loaded, the check needs only one pass over the bytes without building a document. Because of this
+ * named entities of html like &amp;nbsp; are not declared, a file using them is not well-formed xhtml.
+ */
+public class XhtmlWellFormednessProbe
+{
+    private static final Logger logger = Logger.getLogger(XhtmlWellFormednessProbe.class);
+
+    private static final SAXParserFactory parserFactory = createParserFactory();
+
+    private static final ThreadLocal<SAXParser> parsers = ThreadLocal.withInitial(() -> {
+        try
+        {
+            return parserFactory.newSAXParser();
+        }
+        catch (ParserConfigurationException | SAXException e)
+        {
+            throw new IllegalStateException("can't create sax parser", e);
+        }
+    });
+
+    private XhtmlWellFormednessProbe()
+    {
+    }
+
+    private static SAXParserFactory createParserFactory()
+    {
+        SAXParserFactory factory = SAXParserFactory.newInstance();
+        factory.setNamespaceAware(true);
+        factory.setValidating(false);
+        setFeature(factory, "http://xml.org/sax/features/external-general-entities", false);
+        setFeature(factory, "http://xml.org/sax/features/external-parameter-entities", false);
+        setFeature(factory, "http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+        return factory;
+    }
+
+    private static void setFeature(SAXParserFactory factory, String feature, boolean value)
+    {
+        try
+        {
+            factory.setFeature(feature, value);
+        }
+        catch (ParserConfigurationException | SAXException e)
+        {
+            logger.warn("sax parser doesn't support feature " + feature);
+        }
+    }
+
+    /**
+     * @param data the bytes of the xhtml file
+     * @return true if the file can be used without cleaning
+     */
+    public static boolean isWellFormedXhtml(byte[] data)
+    {
+        if (data == null || data.length == 0)
+        {
+            return false;
+        }
+        SAXParser parser = parsers.get();
+        ProbeHandler handler = new ProbeHandler();
+        try
+        {
+            parser.reset();
+            parser.parse(new InputSource(new ByteArrayInputStream(data)), handler);
+            return handler.isXhtml();
+        }
+        catch (SAXParseException e)
+        {
+            logger.debug("xhtml is not well-formed: " + e.getMessage());
+            return false;
+        }
+        catch (SAXException | IOException | RuntimeException e)
+        {
+            logger.debug("can't check xhtml: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private static class ProbeHandler extends DefaultHandler
+    {
+        private Locator locator;
+        private boolean rootElementChecked = false;
+        private boolean xhtmlRoot = false;
+        private boolean utf8 = false;
+
+        @Override
+        public void setDocumentLocator(Locator locator)
+        {
+            this.locator = locator;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes)
+        {
+            if (!rootElementChecked)
+            {
+                rootElementChecked = true;
+                xhtmlRoot = "html".equals(localName) && Constants.NAMESPACE_XHTML.getURI().equals(uri);
+                String encoding = null;
+                if (locator instanceof Locator2)
+                {
+                    encoding = ((Locator2) locator).getEncoding();
+                }
+                utf8 = encoding == null || "UTF-8".equalsIgnoreCase(encoding);
+            }
+        }
+
+        /**
+         * Called for entity references the parser can't resolve because the DTD isn't loaded, e.g. &amp;nbsp;.
+         * Parameter entities and the external subset ([dtd]) are skipped without affecting the content.
+         */
+        @Override
+        public void skippedEntity(String name) throws SAXException
+        {
+            if (!name.startsWith("%") && !name.startsWith("["))
+            {
+                throw new SAXException("undeclared entity " + name);
+            }
+        }
+
+        @Override
+        public InputSource resolveEntity(String publicId, String systemId)
+        {
+            //never load anything from outside
+            return new InputSource(new StringReader(""));
+        }
+
+        boolean isXhtml()
+        {
+            return xhtmlRoot && utf8;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package de.machmireinebook.epubeditor.epublib.domain;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import de.machmireinebook.epubeditor.epublib.resource.Resource;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class BookTest {
+
+    private static Resource<?> createScript(String id, String href) {
+        return new Resource<>(id, "var a = 1;".getBytes(StandardCharsets.UTF_8), href, MediaType.JAVASCRIPT);
+    }
+
+    /**
+     * Records the events of the scripts, not of the package document refreshed with each change.
+     */
+    private static List<String> recordEvents(Book book) {
+        List<String> events = new ArrayList<>();
+        book.addResourceChangeListener(event -> {
+            if (MediaType.JAVASCRIPT.equals(event.getResource().getMediaType())) {
+                events.add(event.getType() + " " + event.getResource().getHref()
+                        + (event.getOldHref() != null ? " " + event.getOldHref() : ""));
+            }
+        });
+        return events;
+    }
+
+    @Test
+    public void fireEventsOfAddedRenamedAndRemovedResource() {
+        Book book = Book.createMinimalBook();
+        List<String> events = recordEvents(book);
+        Resource<?> script = createScript("script", "Misc/script.js");
+
+        book.addResource(script);
+        script.setData("var a = 2;".getBytes(StandardCharsets.UTF_8));
+        script.setHref("Misc/renamed.js");
+        book.removeResource(script);
+        script.setData("var a = 3;".getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(List.of("ADDED Misc/script.js", "DATA_CHANGED Misc/script.js", "RENAMED Misc/renamed.js Misc/script.js",
+                "REMOVED Misc/renamed.js Misc/renamed.js"), events);
+    }
+
+    @Test
+    public void fireEventsOfResourceReplacedByRename() {
+        Book book = Book.createMinimalBook();
+        Resource<?> script1 = createScript("script1", "Misc/script1.js");
+        Resource<?> script2 = createScript("script2", "Misc/script2.js");
+        book.addResource(script1);
+        book.addResource(script2);
+        List<String> events = recordEvents(book);
+
+        script2.setHref("Misc/script1.js");
+
+        assertEquals(List.of("REMOVED Misc/script1.js Misc/script1.js", "RENAMED Misc/script1.js Misc/script2.js"), events);
+    }
+}
@@ -0,0 +1,120 @@
+package de.machmireinebook.epubeditor.epublib.domain;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the media type detection of a manifest with 10k entries: the former linear scan over all media types and
+ * extensions against the extension index, and the extension index with content sniffing.
+ *
+ * Run with the main method from the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MediaTypeBenchmark {
+
+    private static final String[] FILE_NAMES = {
+            "Text/chapter%05d.xhtml",
+            "Text/part%05d.html",
+            "Images/image%05d.jpg",
+            "Images/figure%05d.PNG",
+            "Images/icon%05d.svg",
+            "Styles/style%05d.css",
+            "Fonts/font%05d.otf",
+            "Fonts/font%05d.woff2",
+            "Audio/track%05d.mp3",
+            "Misc/data%05d.bin"
+    };
+
+    private static final byte[][] HEADS = {
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?><html xmlns=\"http://www.w3.org/1999/xhtml\">".getBytes(),
+            "<!DOCTYPE html><html>".getBytes(),
+            {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0, 0, 0x10, 'J', 'F', 'I', 'F'},
+            {(byte) 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A, 0, 0, 0, 0x0D},
+            "<svg xmlns=\"http://www.w3.org/2000/svg\">".getBytes(),
+            "body { margin: 0; }".getBytes(),
+            {'O', 'T', 'T', 'O', 0, 0x0A, 0, (byte) 0x80},
+            {'w', 'O', 'F', '2', 0, 1, 0, 0},
+            {'I', 'D', '3', 3, 0, 0, 0, 0},
+            {0, 1, 2, 3, 4, 5, 6, 7}
+    };
+
+    @Param({"10000"})
+    private int manifestSize;
+
+    private String[] hrefs;
+    private byte[][] heads;
+
+    @Setup
+    public void setup() {
+        hrefs = new String[manifestSize];
+        heads = new byte[manifestSize][];
+        for (int i = 0; i < manifestSize; i++) {
+            int type = i % FILE_NAMES.length;
+            hrefs[i] = "OEBPS/" + String.format(FILE_NAMES[type], i);
+            heads[i] = HEADS[type];
+        }
+    }
+
+    @Benchmark
+    public void linearScan(Blackhole blackhole) {
+        for (String href : hrefs) {
+            blackhole.consume(getByFileNameLinearScan(href));
+        }
+    }
+
+    @Benchmark
+    public void extensionIndex(Blackhole blackhole) {
+        for (String href : hrefs) {
+            blackhole.consume(MediaType.getByFileName(href));
+        }
+    }
+
+    @Benchmark
+    public void extensionIndexWithSniffing(Blackhole blackhole) {
+        for (int i = 0; i < hrefs.length; i++) {
+            blackhole.consume(MediaType.getByFileNameAndContent(hrefs[i], heads[i]));
+        }
+    }
+
+    /**
+     * The former implementation of {@link MediaType#getByFileName(String)}.
+     */
+    private static MediaType getByFileNameLinearScan(String filename) {
+        for (MediaType mediatype : MediaType.values()) {
+            for (String extension : mediatype.getExtensions()) {
+                if (StringUtils.endsWithIgnoreCase(filename, extension)) {
+                    return mediatype;
+                }
+            }
+        }
+        return MediaType.UNKNWON_MEDIATYPE;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(MediaTypeBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
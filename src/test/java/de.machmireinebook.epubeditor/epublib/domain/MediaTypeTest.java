@@ -0,0 +1,55 @@
+package de.machmireinebook.epubeditor.epublib.domain;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class MediaTypeTest {
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Header of a font with 11 tables: sfnt version, numTables, searchRange, entrySelector, rangeShift.
+     */
+    private static byte[] fontHeader(byte[] sfntVersion) {
+        byte[] header = new byte[12];
+        System.arraycopy(sfntVersion, 0, header, 0, 4);
+        header[5] = 11;
+        header[7] = (byte) 128;
+        header[9] = 3;
+        header[11] = 48;
+        return header;
+    }
+
+    @Test
+    public void textStartingWithTrueIsNoFont() {
+        assertNull(MediaTypeSniffer.sniffBinary(bytes("true && start();\nfunction start() {}")));
+        assertNull(MediaTypeSniffer.sniffBinary(bytes("true")));
+        assertEquals(MediaType.JAVASCRIPT, MediaType.getByFileNameAndContent("Misc/init.js", bytes("true && start();")));
+        assertEquals(MediaType.UNKNWON_MEDIATYPE, MediaType.getByFileNameAndContent("Misc/flag", bytes("true")));
+    }
+
+    @Test
+    public void knownTextExtensionIsNotOverridden() {
+        assertEquals(MediaType.CSS, MediaType.getByFileNameAndContent("Styles/style.css", bytes("ID3 {}")));
+    }
+
+    @Test
+    public void fontWithTableDirectoryIsDetected() {
+        assertEquals(MediaType.TTF, MediaTypeSniffer.sniffBinary(fontHeader(new byte[]{'t', 'r', 'u', 'e'})));
+        assertEquals(MediaType.TTF, MediaTypeSniffer.sniffBinary(fontHeader(new byte[]{0x00, 0x01, 0x00, 0x00})));
+        assertEquals(MediaType.OPENTYPE_UNTIL_3, MediaTypeSniffer.sniffBinary(fontHeader(new byte[]{'O', 'T', 'T', 'O'})));
+        assertEquals(MediaType.TTF, MediaType.getByFileNameAndContent("Fonts/font", fontHeader(new byte[]{'t', 'r', 'u', 'e'})));
+    }
+
+    @Test
+    public void wrongBinaryExtensionIsCorrected() {
+        byte[] png = {(byte) 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A};
+        assertEquals(MediaType.PNG, MediaType.getByFileNameAndContent("Images/cover.jpg", png));
+    }
+}
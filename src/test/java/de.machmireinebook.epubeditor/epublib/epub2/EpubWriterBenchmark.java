@@ -0,0 +1,83 @@
+package de.machmireinebook.epubeditor.epublib.epub2;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import de.machmireinebook.epubeditor.epublib.domain.Book;
+import de.machmireinebook.epubeditor.epublib.domain.MediaType;
+import de.machmireinebook.epubeditor.epublib.resource.Resource;
+
+/**
+ * Saves a synthetic book with 2,000 xhtml files, which all have to be compressed, with one and with several threads.
+ *
+ * Run with the main method from the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EpubWriterBenchmark {
+
+    private static final String[] WORDS = {"der", "die", "das", "und", "Buch", "Kapitel", "schreiben", "lesen",
+            "Seite", "Absatz", "epub", "Editor", "Text", "Wort", "Satz", "Zeile"};
+
+    @Param({"2000"})
+    private int fileCount;
+
+    @Param({"1", "4", "8"})
+    private int parallelism;
+
+    private Book book;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        book = Book.createMinimalBook();
+        for (int i = 0; i < fileCount; i++) {
+            StringBuilder html = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                    + "<html xmlns=\"http://www.w3.org/1999/xhtml\"><head><title>Chapter " + i + "</title></head><body>\n");
+            for (int paragraph = 0; paragraph < 40; paragraph++) {
+                html.append("<p>");
+                for (int word = 0; word < 60; word++) {
+                    html.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+                }
+                html.append("</p>\n");
+            }
+            html.append("</body></html>");
+            book.getResources().put(new Resource(null, html.toString().getBytes(StandardCharsets.UTF_8),
+                    "Text/chapter" + i + ".xhtml", MediaType.XHTML));
+        }
+    }
+
+    @Benchmark
+    public void save() throws Exception {
+        EpubWriter writer = new EpubWriter(null);
+        writer.setParallelism(parallelism);
+        writer.write(book, OutputStream.nullOutputStream());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(EpubWriterBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
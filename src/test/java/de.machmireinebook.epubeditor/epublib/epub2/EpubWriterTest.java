@@ -0,0 +1,376 @@
+package de.machmireinebook.epubeditor.epublib.epub2;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.IOUtils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import de.machmireinebook.epubeditor.epublib.bookprocessor.HtmlCleanerBookProcessor;
+import de.machmireinebook.epubeditor.epublib.domain.Book;
+import de.machmireinebook.epubeditor.epublib.domain.MediaType;
+import de.machmireinebook.epubeditor.epublib.domain.epub2.Metadata;
+import de.machmireinebook.epubeditor.epublib.resource.EpubSourceArchive;
+import de.machmireinebook.epubeditor.epublib.resource.Resource;
+import de.machmireinebook.epubeditor.epublib.resource.ResourceDataSource;
+import de.machmireinebook.epubeditor.epublib.resource.ZipCentralDirectory;
+import de.machmireinebook.epubeditor.epublib.resource.ZipEntryDataSource;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class EpubWriterTest {
+
+    private static final byte[] PACKAGE_DOCUMENT = "<package/>".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] CHAPTER = ("<html xmlns=\"http://www.w3.org/1999/xhtml\"><body><p>Chapter</p></body></html>")
+            .getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    Path directory;
+
+    private static BookSnapshot createSnapshot(Resource<?>... resources) {
+        List<BookSnapshot.Entry> entries = new ArrayList<>();
+        for (Resource<?> resource : resources) {
+            entries.add(new BookSnapshot.Entry(resource));
+        }
+        return new BookSnapshot(entries, PACKAGE_DOCUMENT, null);
+    }
+
+    /**
+     * A resource whose data can't be read.
+     */
+    private static Resource<?> createUnreadableResource(String href, MediaType mediaType) {
+        Resource<?> resource = new Resource<>(null, null, href, mediaType);
+        resource.setDataSource(new ResourceDataSource() {
+            @Override
+            public InputStream getInputStream() throws IOException {
+                throw new IOException("data of " + href + " not readable");
+            }
+
+            @Override
+            public long getSize() {
+                return 1000;
+            }
+        });
+        return resource;
+    }
+
+    /**
+     * An epub 2 book with the resources, the package document and the ncx are created by the writer.
+     */
+    private static Book createBook(Resource<?>... resources) {
+        Book book = new Book();
+        book.setMetadata(new Metadata());
+        book.setOpfResource(new Resource<>("opf", PACKAGE_DOCUMENT, "content.opf", MediaType.OPF));
+        for (Resource<?> resource : resources) {
+            book.addResource(resource, false);
+        }
+        return book;
+    }
+
+    /**
+     * An entry of the source file, that must be copied raw and never be read.
+     */
+    private static Resource<?> createSourceResource(EpubSourceArchive archive, String entryName, String href) throws IOException {
+        Resource<?> resource = new Resource<>(null, null, href, MediaType.XHTML);
+        resource.setDataSource(new ZipEntryDataSource(archive, archive.getZipFile().getEntry(entryName)) {
+            @Override
+            public InputStream getInputStream() throws IOException {
+                throw new IOException("unchanged entry " + entryName + " is read");
+            }
+        });
+        return resource;
+    }
+
+    private List<Path> listDirectory() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    public void save() throws Exception {
+        Path file = directory.resolve("book.epub");
+        Files.write(file, "former content".getBytes(StandardCharsets.UTF_8));
+
+        new EpubWriter().save(createSnapshot(new Resource<>(null, CHAPTER, "Text/chapter1.xhtml", MediaType.XHTML)), file);
+
+        try (ZipFile zipFile = new ZipFile(file.toFile())) {
+            assertEquals(MediaType.EPUB.getName(),
+                    IOUtils.toString(zipFile.getInputStream(zipFile.getEntry("mimetype")), StandardCharsets.US_ASCII));
+            assertArrayEquals(CHAPTER, IOUtils.toByteArray(zipFile.getInputStream(zipFile.getEntry("OEBPS/Text/chapter1.xhtml"))));
+            assertArrayEquals(PACKAGE_DOCUMENT, IOUtils.toByteArray(zipFile.getInputStream(zipFile.getEntry("OEBPS/content.opf"))));
+        }
+        assertEquals(List.of(file), listDirectory());
+    }
+
+    @Test
+    public void writeCopiesUnchangedEntriesRaw() throws Exception {
+        Path source = directory.resolve("source.epub");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(source))) {
+            for (String entryName : List.of("OEBPS/Text/chapter1.xhtml", "OEBPS/Text/chapter2.xhtml")) {
+                out.putNextEntry(new ZipEntry(entryName));
+                out.write(CHAPTER);
+                out.closeEntry();
+            }
+        }
+        byte[] changedChapter = "<html xmlns=\"http://www.w3.org/1999/xhtml\"><body><p>Changed</p></body></html>"
+                .getBytes(StandardCharsets.UTF_8);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (EpubSourceArchive archive = new EpubSourceArchive(source)) {
+            Resource<?> changedResource = createSourceResource(archive, "OEBPS/Text/chapter2.xhtml", "Text/chapter2.xhtml");
+            changedResource.setData(changedChapter);
+            Book book = createBook(createSourceResource(archive, "OEBPS/Text/chapter1.xhtml", "Text/chapter1.xhtml"),
+                    changedResource);
+
+            new EpubWriter(null).write(book, out);
+        }
+
+        Path file = directory.resolve("book.epub");
+        Files.write(file, out.toByteArray());
+        try (ZipFile sourceFile = new ZipFile(source.toFile()); ZipFile zipFile = new ZipFile(file.toFile())) {
+            ZipEntry sourceEntry = sourceFile.getEntry("OEBPS/Text/chapter1.xhtml");
+            ZipEntry copiedEntry = zipFile.getEntry("OEBPS/Text/chapter1.xhtml");
+            assertEquals(sourceEntry.getCrc(), copiedEntry.getCrc());
+            assertEquals(sourceEntry.getCompressedSize(), copiedEntry.getCompressedSize());
+            assertArrayEquals(CHAPTER, IOUtils.toByteArray(zipFile.getInputStream(copiedEntry)));
+            assertArrayEquals(changedChapter, IOUtils.toByteArray(zipFile.getInputStream(zipFile.getEntry("OEBPS/Text/chapter2.xhtml"))));
+        }
+    }
+
+    @Test
+    public void htmlIsProcessedWhileWritingNotForSnapshot() throws Exception {
+        byte[] html = "<html><body><p>not well-formed<br></body></html>".getBytes(StandardCharsets.UTF_8);
+        Resource<?> cleanedResource = new Resource<>(null, html, "Text/chapter1.xhtml", MediaType.XHTML);
+        Resource<?> editedResource = new Resource<>(null, html, "Text/chapter2.xhtml", MediaType.XHTML);
+        Resource<?> wellFormedResource = new Resource<>(null, CHAPTER, "Text/chapter3.xhtml", MediaType.XHTML);
+        Book book = createBook(cleanedResource, editedResource, wellFormedResource);
+
+        BookSnapshot snapshot = new EpubWriter().snapshot(book);
+        assertArrayEquals(html, cleanedResource.getData());
+
+        snapshot.processHtml();
+        assertArrayEquals(html, cleanedResource.getData());
+        BookSnapshot.Entry cleanedEntry = snapshot.getEntries().get(0);
+        byte[] cleanedHtml = IOUtils.toByteArray(cleanedEntry.getInputStream());
+        assertTrue(new String(cleanedHtml, StandardCharsets.UTF_8).contains("<br />"));
+        assertEquals(cleanedHtml.length, cleanedEntry.getSize());
+
+        List<Resource<?>> changedResources = snapshot.applyProcessedHtml(resource -> resource != editedResource);
+
+        assertEquals(List.of(cleanedResource), changedResources);
+        assertArrayEquals(cleanedHtml, cleanedResource.getData());
+        assertTrue(snapshot.isSavedUnchanged(cleanedResource));
+        //the resource opened in an editor keeps its data and is saved again
+        assertArrayEquals(html, editedResource.getData());
+        assertFalse(snapshot.isSavedUnchanged(editedResource));
+        assertArrayEquals(CHAPTER, wellFormedResource.getData());
+        assertTrue(snapshot.isSavedUnchanged(wellFormedResource));
+        //processed resources are not processed again
+        assertEquals(List.of(editedResource), new HtmlCleanerBookProcessor().getHtmlResources(book));
+    }
+
+    @Test
+    public void failedSaveKeepsFormerFile() throws Exception {
+        Path file = directory.resolve("book.epub");
+        byte[] formerContent = "former content".getBytes(StandardCharsets.UTF_8);
+        Files.write(file, formerContent);
+        BookSnapshot snapshot = createSnapshot(new Resource<>(null, CHAPTER, "Text/chapter1.xhtml", MediaType.XHTML),
+                createUnreadableResource("Text/chapter2.xhtml", MediaType.XHTML));
+
+        IOException exception = assertThrows(IOException.class, () -> new EpubWriter().save(snapshot, file));
+
+        assertEquals("data of Text/chapter2.xhtml not readable", exception.getMessage());
+        assertArrayEquals(formerContent, Files.readAllBytes(file));
+        //the temporary file is deleted
+        assertEquals(List.of(file), listDirectory());
+    }
+
+    @Test
+    public void findDuplicates() throws Exception {
+        byte[] otherChapter = Arrays.copyOf(CHAPTER, CHAPTER.length);
+        otherChapter[otherChapter.length - 1] = ' ';
+        BookSnapshot snapshot = createSnapshot(new Resource<>(null, CHAPTER, "Text/chapter1.xhtml", MediaType.XHTML),
+                new Resource<>(null, otherChapter, "Text/chapter2.xhtml", MediaType.XHTML),
+                new Resource<>(null, CHAPTER, "Text/chapter3.xhtml", MediaType.XHTML),
+                new Resource<>(null, PACKAGE_DOCUMENT, "Text/chapter4.xhtml", MediaType.XHTML));
+
+        assertEquals(List.of(List.of("Text/chapter1.xhtml", "Text/chapter3.xhtml")), EpubWriter.findDuplicates(snapshot));
+    }
+
+    @Test
+    public void saveParallel() throws Exception {
+        Path file = directory.resolve("book.epub");
+        List<Resource<?>> resources = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            resources.add(new Resource<>(null, CHAPTER, "Text/chapter" + i + ".xhtml", MediaType.XHTML));
+        }
+        EpubWriter epubWriter = new EpubWriter();
+        epubWriter.setParallelism(4);
+
+        epubWriter.save(createSnapshot(resources.toArray(new Resource<?>[0])), file);
+
+        try (ZipFile zipFile = new ZipFile(file.toFile())) {
+            for (int i = 0; i < 20; i++) {
+                assertArrayEquals(CHAPTER, IOUtils.toByteArray(zipFile.getInputStream(zipFile.getEntry("OEBPS/Text/chapter" + i + ".xhtml"))));
+            }
+        }
+    }
+
+    @Test
+    public void writeParallelInManifestOrder() throws Exception {
+        List<Resource<?>> resources = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            byte[] chapter = ("<p>chapter " + i + "</p>").repeat(i * 100 + 1).getBytes(StandardCharsets.UTF_8);
+            resources.add(new Resource<>(null, chapter, "Text/chapter" + i + ".xhtml", MediaType.XHTML));
+        }
+        EpubWriter epubWriter = new EpubWriter(null);
+        epubWriter.setParallelism(4);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        epubWriter.write(createBook(resources.toArray(new Resource<?>[0])), out);
+
+        List<String> entryNames = new ArrayList<>();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            ZipEntry entry = in.getNextEntry();
+            assertEquals("mimetype", entry.getName());
+            assertEquals(ZipEntry.STORED, entry.getMethod());
+            while ((entry = in.getNextEntry()) != null) {
+                if (entry.getName().startsWith("OEBPS/Text/")) {
+                    int index = entryNames.size();
+                    assertArrayEquals(resources.get(index).getData(), IOUtils.toByteArray(in), entry.getName());
+                    entryNames.add(entry.getName());
+                }
+            }
+        }
+        assertEquals(resources.stream().map(resource -> "OEBPS/" + resource.getHref()).collect(Collectors.toList()), entryNames);
+    }
+
+    @Test
+    public void failedParallelSaveKeepsFormerFile() throws Exception {
+        Path file = directory.resolve("book.epub");
+        byte[] formerContent = "former content".getBytes(StandardCharsets.UTF_8);
+        Files.write(file, formerContent);
+        BookSnapshot snapshot = createSnapshot(new Resource<>(null, CHAPTER, "Text/chapter1.xhtml", MediaType.XHTML),
+                createUnreadableResource("Text/chapter2.xhtml", MediaType.XHTML),
+                new Resource<>(null, CHAPTER, "Text/chapter3.xhtml", MediaType.XHTML));
+        EpubWriter epubWriter = new EpubWriter();
+        epubWriter.setParallelism(4);
+
+        IOException exception = assertThrows(IOException.class, () -> epubWriter.save(snapshot, file));
+
+        assertEquals("data of Text/chapter2.xhtml not readable", exception.getMessage());
+        assertArrayEquals(formerContent, Files.readAllBytes(file));
+        assertEquals(List.of(file), listDirectory());
+    }
+
+    @Test
+    public void failedSaveOfStoredResourceKeepsFormerFile() throws Exception {
+        Path file = directory.resolve("book.epub");
+        byte[] formerContent = "former content".getBytes(StandardCharsets.UTF_8);
+        Files.write(file, formerContent);
+        BookSnapshot snapshot = createSnapshot(createUnreadableResource("Images/cover.jpg", MediaType.JPG));
+
+        IOException exception = assertThrows(IOException.class, () -> new EpubWriter().save(snapshot, file));
+
+        assertEquals("data of Images/cover.jpg not readable", exception.getMessage());
+
+        assertArrayEquals(formerContent, Files.readAllBytes(file));
+        assertEquals(List.of(file), listDirectory());
+    }
+
+    @Test
+    public void failedCopyOfSourceEntryKeepsFormerFile() throws Exception {
+        String entryName = "OEBPS/Images/cover.jpg";
+        byte[] image = new byte[100_000];
+        new Random(1).nextBytes(image);
+        Path source = directory.resolve("source.epub");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(source))) {
+            out.putNextEntry(new ZipEntry(entryName));
+            out.write(image);
+            out.closeEntry();
+        }
+        Path file = directory.resolve("book.epub");
+        byte[] formerContent = "former content".getBytes(StandardCharsets.UTF_8);
+        Files.write(file, formerContent);
+
+        try (EpubSourceArchive archive = new EpubSourceArchive(source)) {
+            Resource<?> resource = new Resource<>(null, null, "Images/cover.jpg", MediaType.JPG);
+            resource.setDataSource(new ZipEntryDataSource(archive, archive.getZipFile().getEntry(entryName)));
+            //the source file ends in the middle of the entry, after the entry was found in the central directory
+            ZipCentralDirectory.Entry rawEntry = archive.getRawEntry(entryName);
+            try (FileChannel channel = FileChannel.open(source, StandardOpenOption.WRITE)) {
+                channel.truncate(rawEntry.getLocalHeaderOffset() + rawEntry.getCompressedSize() / 2);
+            }
+
+            IOException exception = assertThrows(IOException.class, () -> new EpubWriter().save(createSnapshot(resource), file));
+
+            assertEquals("unexpected end of entry " + entryName + " in " + source, exception.getMessage());
+        }
+
+        assertArrayEquals(formerContent, Files.readAllBytes(file));
+        assertEquals(Set.of(source, file), Set.copyOf(listDirectory()));
+    }
+
+    @Test
+    public void failedReplaceKeepsSourceArchiveOpen() throws Exception {
+        Path file = directory.resolve("book.epub");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(file))) {
+            out.putNextEntry(new ZipEntry("OEBPS/Text/chapter1.xhtml"));
+            out.write(CHAPTER);
+            out.closeEntry();
+        }
+        Path blockingFile = file.resolve("blocking");
+        try (EpubSourceArchive archive = new EpubSourceArchive(file)) {
+            ZipFile zipFile = archive.getZipFile();
+            BookSnapshot snapshot = new BookSnapshot(List.of(new BookSnapshot.Entry(
+                    new Resource<>(null, CHAPTER, "Text/chapter1.xhtml", MediaType.XHTML))), PACKAGE_DOCUMENT, archive);
+            EpubWriter epubWriter = new EpubWriter();
+            //the file is replaced by a non empty directory, so it can't be replaced by the saved file
+            epubWriter.setReplaceListener(tempFile -> {
+                try {
+                    Files.delete(file);
+                    Files.createDirectory(file);
+                    Files.createFile(blockingFile);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+
+            FileSystemException exception = assertThrows(FileSystemException.class, () -> epubWriter.save(snapshot, file));
+
+            assertEquals(file.toString(), exception.getOtherFile());
+
+            assertSame(zipFile, archive.getZipFile());
+            assertArrayEquals(CHAPTER, IOUtils.toByteArray(zipFile.getInputStream(zipFile.getEntry("OEBPS/Text/chapter1.xhtml"))));
+        }
+        assertEquals(List.of(file), listDirectory());
+    }
+}
@@ -0,0 +1,242 @@
+package de.machmireinebook.epubeditor.epublib.epub2;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.IOUtils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import de.machmireinebook.epubeditor.epublib.resource.EpubSourceArchive;
+import de.machmireinebook.epubeditor.epublib.resource.ZipCentralDirectory;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ZipWriterTest {
+
+    private static final byte[] MIMETYPE = "application/epub+zip".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CHAPTER = ("<html xmlns=\"http://www.w3.org/1999/xhtml\"><body><p>Kapitel über Straßen</p>"
+            + "</body></html>").getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    Path directory;
+
+    private static byte[] createRandomData(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * A zip file written by the jdk, with a deflated and a stored entry.
+     */
+    private Path createSourceFile(byte[] deflatedContent, byte[] storedContent) throws IOException {
+        Path source = directory.resolve("source.zip");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(source))) {
+            out.putNextEntry(new ZipEntry("deflated.xhtml"));
+            out.write(deflatedContent);
+            out.closeEntry();
+
+            ZipEntry storedEntry = new ZipEntry("stored.jpg");
+            storedEntry.setMethod(ZipEntry.STORED);
+            storedEntry.setSize(storedContent.length);
+            CRC32 crc = new CRC32();
+            crc.update(storedContent);
+            storedEntry.setCrc(crc.getValue());
+            out.putNextEntry(storedEntry);
+            out.write(storedContent);
+            out.closeEntry();
+        }
+        return source;
+    }
+
+    private static void copyRawEntry(EpubSourceArchive archive, String entryName, String name, ZipWriter zipWriter)
+            throws IOException {
+        ZipCentralDirectory.Entry rawEntry = archive.getRawEntry(entryName);
+        zipWriter.writeRawEntry(name, rawEntry.getMethod(), rawEntry.getCrc(), rawEntry.getCompressedSize(),
+                rawEntry.getSize(), channel -> archive.transferRawData(rawEntry, channel));
+    }
+
+    private void writeEntries(WritableByteChannel channel, EpubSourceArchive archive) throws IOException {
+        try (ZipWriter zipWriter = new ZipWriter(channel)) {
+            zipWriter.writeStoredEntry("mimetype", MIMETYPE);
+            zipWriter.writeDeflatedEntry("OEBPS/Text/Kapitel_ü.xhtml", CHAPTER);
+            try (OutputStream out = zipWriter.openDeflatedEntry("OEBPS/Text/streamed.xhtml", 1)) {
+                for (int i = 0; i < 1000; i++) {
+                    out.write(CHAPTER);
+                }
+            }
+            zipWriter.writeDeflatedData("OEBPS/Text/precompressed.xhtml",
+                    ZipWriter.deflate(new ByteArrayInputStream(CHAPTER)));
+            copyRawEntry(archive, "deflated.xhtml", "OEBPS/Text/copied.xhtml", zipWriter);
+            copyRawEntry(archive, "stored.jpg", "OEBPS/Images/copied.jpg", zipWriter);
+        }
+    }
+
+    private static void assertEntries(Path file, byte[] deflatedContent, byte[] storedContent) throws IOException {
+        try (ZipFile zipFile = new ZipFile(file.toFile())) {
+            assertEquals(6, zipFile.size());
+            ZipEntry mimetype = zipFile.getEntry("mimetype");
+            assertEquals(ZipEntry.STORED, mimetype.getMethod());
+            assertArrayEquals(MIMETYPE, IOUtils.toByteArray(zipFile.getInputStream(mimetype)));
+            assertArrayEquals(CHAPTER, IOUtils.toByteArray(zipFile.getInputStream(zipFile.getEntry("OEBPS/Text/Kapitel_ü.xhtml"))));
+            ZipEntry streamed = zipFile.getEntry("OEBPS/Text/streamed.xhtml");
+            assertEquals(1000L * CHAPTER.length, streamed.getSize());
+            assertEquals(1000L * CHAPTER.length, IOUtils.toByteArray(zipFile.getInputStream(streamed)).length);
+            assertArrayEquals(CHAPTER, IOUtils.toByteArray(zipFile.getInputStream(zipFile.getEntry("OEBPS/Text/precompressed.xhtml"))));
+            ZipEntry copied = zipFile.getEntry("OEBPS/Text/copied.xhtml");
+            assertEquals(ZipEntry.DEFLATED, copied.getMethod());
+            assertArrayEquals(deflatedContent, IOUtils.toByteArray(zipFile.getInputStream(copied)));
+            ZipEntry copiedImage = zipFile.getEntry("OEBPS/Images/copied.jpg");
+            assertEquals(ZipEntry.STORED, copiedImage.getMethod());
+            assertArrayEquals(storedContent, IOUtils.toByteArray(zipFile.getInputStream(copiedImage)));
+        }
+    }
+
+    @Test
+    public void writeIntoFileChannel() throws Exception {
+        byte[] deflatedContent = "<p>copied</p>".repeat(1000).getBytes(StandardCharsets.UTF_8);
+        byte[] storedContent = createRandomData(100_000);
+        Path file = directory.resolve("target.zip");
+        try (EpubSourceArchive archive = new EpubSourceArchive(createSourceFile(deflatedContent, storedContent))) {
+            writeEntries(Files.newByteChannel(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE), archive);
+        }
+
+        assertEntries(file, deflatedContent, storedContent);
+    }
+
+    @Test
+    public void writeIntoStream() throws Exception {
+        byte[] deflatedContent = "<p>copied</p>".repeat(1000).getBytes(StandardCharsets.UTF_8);
+        byte[] storedContent = createRandomData(100_000);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (EpubSourceArchive archive = new EpubSourceArchive(createSourceFile(deflatedContent, storedContent))) {
+            writeEntries(Channels.newChannel(out), archive);
+        }
+        Path file = directory.resolve("target.zip");
+        Files.write(file, out.toByteArray());
+
+        assertEntries(file, deflatedContent, storedContent);
+    }
+
+    @Test
+    public void writeStoredEntryFromStream() throws Exception {
+        byte[] image = createRandomData(1_000_000);
+        Path file = directory.resolve("target.zip");
+        try (ZipWriter zipWriter = new ZipWriter(Files.newByteChannel(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE))) {
+            zipWriter.writeStoredEntry("mimetype", MIMETYPE);
+            zipWriter.writeStoredEntry("OEBPS/Images/cover.jpg", () -> new ByteArrayInputStream(image));
+            zipWriter.writeStoredEntry("OEBPS/Images/empty.jpg", () -> new ByteArrayInputStream(new byte[0]));
+        }
+
+        try (ZipFile zipFile = new ZipFile(file.toFile())) {
+            ZipEntry entry = zipFile.getEntry("OEBPS/Images/cover.jpg");
+            assertEquals(ZipEntry.STORED, entry.getMethod());
+            assertEquals(image.length, entry.getSize());
+            assertArrayEquals(image, IOUtils.toByteArray(zipFile.getInputStream(entry)));
+            assertEquals(0, zipFile.getEntry("OEBPS/Images/empty.jpg").getSize());
+        }
+    }
+
+    @Test
+    public void storedEntryChangedWhileWrittenMakesZipFileIncomplete() throws Exception {
+        ZipWriter zipWriter = new ZipWriter(Channels.newChannel(new ByteArrayOutputStream()));
+        int[] calls = {0};
+
+        assertThrows(ZipException.class, () -> zipWriter.writeStoredEntry("OEBPS/Images/cover.jpg",
+                () -> new ByteArrayInputStream(createRandomData(1000 + calls[0]++))));
+
+        assertThrows(ZipException.class, () -> zipWriter.writeStoredEntry("after.txt", MIMETYPE));
+        zipWriter.close();
+    }
+
+    @Test
+    public void writeZip64Sizes() throws Exception {
+        byte[] compressedData = createRandomData(16);
+        long size = 5_000_000_000L;
+        Path file = directory.resolve("target.zip");
+        try (ZipWriter zipWriter = new ZipWriter(Files.newByteChannel(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE))) {
+            zipWriter.writeStoredEntry("mimetype", MIMETYPE);
+            zipWriter.writeRawEntry("large.bin", ZipEntry.DEFLATED, 42, compressedData.length, size,
+                    channel -> channel.write(ByteBuffer.wrap(compressedData)));
+            zipWriter.writeStoredEntry("after.txt", MIMETYPE);
+        }
+
+        try (ZipFile zipFile = new ZipFile(file.toFile())) {
+            ZipEntry entry = zipFile.getEntry("large.bin");
+            assertEquals(size, entry.getSize());
+            assertEquals(compressedData.length, entry.getCompressedSize());
+            assertArrayEquals(MIMETYPE, IOUtils.toByteArray(zipFile.getInputStream(zipFile.getEntry("after.txt"))));
+        }
+        try (EpubSourceArchive archive = new EpubSourceArchive(file)) {
+            ZipCentralDirectory.Entry rawEntry = archive.getRawEntry("large.bin");
+            assertEquals(size, rawEntry.getSize());
+            assertEquals(compressedData.length, rawEntry.getCompressedSize());
+        }
+    }
+
+    @Test
+    public void writeZip64EntryCount() throws Exception {
+        int count = 70_000;
+        Path file = directory.resolve("target.zip");
+        try (ZipWriter zipWriter = new ZipWriter(Files.newByteChannel(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE))) {
+            for (int i = 0; i < count; i++) {
+                zipWriter.writeStoredEntry("entry" + i, new byte[0]);
+            }
+        }
+
+        try (ZipFile zipFile = new ZipFile(file.toFile())) {
+            assertEquals(count, zipFile.size());
+            assertNotNull(zipFile.getEntry("entry" + (count - 1)));
+        }
+    }
+
+    @Test
+    public void failedRawEntryMakesZipFileIncomplete() throws Exception {
+        Path file = directory.resolve("target.zip");
+        ZipWriter zipWriter = new ZipWriter(Files.newByteChannel(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE));
+        zipWriter.writeStoredEntry("mimetype", MIMETYPE);
+
+        assertThrows(IOException.class, () -> zipWriter.writeRawEntry("copied.xhtml", ZipEntry.DEFLATED, 42, 100, 1000,
+                channel -> {
+                    channel.write(ByteBuffer.wrap(createRandomData(10)));
+                    throw new IOException("source file is truncated");
+                }));
+
+        assertThrows(ZipException.class, () -> zipWriter.writeStoredEntry("after.txt", MIMETYPE));
+        assertThrows(ZipException.class, zipWriter::finish);
+        //closes the channel without writing a central directory
+        zipWriter.close();
+        assertThrows(ZipException.class, () -> new ZipFile(file.toFile()).close());
+    }
+
+    @Test
+    public void rawEntryWithWrongSizeMakesZipFileIncomplete() throws Exception {
+        ZipWriter zipWriter = new ZipWriter(Channels.newChannel(new ByteArrayOutputStream()));
+
+        assertThrows(ZipException.class, () -> zipWriter.writeRawEntry("copied.xhtml", ZipEntry.DEFLATED, 42, 100, 1000,
+                channel -> channel.write(ByteBuffer.wrap(createRandomData(10)))));
+
+        assertThrows(ZipException.class, () -> zipWriter.writeDeflatedEntry("after.xhtml", CHAPTER));
+        zipWriter.close();
+    }
+}
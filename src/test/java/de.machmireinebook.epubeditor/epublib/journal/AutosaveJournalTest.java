@@ -0,0 +1,252 @@
+package de.machmireinebook.epubeditor.epublib.journal;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import de.machmireinebook.epubeditor.epublib.domain.Book;
+import de.machmireinebook.epubeditor.epublib.domain.MediaType;
+import de.machmireinebook.epubeditor.epublib.epub2.BookSnapshot;
+import de.machmireinebook.epubeditor.epublib.epub2.EpubWriter;
+import de.machmireinebook.epubeditor.epublib.resource.Resource;
+import de.machmireinebook.epubeditor.epublib.resource.SpillFileDataSource;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AutosaveJournalTest {
+
+    @TempDir
+    Path directory;
+
+    private Path epubFile;
+    private Path journalDirectory;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        epubFile = directory.resolve("book.epub");
+        Files.write(epubFile, "saved epub".getBytes(StandardCharsets.UTF_8));
+        journalDirectory = directory.resolve("journal");
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The book as it is saved in the epub file, with three scripts.
+     */
+    private static Book createSavedBook() {
+        Book book = Book.createMinimalBook();
+        book.addResource(new Resource<>("script", bytes("var a = 1;"), "Misc/script.js", MediaType.JAVASCRIPT));
+        book.addResource(new Resource<>("old", bytes("var b = 1;"), "Misc/old.js", MediaType.JAVASCRIPT));
+        book.addResource(new Resource<>("removed", bytes("var c = 1;"), "Misc/removed.js", MediaType.JAVASCRIPT));
+        return book;
+    }
+
+    private static Set<String> describe(List<AutosaveJournal.Change> changes) {
+        return changes.stream()
+                .map(change -> change.getType() + " " + change.getHref() + (change.getNewHref() != null ? " " + change.getNewHref() : ""))
+                .collect(Collectors.toSet());
+    }
+
+    private List<AutosaveJournal.Change> readChanges() {
+        AutosaveJournal journal = new AutosaveJournal(journalDirectory, epubFile);
+        try {
+            return journal.readChanges();
+        } finally {
+            journal.close();
+        }
+    }
+
+    /**
+     * Data changes, added, renamed and removed resources are recorded.
+     */
+    private void recordChanges(Book book) {
+        AutosaveJournal journal = new AutosaveJournal(journalDirectory, epubFile);
+        journal.record(book);
+        book.getResources().getByHref("Misc/script.js").setData(bytes("var a = 2;"));
+        book.addResource(new Resource<>("added", bytes("var d = 1;"), "Misc/added.js", MediaType.JAVASCRIPT));
+        book.getResources().getByHref("Misc/old.js").setHref("Misc/renamed.js");
+        book.removeResource(book.getResources().getByHref("Misc/removed.js"));
+        journal.close();
+    }
+
+    @Test
+    public void recordChangesOfBook() {
+        recordChanges(createSavedBook());
+
+        assertEquals(Set.of("DATA Misc/script.js", "DATA Misc/added.js", "RENAMED Misc/old.js Misc/renamed.js",
+                "REMOVED Misc/removed.js"), describe(readChanges()));
+    }
+
+    @Test
+    public void replayChanges() {
+        recordChanges(createSavedBook());
+        Book book = createSavedBook();
+
+        AutosaveJournal journal = new AutosaveJournal(journalDirectory, epubFile);
+        int replayed = journal.replay(book);
+        journal.close();
+
+        assertEquals(4, replayed);
+        assertArrayEquals(bytes("var a = 2;"), book.getResources().getByHref("Misc/script.js").getData());
+        Resource<?> added = book.getResources().getByHref("Misc/added.js");
+        assertNotNull(added);
+        assertEquals("added", added.getId());
+        assertEquals(MediaType.JAVASCRIPT, added.getMediaType());
+        assertArrayEquals(bytes("var d = 1;"), added.getData());
+        assertNull(book.getResources().getByHref("Misc/old.js"));
+        assertArrayEquals(bytes("var b = 1;"), book.getResources().getByHref("Misc/renamed.js").getData());
+        assertNull(book.getResources().getByHref("Misc/removed.js"));
+    }
+
+    @Test
+    public void replayIsNotRecordedAgain() {
+        recordChanges(createSavedBook());
+        Book book = createSavedBook();
+
+        AutosaveJournal journal = new AutosaveJournal(journalDirectory, epubFile);
+        journal.record(book);
+        journal.replay(book);
+        journal.close();
+
+        assertEquals(4, readChanges().size());
+    }
+
+    @Test
+    public void mergeDataChangesOfResource() {
+        Book book = createSavedBook();
+        AutosaveJournal journal = new AutosaveJournal(journalDirectory, epubFile);
+        journal.record(book);
+        Resource<?> script = book.getResources().getByHref("Misc/script.js");
+        script.setData(bytes("var a = 2;"));
+        script.setData(bytes("var a = 3;"));
+        journal.close();
+
+        List<AutosaveJournal.Change> changes = readChanges();
+        assertEquals(1, changes.size());
+        assertArrayEquals(bytes("var a = 3;"), changes.get(0).getData());
+    }
+
+    @Test
+    public void streamDataOfAddedResourceFromSource() throws Exception {
+        byte[] image = new byte[300_000];
+        new Random(1).nextBytes(image);
+        Resource<?> resource = new Resource<>("image", null, "Images/image.png", MediaType.PNG);
+        resource.setDataSource(SpillFileDataSource.create(image));
+        Book book = createSavedBook();
+        AutosaveJournal journal = new AutosaveJournal(journalDirectory, epubFile);
+        journal.record(book);
+        book.addResource(resource);
+        journal.close();
+
+        assertFalse(resource.isDataLoaded());
+        List<AutosaveJournal.Change> changes = readChanges();
+        assertEquals(1, changes.size());
+        assertEquals(MediaType.PNG.getName(), changes.get(0).getMediaType());
+        assertArrayEquals(image, changes.get(0).getData());
+    }
+
+    @Test
+    public void ignoreIncompleteStreamedRecord() throws Exception {
+        Book book = createSavedBook();
+        AutosaveJournal journal = new AutosaveJournal(journalDirectory, epubFile);
+        journal.record(book);
+        book.getResources().getByHref("Misc/script.js").setData(bytes("var a = 2;"));
+        //waits until the record is written
+        journal.readChanges();
+        Path journalFile;
+        try (Stream<Path> files = Files.list(journalDirectory)) {
+            journalFile = files.findFirst().orElseThrow();
+        }
+        int lastRecordStart = (int) Files.size(journalFile);
+        book.getResources().getByHref("Misc/old.js").setData(bytes("var b = 2;"));
+        journal.close();
+
+        //the program crashed before the length of the last record was written
+        byte[] content = Files.readAllBytes(journalFile);
+        ByteBuffer.wrap(content).putInt(lastRecordStart + 1, -1);
+        Files.write(journalFile, content);
+
+        assertEquals(Set.of("DATA Misc/script.js"), describe(readChanges()));
+    }
+
+    @Test
+    public void ignoreJournalOfChangedEpubFile() throws Exception {
+        recordChanges(createSavedBook());
+
+        Files.write(epubFile, bytes("epub saved by another program"));
+
+        assertTrue(readChanges().isEmpty());
+    }
+
+    @Test
+    public void keepJournalValidForSavedFileBeforeCompaction() throws Exception {
+        Book book = createSavedBook();
+        AutosaveJournal journal = new AutosaveJournal(journalDirectory, epubFile);
+        journal.record(book);
+        book.getResources().getByHref("Misc/script.js").setData(bytes("var a = 2;"));
+
+        //the save is interrupted by a crash after the written file replaced the epub file
+        Path writtenFile = directory.resolve("book.epub.tmp");
+        Files.write(writtenFile, bytes("epub with the changes"));
+        journal.recordSaving(writtenFile);
+        book.getResources().getByHref("Misc/old.js").setData(bytes("var b = 2;"));
+        Files.move(writtenFile, epubFile, StandardCopyOption.REPLACE_EXISTING);
+        journal.close();
+
+        assertEquals(Set.of("DATA Misc/script.js", "DATA Misc/old.js"), describe(readChanges()));
+    }
+
+    @Test
+    public void compactToChangesSinceSnapshot() throws Exception {
+        Book book = createSavedBook();
+        AutosaveJournal journal = new AutosaveJournal(journalDirectory, epubFile);
+        journal.record(book);
+        book.getResources().getByHref("Misc/script.js").setData(bytes("var a = 2;"));
+        BookSnapshot snapshot = new EpubWriter(null).snapshot(book);
+
+        //changed while the snapshot is saved
+        book.getResources().getByHref("Misc/old.js").setData(bytes("var b = 2;"));
+        book.addResource(new Resource<>("added", bytes("var d = 1;"), "Misc/added.js", MediaType.JAVASCRIPT));
+        book.removeResource(book.getResources().getByHref("Misc/removed.js"));
+        Files.write(epubFile, bytes("saved snapshot"));
+        journal.compact(book, snapshot);
+        journal.close();
+
+        assertEquals(Set.of("DATA Misc/old.js", "DATA Misc/added.js", "REMOVED Misc/removed.js"), describe(readChanges()));
+    }
+
+    @Test
+    public void deleteJournalWithoutChangesOnCompaction() throws Exception {
+        Book book = createSavedBook();
+        AutosaveJournal journal = new AutosaveJournal(journalDirectory, epubFile);
+        journal.record(book);
+        book.getResources().getByHref("Misc/script.js").setData(bytes("var a = 2;"));
+        BookSnapshot snapshot = new EpubWriter(null).snapshot(book);
+        Files.write(epubFile, bytes("saved snapshot"));
+        journal.compact(book, snapshot);
+        journal.close();
+
+        assertTrue(readChanges().isEmpty());
+        try (Stream<Path> files = Files.list(journalDirectory)) {
+            assertEquals(0, files.count());
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package de.machmireinebook.epubeditor.epublib.resource;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import de.machmireinebook.epubeditor.epublib.domain.MediaType;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class BlobStoreTest {
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void internSameContent() {
+        BlobStore store = new BlobStore();
+        byte[] data = bytes("font data");
+
+        assertSame(data, store.intern(data));
+        assertSame(data, store.intern(bytes("font data")));
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void keepDifferentContentOfSameSize() {
+        BlobStore store = new BlobStore();
+        byte[] data = bytes("font data 1");
+        byte[] otherData = bytes("font data 2");
+
+        assertSame(data, store.intern(data));
+        assertSame(otherData, store.intern(otherData));
+        assertSame(otherData, store.intern(bytes("font data 2")));
+        assertEquals(2, store.size());
+    }
+
+    @Test
+    public void keepDifferentContentOfDifferentSize() {
+        BlobStore store = new BlobStore();
+        byte[] data = bytes("font");
+        byte[] otherData = bytes("font data");
+
+        assertSame(data, store.intern(data));
+        assertSame(otherData, store.intern(otherData));
+        assertEquals(2, store.size());
+    }
+
+    @Test
+    public void removeUnusedArrays() throws Exception {
+        BlobStore store = new BlobStore();
+        store.intern(bytes("font data 1"));
+        store.intern(bytes("font data 2"));
+
+        for (int i = 0; i < 50 && store.size() > 0; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void shareDataOfResourcesWithSameContent() {
+        Resource<?> font1 = new Resource<>("font1", bytes("shared font"), "Fonts/font1.ttf", MediaType.TTF);
+        Resource<?> font2 = new Resource<>("font2", bytes("shared font"), "Fonts/font2.ttf", MediaType.TTF);
+
+        assertSame(font1.getData(), font2.getData());
+    }
+
+    @Test
+    public void changeDataOfResourceWithSharedContent() {
+        Resource<?> font1 = new Resource<>("font1", bytes("shared font"), "Fonts/font1.ttf", MediaType.TTF);
+        Resource<?> font2 = new Resource<>("font2", bytes("shared font"), "Fonts/font2.ttf", MediaType.TTF);
+
+        font2.setData(bytes("changed font"));
+
+        assertArrayEquals(bytes("shared font"), font1.getData());
+        assertArrayEquals(bytes("changed font"), font2.getData());
+    }
+
+    @Test
+    public void changeDataOfCopy() {
+        Resource<?> font = new Resource<>("font", bytes("copied font"), "Fonts/font.ttf", MediaType.TTF);
+        Resource<?> copy = (Resource<?>) font.clone();
+        assertSame(font.getData(), copy.getData());
+
+        copy.setData(bytes("changed font"));
+
+        assertArrayEquals(bytes("copied font"), font.getData());
+        assertArrayEquals(bytes("changed font"), copy.getData());
+        assertNotSame(font.getData(), copy.getData());
+    }
+}
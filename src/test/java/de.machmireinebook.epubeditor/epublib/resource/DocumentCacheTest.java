@@ -0,0 +1,65 @@
+package de.machmireinebook.epubeditor.epublib.resource;
+
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.junit.jupiter.api.Test;
+
+import de.machmireinebook.epubeditor.epublib.domain.MediaType;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class DocumentCacheTest {
+
+    private static Resource<?> createResource(String href) {
+        return new Resource<>(null, new byte[0], href, MediaType.XHTML);
+    }
+
+    private static Document createDocument() {
+        return new Document(new Element("html"));
+    }
+
+    @Test
+    public void getDocumentOfDataVersion() {
+        DocumentCache cache = new DocumentCache(1000);
+        Resource<?> resource = createResource("Text/chapter1.xhtml");
+        Document document = createDocument();
+
+        cache.put(resource, 1, document, 100);
+
+        assertSame(document, cache.get(resource, 1));
+        assertNull(cache.get(resource, 2));
+        assertNull(cache.get(createResource("Text/chapter1.xhtml"), 1));
+    }
+
+    @Test
+    public void evictLeastRecentlyUsedDocument() {
+        DocumentCache cache = new DocumentCache(250);
+        Resource<?> chapter1 = createResource("Text/chapter1.xhtml");
+        Resource<?> chapter2 = createResource("Text/chapter2.xhtml");
+        Resource<?> chapter3 = createResource("Text/chapter3.xhtml");
+        cache.put(chapter1, 1, createDocument(), 100);
+        cache.put(chapter2, 1, createDocument(), 100);
+        cache.get(chapter1, 1);
+
+        cache.put(chapter3, 1, createDocument(), 100);
+
+        assertNull(cache.get(chapter2, 1));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void releaseDocumentsOfCollectedResources() throws Exception {
+        DocumentCache cache = new DocumentCache(1000);
+        cache.put(createResource("Text/chapter1.xhtml"), 1, createDocument(), 100);
+        cache.put(createResource("Text/chapter2.xhtml"), 1, createDocument(), 100);
+
+        for (int i = 0; i < 50 && cache.size() > 0; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,111 @@
+package de.machmireinebook.epubeditor.epublib.resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import de.machmireinebook.epubeditor.epublib.domain.MediaType;
+import de.machmireinebook.epubeditor.epublib.epub2.ResourcesLoader;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class EpubSourceArchiveTest {
+
+    @TempDir
+    Path directory;
+
+    private static byte[] createData(int size) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) (i * 31 + i / 7);
+        }
+        return data;
+    }
+
+    private static void putStoredEntry(ZipOutputStream out, String name, byte[] data) throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(data.length);
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        entry.setCrc(crc.getValue());
+        out.putNextEntry(entry);
+        out.write(data);
+        out.closeEntry();
+    }
+
+    private Path createEpub(byte[] audio, byte[] text) throws IOException {
+        Path file = directory.resolve("book.epub");
+        try (OutputStream fileOut = Files.newOutputStream(file); ZipOutputStream out = new ZipOutputStream(fileOut)) {
+            putStoredEntry(out, "mimetype", "application/epub+zip".getBytes());
+            putStoredEntry(out, "OEBPS/Audio/track.mp3", audio);
+            out.putNextEntry(new ZipEntry("OEBPS/Text/chapter.xhtml"));
+            out.write(text);
+            out.closeEntry();
+        }
+        return file;
+    }
+
+    @Test
+    public void readStoredEntry() throws IOException {
+        byte[] audio = createData(200_000);
+        try (EpubSourceArchive archive = new EpubSourceArchive(createEpub(audio, new byte[100]))) {
+            try (InputStream in = archive.getStoredEntryInputStream("OEBPS/Audio/track.mp3")) {
+                assertArrayEquals(audio, in.readAllBytes());
+            }
+        }
+    }
+
+    @Test
+    public void compressedEntryIsNotStreamed() throws IOException {
+        try (EpubSourceArchive archive = new EpubSourceArchive(createEpub(createData(10), new byte[100]))) {
+            assertNull(archive.getStoredEntryInputStream("OEBPS/Text/chapter.xhtml"));
+            assertNull(archive.getStoredEntryInputStream("OEBPS/Text/missing.xhtml"));
+        }
+    }
+
+    @Test
+    public void streamContinuesAfterClosingArchive() throws IOException {
+        byte[] audio = createData(100_000);
+        try (EpubSourceArchive archive = new EpubSourceArchive(createEpub(audio, new byte[100]))) {
+            try (InputStream in = archive.getStoredEntryInputStream("OEBPS/Audio/track.mp3")) {
+                byte[] start = in.readNBytes(1000);
+                archive.close();
+                byte[] rest = in.readAllBytes();
+                assertEquals(1000, start.length);
+                assertEquals(audio.length - 1000, rest.length);
+                assertEquals(audio[1000], rest[0]);
+                assertEquals(audio[audio.length - 1], rest[rest.length - 1]);
+            }
+        }
+    }
+
+    @Test
+    public void largeStoredMediaIsStreamedIntoResource() throws IOException {
+        byte[] audio = createData((int) ResourcesLoader.MIN_STREAMED_SIZE);
+        try (EpubSourceArchive archive = new EpubSourceArchive(createEpub(audio, new byte[100]))) {
+            ZipEntry zipEntry = archive.getZipFile().getEntry("OEBPS/Audio/track.mp3");
+            ZipEntryDataSource dataSource = ResourcesLoader.createDataSource(archive, zipEntry, MediaType.MP3);
+            assertTrue(dataSource instanceof StoredZipEntryDataSource);
+
+            Resource<?> resource = new Resource<>("track", null, "Audio/track.mp3", MediaType.MP3);
+            resource.setDataSource(dataSource);
+            try (InputStream in = resource.getStreamedData()) {
+                assertArrayEquals(audio, in.readAllBytes());
+            }
+            assertArrayEquals(audio, resource.getData());
+            assertNull(resource.getStreamedData());
+        }
+    }
+}
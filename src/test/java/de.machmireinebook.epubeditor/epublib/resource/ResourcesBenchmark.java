@@ -0,0 +1,109 @@
+package de.machmireinebook.epubeditor.epublib.resource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jdom2.Document;
+import org.jdom2.Element;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import de.machmireinebook.epubeditor.epublib.domain.Book;
+import de.machmireinebook.epubeditor.epublib.domain.MediaType;
+import de.machmireinebook.epubeditor.epublib.epub2.PackageDocumentReader;
+
+import static de.machmireinebook.epubeditor.epublib.Constants.NAMESPACE_DUBLIN_CORE;
+import static de.machmireinebook.epubeditor.epublib.Constants.NAMESPACE_OPF;
+
+/**
+ * Loads a synthetic manifest with 20k items: building the {@link Resources} of the book, and reading the manifest and
+ * the spine of the package document, which looks up every spine item by id.
+ *
+ * Run with the main method from the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResourcesBenchmark {
+
+    private static final MediaType[] MEDIA_TYPES = {MediaType.XHTML, MediaType.XHTML, MediaType.XHTML, MediaType.JPG,
+            MediaType.PNG, MediaType.CSS, MediaType.OPENTYPE_UNTIL_3, MediaType.MP3};
+
+    @Param({"20000"})
+    private int manifestSize;
+
+    private List<String> hrefs;
+    private Document packageDocument;
+
+    @Setup
+    public void setup() {
+        hrefs = new ArrayList<>(manifestSize);
+        Element root = new Element("package", NAMESPACE_OPF);
+        root.setAttribute("version", "2.0");
+        Element metadata = new Element("metadata", NAMESPACE_OPF);
+        metadata.addContent(new Element("title", NAMESPACE_DUBLIN_CORE).setText("Benchmark"));
+        Element manifest = new Element("manifest", NAMESPACE_OPF);
+        Element spine = new Element("spine", NAMESPACE_OPF);
+        for (int i = 0; i < manifestSize; i++) {
+            MediaType mediaType = MEDIA_TYPES[i % MEDIA_TYPES.length];
+            String href = "item" + i + mediaType.getDefaultExtension();
+            hrefs.add(href);
+            manifest.addContent(new Element("item", NAMESPACE_OPF)
+                    .setAttribute("id", "id" + i)
+                    .setAttribute("href", href)
+                    .setAttribute("media-type", mediaType.getName()));
+            if (mediaType == MediaType.XHTML) {
+                spine.addContent(new Element("itemref", NAMESPACE_OPF).setAttribute("idref", "id" + i));
+            }
+        }
+        root.addContent(metadata);
+        root.addContent(manifest);
+        root.addContent(spine);
+        packageDocument = new Document(root);
+    }
+
+    private Resources createResources() {
+        Resources resources = new Resources();
+        for (int i = 0; i < hrefs.size(); i++) {
+            resources.put(new Resource(null, new byte[0], hrefs.get(i), MEDIA_TYPES[i % MEDIA_TYPES.length]));
+        }
+        return resources;
+    }
+
+    @Benchmark
+    public Resources putManifest() {
+        return createResources();
+    }
+
+    @Benchmark
+    public void readPackageDocument(Blackhole blackhole) {
+        Book book = new Book();
+        Resource packageResource = new Resource(null, new byte[0], "content.opf", MediaType.OPF);
+        PackageDocumentReader.read(packageResource, packageDocument, book, createResources());
+        blackhole.consume(book);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ResourcesBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,195 @@
+package de.machmireinebook.epubeditor.epublib.resource;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import de.machmireinebook.epubeditor.epublib.domain.MediaType;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class ResourcesTest {
+
+    private static Resource<?> createResource(String id, String href) {
+        return new Resource<>(id, new byte[0], href, MediaType.XHTML);
+    }
+
+    private static List<String> recordEvents(Resources resources) {
+        List<String> events = new ArrayList<>();
+        resources.addChangeListener(event -> events.add(event.getType() + " " + event.getResource().getHref()
+                + (event.getOldHref() != null ? " " + event.getOldHref() : "")));
+        return events;
+    }
+
+    @Test
+    public void getById() {
+        Resources resources = new Resources();
+        Resource<?> chapter1 = resources.put(createResource("chapter1", "Text/chapter1.xhtml"));
+        Resource<?> chapter2 = resources.put(createResource("chapter2", "Text/chapter2.xhtml"));
+
+        assertSame(chapter1, resources.getById("chapter1"));
+        assertSame(chapter2, resources.getById("chapter2"));
+        assertNull(resources.getById("chapter3"));
+    }
+
+    @Test
+    public void getByIdFollowsChangedId() {
+        Resources resources = new Resources();
+        Resource<?> chapter = resources.put(createResource("chapter1", "Text/chapter1.xhtml"));
+
+        chapter.setId("intro");
+
+        assertNull(resources.getById("chapter1"));
+        assertSame(chapter, resources.getById("intro"));
+    }
+
+    @Test
+    public void getByIdAfterRemovingResourceWithDuplicateId() {
+        Resources resources = new Resources();
+        Resource<?> chapter1 = resources.put(createResource("chapter1", "Text/chapter1.xhtml"));
+        Resource<?> chapter2 = resources.put(createResource("chapter2", "Text/chapter2.xhtml"));
+        chapter2.setId("chapter1");
+
+        assertSame(chapter1, resources.getById("chapter1"));
+        resources.remove(chapter1);
+        assertSame(chapter2, resources.getById("chapter1"));
+        resources.remove(chapter2.getHref());
+        assertNull(resources.getById("chapter1"));
+    }
+
+    @Test
+    public void getByIdAfterChangingDuplicateIdOfIndexedResource() {
+        Resources resources = new Resources();
+        Resource<?> chapter1 = resources.put(createResource("chapter1", "Text/chapter1.xhtml"));
+        Resource<?> chapter2 = resources.put(createResource("chapter2", "Text/chapter2.xhtml"));
+        chapter2.setId("chapter1");
+
+        chapter1.setId("intro");
+
+        assertSame(chapter2, resources.getById("chapter1"));
+        assertSame(chapter1, resources.getById("intro"));
+        assertNull(resources.getById("chapter2"));
+    }
+
+    @Test
+    public void getByIdAfterReplacingResourceWithDuplicateIdByRename() {
+        Resources resources = new Resources();
+        Resource<?> chapter1 = resources.put(createResource("chapter1", "Text/chapter1.xhtml"));
+        Resource<?> chapter2 = resources.put(createResource("chapter2", "Text/chapter2.xhtml"));
+        Resource<?> chapter3 = resources.put(createResource("chapter3", "Text/chapter3.xhtml"));
+        chapter3.setId("chapter1");
+
+        //renaming chapter2 to the href of chapter1 replaces chapter1
+        chapter2.setHref("Text/chapter1.xhtml");
+        resources.rename(chapter2, "Text/chapter2.xhtml");
+
+        assertSame(chapter3, resources.getById("chapter1"));
+        assertSame(chapter2, resources.getById("chapter2"));
+    }
+
+    @Test
+    public void fireAddedOnce() {
+        Resources resources = new Resources();
+        List<String> events = recordEvents(resources);
+        Resource<?> chapter = createResource("chapter1", "Text/chapter1.xhtml");
+
+        resources.put(chapter);
+        resources.put(chapter);
+
+        assertEquals(List.of("ADDED Text/chapter1.xhtml"), events);
+    }
+
+    @Test
+    public void fireRemoved() {
+        Resources resources = new Resources();
+        Resource<?> chapter1 = resources.put(createResource("chapter1", "Text/chapter1.xhtml"));
+        resources.put(createResource("chapter2", "Text/chapter2.xhtml"));
+        List<String> events = recordEvents(resources);
+
+        resources.remove(chapter1);
+        resources.remove("Text/chapter2.xhtml");
+        resources.remove("Text/chapter3.xhtml");
+
+        assertEquals(List.of("REMOVED Text/chapter1.xhtml Text/chapter1.xhtml",
+                "REMOVED Text/chapter2.xhtml Text/chapter2.xhtml"), events);
+    }
+
+    @Test
+    public void fireRenamed() {
+        Resources resources = new Resources();
+        Resource<?> chapter = resources.put(createResource("chapter1", "Text/chapter1.xhtml"));
+        List<String> events = recordEvents(resources);
+
+        chapter.setHref("Text/intro.xhtml");
+        resources.rename(chapter, "Text/chapter1.xhtml");
+
+        assertEquals(List.of("RENAMED Text/intro.xhtml Text/chapter1.xhtml"), events);
+    }
+
+    @Test
+    public void fireRemovedBeforeRenamedOnReplacingRename() {
+        Resources resources = new Resources();
+        resources.put(createResource("chapter1", "Text/chapter1.xhtml"));
+        Resource<?> chapter2 = resources.put(createResource("chapter2", "Text/chapter2.xhtml"));
+        List<String> events = recordEvents(resources);
+
+        chapter2.setHref("Text/chapter1.xhtml");
+        resources.rename(chapter2, "Text/chapter2.xhtml");
+
+        assertEquals(List.of("REMOVED Text/chapter1.xhtml Text/chapter1.xhtml",
+                "RENAMED Text/chapter1.xhtml Text/chapter2.xhtml"), events);
+    }
+
+    @Test
+    public void fireDataChangedOnlyForContainedResources() {
+        Resources resources = new Resources();
+        Resource<?> chapter = resources.put(createResource("chapter1", "Text/chapter1.xhtml"));
+        List<ResourceChangeEvent> events = new ArrayList<>();
+        resources.addChangeListener(events::add);
+        long oldVersion = chapter.getDataVersion();
+
+        chapter.setData(new byte[]{1});
+        long newVersion = chapter.getDataVersion();
+        resources.remove(chapter);
+        chapter.setData(new byte[]{2});
+
+        assertEquals(2, events.size());
+        assertEquals(ResourceChangeEvent.Type.DATA_CHANGED, events.get(0).getType());
+        assertEquals(oldVersion, events.get(0).getOldVersion());
+        assertEquals(newVersion, events.get(0).getNewVersion());
+        assertEquals(ResourceChangeEvent.Type.REMOVED, events.get(1).getType());
+    }
+
+    @Test
+    public void putRenamedResourceMovesIt() {
+        Resources resources = new Resources();
+        Resource<?> chapter = resources.put(createResource("chapter1", "Text/chapter1.xhtml"));
+        List<String> events = recordEvents(resources);
+
+        chapter.setHref("Text/intro.xhtml");
+        resources.put(chapter);
+        chapter.setData(new byte[]{1});
+
+        assertEquals(1, resources.size());
+        assertNull(resources.getByHref("Text/chapter1.xhtml"));
+        assertSame(chapter, resources.getByHref("Text/intro.xhtml"));
+        assertSame(chapter, resources.getById("chapter1"));
+        assertEquals(List.of("RENAMED Text/intro.xhtml Text/chapter1.xhtml", "DATA_CHANGED Text/intro.xhtml"), events);
+    }
+
+    @Test
+    public void putContainedResourceAgainFiresNothing() {
+        Resources resources = new Resources();
+        Resource<?> chapter = resources.put(createResource("chapter1", "Text/chapter1.xhtml"));
+        List<String> events = recordEvents(resources);
+
+        resources.put(chapter);
+        chapter.setData(new byte[]{1});
+
+        assertEquals(1, resources.size());
+        assertEquals(List.of("DATA_CHANGED Text/chapter1.xhtml"), events);
+    }
+}
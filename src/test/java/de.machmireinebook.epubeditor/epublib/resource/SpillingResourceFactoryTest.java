@@ -0,0 +1,111 @@
+package de.machmireinebook.epubeditor.epublib.resource;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.apache.commons.io.IOUtils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import de.machmireinebook.epubeditor.epublib.domain.MediaType;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SpillingResourceFactoryTest {
+
+    private static final long THRESHOLD = 1000;
+
+    private final SpillingResourceFactory<FontResource, ?> factory = new SpillingResourceFactory<>(FontResourceFactory.getInstance());
+
+    @BeforeEach
+    public void setUp() {
+        SpillingResourceFactory.setThreshold(THRESHOLD);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        SpillingResourceFactory.setThreshold(SpillingResourceFactory.DEFAULT_THRESHOLD);
+    }
+
+    private static byte[] createData(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    private static Path getSpillFile(Resource<?> resource) {
+        return ((SpillFileDataSource) resource.getDataSource()).getFile();
+    }
+
+    @Test
+    public void keepSmallDataInHeap() {
+        byte[] data = createData((int) THRESHOLD - 1);
+
+        FontResource resource = factory.createResource("font", data, "Fonts/font.ttf", MediaType.TTF);
+
+        assertTrue(resource.isDataLoaded());
+        assertNull(resource.getDataSource());
+        assertArrayEquals(data, resource.getData());
+    }
+
+    @Test
+    public void spillLargeDataIntoFile() throws Exception {
+        byte[] data = createData((int) THRESHOLD);
+
+        FontResource resource = factory.createResource("font", data, "Fonts/font.ttf", MediaType.TTF);
+
+        assertFalse(resource.isDataLoaded());
+        assertEquals("font", resource.getId());
+        assertEquals("Fonts/font.ttf", resource.getHref());
+        assertEquals(THRESHOLD, resource.getSize());
+        assertArrayEquals(data, Files.readAllBytes(getSpillFile(resource)));
+        assertArrayEquals(data, IOUtils.toByteArray(resource.getInputStream()));
+        //streaming doesn't load the data into the heap
+        assertFalse(resource.isDataLoaded());
+    }
+
+    @Test
+    public void releaseLoadedDataOfSpilledResource() {
+        byte[] data = createData((int) THRESHOLD);
+        FontResource resource = factory.createResource("font", data, "Fonts/font.ttf", MediaType.TTF);
+
+        assertArrayEquals(data, resource.getData());
+        assertTrue(resource.isDataLoaded());
+        resource.close();
+
+        assertFalse(resource.isDataLoaded());
+        assertArrayEquals(data, resource.getData());
+    }
+
+    @Test
+    public void keepChangedDataOfSpilledResource() {
+        FontResource resource = factory.createResource("font", createData((int) THRESHOLD), "Fonts/font.ttf", MediaType.TTF);
+        byte[] changedData = createData((int) THRESHOLD + 1);
+
+        resource.setData(changedData);
+        resource.close();
+
+        assertTrue(resource.isDataLoaded());
+        assertArrayEquals(changedData, resource.getData());
+    }
+
+    @Test
+    public void deleteSpillFileOfCollectedResource() throws Exception {
+        Path file = getSpillFile(factory.createResource("font", createData((int) THRESHOLD), "Fonts/font.ttf", MediaType.TTF));
+        assertTrue(Files.exists(file));
+
+        for (int i = 0; i < 50 && Files.exists(file); i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+
+        assertFalse(Files.exists(file));
+    }
+}
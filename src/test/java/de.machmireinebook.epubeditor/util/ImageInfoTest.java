@@ -0,0 +1,41 @@
+package de.machmireinebook.epubeditor.util;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ImageInfoTest {
+
+    private static ImageInfo createImageInfo(String svg) {
+        ImageInfo imageInfo = new ImageInfo();
+        imageInfo.setInput(new ByteArrayInputStream(svg.getBytes(StandardCharsets.UTF_8)));
+        return imageInfo;
+    }
+
+    @Test
+    public void svgWithAbsoluteDimensions() {
+        ImageInfo imageInfo = createImageInfo("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"300\" height=\"2in\"></svg>");
+        assertTrue(imageInfo.check());
+        assertEquals(300, imageInfo.getWidth());
+        assertEquals(192, imageInfo.getHeight());
+    }
+
+    @Test
+    public void svgWithRelativeWidthAndViewBox() {
+        ImageInfo imageInfo = createImageInfo("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"100%\" height=\"100%\" viewBox=\"0 0 600 800\"></svg>");
+        assertTrue(imageInfo.check());
+        assertEquals(600, imageInfo.getWidth());
+        assertEquals(800, imageInfo.getHeight());
+    }
+
+    @Test
+    public void svgWithRelativeWidthWithoutViewBoxIsNotChecked() {
+        ImageInfo imageInfo = createImageInfo("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"100%\" height=\"100%\"></svg>");
+        assertFalse(imageInfo.check());
+    }
+}
@@ -0,0 +1,101 @@
+package de.machmireinebook.epubeditor.xhtml;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.text.translate.AggregateTranslator;
+import org.apache.commons.text.translate.CharSequenceTranslator;
+import org.apache.commons.text.translate.EntityArrays;
+import org.apache.commons.text.translate.LookupTranslator;
+import org.apache.commons.text.translate.NumericEntityUnescaper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the entity unescaping of a serialized chapter: the former aggregate of lookup translators, built for every
+ * call, against the precompiled {@link EntityUnescaper} on the text and on the utf-8 bytes.
+ *
+ * Run with the main method from the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EntityUnescaperBenchmark {
+
+    private static final String PARAGRAPH = "    <p>Gr&uuml;&szlig;e aus M&uuml;nchen &ndash; &bdquo;Stra&szlig;e&ldquo; &amp; "
+            + "&lt;Pl&auml;tze&gt;,&nbsp;&#8230; ein ganz normaler Satz ohne Entities, &#xE9;t&eacute; &#160;100&#x202F;km.</p>\n";
+
+    @Param({"1000"})
+    private int paragraphs;
+
+    private String xhtml;
+    private byte[] xhtmlBytes;
+
+    @Setup
+    public void setup() {
+        StringBuilder builder = new StringBuilder("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n<html xmlns=\"http://www.w3.org/1999/xhtml\">\n<body>\n");
+        for (int i = 0; i < paragraphs; i++) {
+            builder.append(PARAGRAPH);
+        }
+        builder.append("</body>\n</html>\n");
+        xhtml = builder.toString();
+        xhtmlBytes = xhtml.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public String aggregateTranslator() {
+        return unescapeWithAggregateTranslator(xhtml);
+    }
+
+    @Benchmark
+    public String precompiledText() {
+        return EntityUnescaper.getInstance().unescape(xhtml);
+    }
+
+    @Benchmark
+    public byte[] precompiledBytes() {
+        return EntityUnescaper.getInstance().unescape(xhtmlBytes);
+    }
+
+    /**
+     * The former implementation of {@link XHTMLUtils#unescapedHtmlWithXmlAndNbspExceptions(String)}, with the numeric
+     * unescaper of commons text instead of the removed one that kept the special spaces.
+     */
+    private static String unescapeWithAggregateTranslator(String escapedText) {
+        Map<CharSequence, CharSequence> withoutNbsp = new HashMap<>(EntityArrays.ISO8859_1_UNESCAPE);
+        withoutNbsp.remove("&nbsp;");
+        withoutNbsp.put("&dbquo;", "„");
+        CharSequenceTranslator translator =
+                new AggregateTranslator(
+                        new LookupTranslator(XHTMLUtils.BASIC_UNESCAPE),
+                        new LookupTranslator(withoutNbsp),
+                        new LookupTranslator(EntityArrays.HTML40_EXTENDED_UNESCAPE),
+                        new NumericEntityUnescaper()
+                );
+        return translator.translate(escapedText);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(EntityUnescaperBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
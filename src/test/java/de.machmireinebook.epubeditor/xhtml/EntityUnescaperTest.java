@@ -0,0 +1,197 @@
+package de.machmireinebook.epubeditor.xhtml;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.text.translate.AggregateTranslator;
+import org.apache.commons.text.translate.CharSequenceTranslator;
+import org.apache.commons.text.translate.EntityArrays;
+import org.apache.commons.text.translate.LookupTranslator;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class EntityUnescaperTest {
+
+    private static final String XHTML = "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n"
+            + "<html xmlns=\"http://www.w3.org/1999/xhtml\">\n<head><title>Stra&szlig;e &amp; Weg</title></head>\n<body>\n"
+            + "    <p>Gr&uuml;&szlig;e aus M&uuml;nchen &ndash; &bdquo;Stra&szlig;e&ldquo; &amp; &lt;Pl&auml;tze&gt;,&nbsp;&#8230;</p>\n"
+            + "    <p class=\"a&quot;b\">&#xE9;t&eacute; &#160;100&#x202F;km &#xa0;&#8194;&#x200b;&#65279; &apos;x&apos;</p>\n"
+            + "    <p>&dbquo;Zitat&ldquo; &euro;&#8364;&#x20AC; &#128512;&#x1F600; &Alpha;&alpha;&hearts;</p>\n"
+            + "    <p>Ελληνικά &amp; 日本語&eacute;中文 &mdash;😀&mdash; ü&uuml;ü</p>\n"
+            + "</body>\n</html>\n";
+
+    private static final List<String> INVALID_REFERENCES = List.of(
+            "&unknown;", "& ", "&", "&amp", "&auml", "&;", "&#;", "&#x;", "&#12a;", "&#xZZ;", "&#65 ;", "&AUML;",
+            "a & b &c d", "&#x41");
+
+    private static String unescape(String text) {
+        return EntityUnescaper.getInstance().unescape(text);
+    }
+
+    /**
+     * The former implementation of {@link XHTMLUtils#unescapedHtmlWithXmlAndNbspExceptions(String)}.
+     */
+    private static String unescapeWithAggregateTranslator(String escapedText) {
+        Map<CharSequence, CharSequence> withoutNbsp = new HashMap<>(EntityArrays.ISO8859_1_UNESCAPE);
+        withoutNbsp.remove("&nbsp;");
+        withoutNbsp.put("&dbquo;", "„");
+        CharSequenceTranslator translator =
+                new AggregateTranslator(
+                        new LookupTranslator(XHTMLUtils.BASIC_UNESCAPE),
+                        new LookupTranslator(withoutNbsp),
+                        new LookupTranslator(EntityArrays.HTML40_EXTENDED_UNESCAPE),
+                        new NumericEntityWithoutSpacesUnescaper()
+                );
+        return translator.translate(escapedText);
+    }
+
+    /**
+     * The former numeric unescaper, that kept the special spaces escaped, with the semicolon required.
+     */
+    private static class NumericEntityWithoutSpacesUnescaper extends CharSequenceTranslator {
+        private final List<Integer> specialXhtmlCharacter = Arrays.asList(160, 0x2002, 0x2003, 0x2004, 0x2005, 0x2006,
+                0x2007, 0x2008, 0x2009, 0x200A, 0x200B, 8239, 65279);
+
+        @Override
+        public int translate(CharSequence input, int index, Writer out) throws IOException {
+            int seqEnd = input.length();
+            if (input.charAt(index) == '&' && index < seqEnd - 2 && input.charAt(index + 1) == '#') {
+                int start = index + 2;
+                boolean isHex = false;
+                char firstChar = input.charAt(start);
+                if (firstChar == 'x' || firstChar == 'X') {
+                    start++;
+                    isHex = true;
+                    if (start == seqEnd) {
+                        return 0;
+                    }
+                }
+                int end = start;
+                while (end < seqEnd && (input.charAt(end) >= '0' && input.charAt(end) <= '9'
+                        || input.charAt(end) >= 'a' && input.charAt(end) <= 'f'
+                        || input.charAt(end) >= 'A' && input.charAt(end) <= 'F')) {
+                    end++;
+                }
+                if (end == seqEnd || input.charAt(end) != ';') {
+                    return 0;
+                }
+                int entityValue;
+                try {
+                    entityValue = Integer.parseInt(input.subSequence(start, end).toString(), isHex ? 16 : 10);
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+                if (!specialXhtmlCharacter.contains(entityValue)) {
+                    out.write(Character.toChars(entityValue));
+                } else {
+                    out.write("&#" + entityValue + ";");
+                }
+                return 2 + end - start + (isHex ? 1 : 0) + 1;
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * Writes the text into the unescaping writer in parts of the given length, so that entities are split across
+     * writes.
+     */
+    private static String unescapeInParts(String text, int partLength) throws IOException {
+        StringWriter out = new StringWriter();
+        Writer writer = EntityUnescaper.getInstance().unescapingWriter(out);
+        for (int i = 0; i < text.length(); i += partLength) {
+            writer.write(text, i, Math.min(partLength, text.length() - i));
+        }
+        writer.flush();
+        return out.toString();
+    }
+
+    @Test
+    public void unescapeLikeAggregateTranslator() {
+        assertEquals(unescapeWithAggregateTranslator(XHTML), unescape(XHTML));
+        //an invalid reference directly before an entity
+        String text = "&&auml; &#&#65; &auml&ouml; &#x&#xe4; &amp&amp;";
+        assertEquals(unescapeWithAggregateTranslator(text), unescape(text));
+    }
+
+    @Test
+    public void unescapeNamedAndNumericEntities() {
+        assertEquals("Straße „Zitat“ é é é € € 😀 😀", unescape("Stra&szlig;e &dbquo;Zitat&ldquo; &eacute; &#233; &#xE9; "
+                + "&euro; &#X20ac; &#128512; &#x1F600;"));
+    }
+
+    @Test
+    public void keepXmlEntitiesAndSpecialSpacesEscaped() {
+        assertEquals("&amp; &lt; &gt; &apos; \" &nbsp; &#160; &#160; &#8239; &#8239; &#8194; &#8203; &#65279;",
+                unescape("&amp; &lt; &gt; &apos; &quot; &nbsp; &#160; &#xA0; &#8239; &#x202f; &#x2002; &#x200B; &#xFEFF;"));
+    }
+
+    @Test
+    public void keepInvalidReferences() {
+        for (String text : INVALID_REFERENCES) {
+            assertEquals(unescapeWithAggregateTranslator(text), unescape(text), text);
+            assertEquals(text, unescape(text), text);
+        }
+    }
+
+    @Test
+    public void keepReferencesToInvalidCodePoints() {
+        //the former translator threw an exception for code points beyond the unicode range and wrote lone surrogates
+        for (String text : List.of("&#1114112;", "&#x110000;", "&#99999999999;", "&#xD800;", "&#57343;")) {
+            assertEquals(text, unescape(text), text);
+        }
+    }
+
+    @Test
+    public void returnTextWithoutEntities() {
+        String text = "<p>Ελληνικά & 日本語 😀</p>";
+        assertSame(text, unescape(text));
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        assertSame(bytes, EntityUnescaper.getInstance().unescape(bytes));
+    }
+
+    @Test
+    public void unescapeBytesLikeText() {
+        for (String text : List.of(XHTML, String.join(" ", INVALID_REFERENCES), "&#1114112;&#xD800;ü&auml;")) {
+            assertArrayEquals(unescape(text).getBytes(StandardCharsets.UTF_8),
+                    EntityUnescaper.getInstance().unescape(text.getBytes(StandardCharsets.UTF_8)), text);
+        }
+    }
+
+    @Test
+    public void unescapeEntitiesSplitAcrossWrites() throws Exception {
+        String text = XHTML + String.join(" ", INVALID_REFERENCES);
+        String expected = unescape(text);
+        for (int partLength = 1; partLength <= 12; partLength++) {
+            assertEquals(expected, unescapeInParts(text, partLength), "parts of length " + partLength);
+        }
+    }
+
+    @Test
+    public void unescapeEntityWrittenCharacterByCharacter() throws Exception {
+        StringWriter out = new StringWriter();
+        Writer writer = EntityUnescaper.getInstance().unescapingWriter(out);
+        for (char c : "a&auml;&#x202F;&#8364;&amp;&aum".toCharArray()) {
+            writer.write(c);
+        }
+        writer.flush();
+
+        assertEquals("aä&#8239;€&amp;&aum", out.toString());
+    }
+
+    @Test
+    public void unescapeNullAsBytes() {
+        assertArrayEquals(new byte[]{}, XHTMLUtils.unescapedHtmlWithXmlAndNbspExceptions((byte[]) null));
+        assertEquals(null, XHTMLUtils.unescapedHtmlWithXmlAndNbspExceptions((String) null));
+    }
+}
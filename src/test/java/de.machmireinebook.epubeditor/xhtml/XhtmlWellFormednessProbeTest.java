@@ -0,0 +1,53 @@
+package de.machmireinebook.epubeditor.xhtml;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class XhtmlWellFormednessProbeTest {
+
+    private static final String DOCTYPE = "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n"
+            + "<!DOCTYPE html PUBLIC \"-//W3C//DTD XHTML 1.1//EN\" \"http://www.w3.org/TR/xhtml11/DTD/xhtml11.dtd\">\n";
+
+    private static boolean probe(String xhtml) {
+        return XhtmlWellFormednessProbe.isWellFormedXhtml(xhtml.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String document(String body) {
+        return DOCTYPE + "<html xmlns=\"http://www.w3.org/1999/xhtml\"><head><title>Chapter</title></head><body>"
+                + body + "</body></html>";
+    }
+
+    @Test
+    public void acceptWellFormedXhtml() {
+        assertTrue(probe(document("<p>Gr&#252;&#xDF;e &amp; &lt;Pl&#228;tze&gt; &quot;&apos;&#160;</p>")));
+    }
+
+    @Test
+    public void rejectUndeclaredNamedEntity() {
+        assertFalse(probe(document("<p>Gr&uuml;&szlig;e</p>")));
+        assertFalse(probe(document("<p>a&nbsp;b</p>")));
+    }
+
+    @Test
+    public void rejectUndeclaredNamedEntityWithoutDoctype() {
+        assertFalse(probe("<html xmlns=\"http://www.w3.org/1999/xhtml\"><body><p>a&nbsp;b</p></body></html>"));
+    }
+
+    @Test
+    public void acceptEntityDeclaredInInternalSubset() {
+        assertTrue(probe("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n<!DOCTYPE html [<!ENTITY nbsp \"&#160;\">]>\n"
+                + "<html xmlns=\"http://www.w3.org/1999/xhtml\"><body><p>a&nbsp;b</p></body></html>"));
+    }
+
+    @Test
+    public void rejectMalformedOrNonXhtml() {
+        assertFalse(probe(document("<p>unclosed")));
+        assertFalse(probe("<html><body><p>no namespace</p></body></html>"));
+        assertFalse(probe("<?xml version=\"1.0\" encoding=\"iso-8859-1\"?>\n"
+                + "<html xmlns=\"http://www.w3.org/1999/xhtml\"><body/></html>"));
+    }
+}